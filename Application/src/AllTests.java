@@ -4,17 +4,25 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({
+    AnytimePlannerTest.class,
     //ApplicationTest.class,
 	DecisionMakerTest.class,
+    DStarLiteTest.class,
     DistanceSensorInterpreterTest.class, 
+    FlowFieldTest.class,
     HandlerTest.class, HandlerToRobotQueueTest.class,
+    HierarchicalPlannerTest.class,
+    JumpPointSearchTest.class,
+    LatticePlannerTest.class,
     MapTest.class, 
     //MapXMLExporterTest.class, 
     MapXMLImporterTest.class, NoGoZonesMarkerTest.class,
     PathFindingTest.class,
+    PlanningServiceTest.class,
     PointToCommandParameterConverterTest.class,
     RobotTest.class, RobotJobQueueTest.class,
-    RobotToHandlerQueueTest.class, ShapeDetectionTest.class})
+    RobotToHandlerQueueTest.class, ShapeDetectionTest.class,
+    ThetaStarTest.class})
 public class AllTests {
 
 }
@@ -0,0 +1,314 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An anytime planner using ARA* (Likhachev, Gordon and Thrun, "ARA*:
+ * Anytime A* with Provable Bounds on Sub-Optimality", NIPS 2003).
+ * ARA* runs weighted A*, ordering cells by g + epsilon * h, which finds a path
+ * costing at most epsilon times the lowest cost after far fewer expansions than
+ * A*. It then lowers epsilon and improves the path, reusing the costs found so
+ * far, until epsilon reaches one and the path is of the lowest cost.
+ * The search is done in slices of a fixed time budget: improve() searches
+ * until the budget is spent, then returns, and the next call carries on where
+ * it stopped, so the caller's latency does not depend on how hard the map is.
+ * searchPath() starts a search and runs one slice, so its path may not be of
+ * the lowest cost (see epsilon()), and is empty if no path has been found yet.
+ * The search starts over if a cell's traversability changes during it.
+ * @author jkortman
+ */
+public class AnytimePlanner implements GridPlanner {
+    /**
+     * Create a planner for a map.
+     * @param map            the map to plan on
+     * @param initialEpsilon the weight of the heuristic in the first search, at least one
+     * @param epsilonStep    how much the weight is lowered after each search
+     * @param timeBudget     the time each slice of the search may take, in milliseconds
+     */
+    public AnytimePlanner(Map map, float initialEpsilon, float epsilonStep, long timeBudget) {
+        if (initialEpsilon < 1.0f || epsilonStep <= 0.0f || timeBudget < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.map = map;
+        this.initialEpsilon = initialEpsilon;
+        this.epsilonStep = epsilonStep;
+        this.timeBudget = timeBudget * 1000000;
+        this.distanceFromPoint = 0;
+        this.goal = -1;
+        this.bestPath = new int[0];
+    }
+    
+    public void setDistanceFromPoint(int val) {
+        distanceFromPoint = val;
+    }
+    
+    public int getDistanceFromPoint() {
+        return distanceFromPoint;
+    }
+    
+    public int[] searchPath(int start, int goal) {
+        begin(start, goal);
+        improve();
+        return bestPath();
+    }
+    
+    /**
+     * Start a new search between two cells, without searching yet.
+     * @param start the cell index of the origin
+     * @param goal  the cell index of the destination
+     */
+    public void begin(int start, int goal) {
+        if (map.traversability(distanceFromPoint) != traversable) {
+            if (traversable != null) {
+                traversable.releaseChangeCursor(changes);
+            }
+            traversable = map.traversability(distanceFromPoint);
+            changes = traversable.newChangeCursor();
+        }
+        // Changes before the search starts are seen by it anyway.
+        changes.drain(null, null);
+        rows = map.rows();
+        cols = map.columns();
+        int cellCount = map.cellCount();
+        if (gCosts == null || gCosts.length != cellCount) {
+            gCosts = new float[cellCount];
+            parents = new int[cellCount];
+            closedStamps = new int[cellCount];
+            inconsistent = new int[cellCount];
+            scratch = new int[cellCount];
+            open = new IndexedMinHeap(cellCount);
+        }
+        Arrays.fill(gCosts, Float.MAX_VALUE);
+        open.clear();
+        isInconsistent.clear();
+        inconsistentCount = 0;
+        newIteration();
+        
+        this.start = start;
+        this.goal = goal;
+        goalRow = goal / cols;
+        goalCol = goal - goalRow * cols;
+        epsilon = initialEpsilon;
+        bestPath = new int[0];
+        bestEpsilon = Float.MAX_VALUE;
+        complete = false;
+        gCosts[start] = 0.0f;
+        parents[start] = -1;
+        open.push(start, epsilon * hCost(start), hCost(start));
+    }
+    
+    /**
+     * Carry on with the search for one slice of the time budget, or until the
+     * path is of the lowest cost.
+     * @return true if a better path was found
+     */
+    public boolean improve() {
+        if (goal < 0 || complete) return false;
+        if (map.traversability(distanceFromPoint) != traversable || changes.hasChanges()) {
+            // The costs found so far may be wrong.
+            begin(start, goal);
+        }
+        long deadline = System.nanoTime() + timeBudget;
+        boolean improved = false;
+        int expansions = 0;
+        while (true) {
+            // Expand cells until no open cell could lead to a cheaper path to the goal.
+            while (!open.isEmpty() && gCosts[goal] > open.peekKey()) {
+                expand(open.pop());
+                expansions += 1;
+                if (expansions % deadlineCheckInterval == 0 && System.nanoTime() >= deadline) {
+                    return improved;
+                }
+            }
+            if (gCosts[goal] == Float.MAX_VALUE) {
+                // The open cells ran out: there is no path.
+                complete = true;
+                return improved;
+            }
+            bestPath = path();
+            improved = true;
+            if (epsilon <= 1.0f) {
+                bestEpsilon = 1.0f;
+                complete = true;
+                return improved;
+            }
+            float previousEpsilon = epsilon;
+            float lowest = reopen(Math.max(1.0f, epsilon - epsilonStep));
+            bestEpsilon = Math.min(previousEpsilon, gCosts[goal] / Math.min(lowest, gCosts[goal]));
+            if (bestEpsilon <= 1.0f) {
+                // No open cell can lead to a cheaper path.
+                bestEpsilon = 1.0f;
+                complete = true;
+                return improved;
+            }
+            if (System.nanoTime() >= deadline) {
+                return improved;
+            }
+        }
+    }
+    
+    /**
+     * Check whether the search is over: the best path is of the lowest cost,
+     * or there is no path.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+    
+    /**
+     * Get the best path found so far.
+     * @return the cell indices of the path from start to goal inclusive, each a
+     *         neighbour of the one before, or an empty array if no path has been found
+     */
+    public int[] bestPath() {
+        return bestPath;
+    }
+    
+    /**
+     * Get the bound on how much the best path found so far may cost, as a
+     * multiple of the lowest cost, or Float.MAX_VALUE if no path has been found.
+     */
+    public float epsilon() {
+        return bestEpsilon;
+    }
+    
+    /**
+     * Expand a cell: reach its traversable neighbours through it, where that
+     * is cheaper. Neighbours already expanded in this search are set aside to
+     * be expanded again in the next one.
+     */
+    private void expand(int cell) {
+        closedStamps[cell] = iteration;
+        int row = cell / cols;
+        int col = cell - row * cols;
+        for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+            int nRow = row + Map.neighbourRowOffsets[direction];
+            int nCol = col + Map.neighbourColOffsets[direction];
+            if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+            int next = nRow * cols + nCol;
+            if (!traversable.isTraversable(next)) continue;
+            float cost = gCosts[cell] + (Map.isDiagonal(direction) ? PathNode.diagonallyMovementCost
+                                                                   : PathNode.sideWaysMovementCost);
+            if (gCosts[next] <= cost) continue;
+            gCosts[next] = cost;
+            parents[next] = cell;
+            if (closedStamps[next] != iteration) {
+                float h = hCost(next);
+                open.push(next, cost + epsilon * h, h);
+            } else if (!isInconsistent.get(next)) {
+                isInconsistent.set(next);
+                inconsistent[inconsistentCount] = next;
+                inconsistentCount += 1;
+            }
+        }
+    }
+    
+    /**
+     * Start the next search with a lower epsilon: open the set-aside cells
+     * along with the open ones, ordered by the new epsilon.
+     * @param newEpsilon the new epsilon
+     * @return           the lowest g + h of those cells, which no path to
+     *                   the goal through them can cost less than
+     */
+    private float reopen(float newEpsilon) {
+        epsilon = newEpsilon;
+        int count = 0;
+        while (!open.isEmpty()) {
+            scratch[count] = open.pop();
+            count += 1;
+        }
+        for (int i = 0; i < inconsistentCount; i += 1) {
+            isInconsistent.clear(inconsistent[i]);
+            scratch[count] = inconsistent[i];
+            count += 1;
+        }
+        inconsistentCount = 0;
+        float lowest = Float.MAX_VALUE;
+        for (int i = 0; i < count; i += 1) {
+            int cell = scratch[i];
+            float h = hCost(cell);
+            lowest = Math.min(lowest, gCosts[cell] + h);
+            open.push(cell, gCosts[cell] + epsilon * h, h);
+        }
+        newIteration();
+        return lowest;
+    }
+    
+    /**
+     * Start a new search over the same costs, in which no cell has been
+     * expanded.
+     */
+    private void newIteration() {
+        iteration += 1;
+        if (iteration == 0) {
+            // The stamps have wrapped around; clear them once.
+            Arrays.fill(closedStamps, 0);
+            iteration = 1;
+        }
+    }
+    
+    /**
+     * Get the lowest cost of the steps from a cell to the goal, on open floor.
+     */
+    private float hCost(int cell) {
+        int row = cell / cols;
+        int dRow = Math.abs(goalRow - row);
+        int dCol = Math.abs(goalCol - (cell - row * cols));
+        int diagonal = Math.min(dRow, dCol);
+        return diagonal * PathNode.diagonallyMovementCost
+                + (Math.max(dRow, dCol) - diagonal) * PathNode.sideWaysMovementCost;
+    }
+    
+    /**
+     * Get the path to the goal, by following its parents back to the start.
+     */
+    private int[] path() {
+        int length = 0;
+        for (int cell = goal; cell >= 0; cell = parents[cell]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        for (int cell = goal; cell >= 0; cell = parents[cell]) {
+            length -= 1;
+            path[length] = cell;
+        }
+        return path;
+    }
+    
+    // How many cells are expanded between checks of the clock.
+    private static final int deadlineCheckInterval = 64;
+    
+    // The map, and the clearance paths keep from impassable areas, in cells.
+    private Map map;
+    private int distanceFromPoint;
+    // The schedule of epsilons, and the time each slice may take, in nanoseconds.
+    private float initialEpsilon;
+    private float epsilonStep;
+    private long timeBudget;
+    // The traversability the search runs on, and the cells whose
+    // traversability has changed since it started.
+    private TraversabilityLayer traversable;
+    private ChangeCursor changes;
+    private int rows;
+    private int cols;
+    // The current search.
+    private int start;
+    private int goal;
+    private int goalRow;
+    private int goalCol;
+    private float epsilon;
+    private float[] gCosts;
+    private int[] parents;
+    private IndexedMinHeap open;
+    // The cells expanded in the current iteration carry its stamp.
+    private int[] closedStamps;
+    private int iteration;
+    // The cells made cheaper after they were expanded in this iteration.
+    private int[] inconsistent;
+    private int inconsistentCount;
+    private final BitSet isInconsistent = new BitSet();
+    private int[] scratch;
+    // The best path found so far, and its bound.
+    private int[] bestPath;
+    private float bestEpsilon;
+    private boolean complete;
+}
@@ -0,0 +1,86 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AnytimePlannerTest {
+    @Test
+    public void testImprovesToLowestCost() {
+        new PlannerTestSupport.Trials<AnytimePlanner>(new Random(24), 80, 90, 60, 20) {
+            AnytimePlanner create(Map map) {
+                // A zero budget searches one short slice per call.
+                return new AnytimePlanner(map, 3.0f, 0.5f, 0);
+            }
+        
+            void check(AnytimePlanner planner, Map map, int clearance, int start, int goal, int[] lowest) {
+                float lowestCost = PlannerTestSupport.cost(map, lowest);
+                planner.begin(start, goal);
+                float previous = Float.MAX_VALUE;
+                while (!planner.isComplete()) {
+                    if (!planner.improve()) continue;
+                    int[] path = planner.bestPath();
+                    PlannerTestSupport.assertValidPath(map, clearance, start, goal, path);
+                    float cost = PlannerTestSupport.cost(map, path);
+                    assertTrue(cost <= previous);
+                    assertTrue(cost <= planner.epsilon() * lowestCost + 1e-3f);
+                    previous = cost;
+                }
+                PlannerTestSupport.assertLowestCost(map, clearance, start, goal, lowest, planner.bestPath());
+                if (lowest.length > 0) {
+                    assertEquals(1.0f, planner.epsilon(), 0.0f);
+                }
+            }
+        }.run(20, 1);
+    }
+    
+    @Test
+    public void testSliceIsBounded() {
+        Map map = new Map(0.02f, 400, 400);
+        // A comb of walls, so the path winds across the whole map.
+        for (int row = 20; row < 400; row += 20) {
+            int gap = (row / 20) % 2 == 0 ? 0 : 399;
+            for (int col = 0; col < 400; col += 1) {
+                if (col != gap) map.set(Map.Property.OBSTACLE, map.index(row, col), 1.0f);
+            }
+        }
+        AnytimePlanner planner = new AnytimePlanner(map, 1.0f, 0.5f, 0);
+        int start = map.index(5, 200);
+        int goal = map.index(395, 200);
+        int[] path = planner.searchPath(start, goal);
+        assertEquals(0, path.length);
+        assertFalse(planner.isComplete());
+        int slices = 1;
+        while (!planner.isComplete()) {
+            planner.improve();
+            slices += 1;
+        }
+        assertTrue(slices > 10);
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, planner.bestPath());
+        assertEquals(PlannerTestSupport.cost(map, new PathFinding(map).searchPath(start, goal)),
+                     PlannerTestSupport.cost(map, planner.bestPath()), 0.0f);
+    }
+    
+    @Test
+    public void testStartsOverOnChange() {
+        Map map = new Map(0.02f, 60, 60);
+        AnytimePlanner planner = new AnytimePlanner(map, 2.0f, 0.5f, 1000);
+        int start = map.index(30, 5);
+        int goal = map.index(30, 55);
+        int[] path = planner.searchPath(start, goal);
+        assertTrue(planner.isComplete());
+        
+        // Block the path before the search is over, then carry on.
+        planner.begin(start, goal);
+        for (int row = 10; row < 60; row += 1) {
+            map.set(Map.Property.OBSTACLE, map.index(row, 30), 1.0f);
+        }
+        while (!planner.isComplete()) {
+            planner.improve();
+        }
+        path = planner.bestPath();
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, path);
+        assertEquals(PlannerTestSupport.cost(map, new PathFinding(map).searchPath(start, goal)),
+                     PlannerTestSupport.cost(map, path), 0.0f);
+    }
+}
@@ -101,6 +101,7 @@ public class Application {
         
         System.out.print("Cleaning up resources...");
         robot.cleanUp();
+        handler.map.flush();
         System.out.print(" Done!\n");
         System.out.println("Closing Application... Done!");
         System.exit(0);
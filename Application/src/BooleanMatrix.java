@@ -0,0 +1,107 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size 2D storage container of booleans. Matrices are zero-indexed.
+ * Elements are packed 64 to a long, row-major.
+ * @author jkortman
+ */
+public class BooleanMatrix {
+    /**
+     * Default constructor is disallowed; Matrices must have an associated size/height.
+     */
+    @SuppressWarnings("unused")
+    private BooleanMatrix() {}
+    
+    /**
+     * Create a matrix. All elements are initialized to false.
+     * @param height    the number of rows in the matrix.
+     * @param width     the number of columns in the matrix.
+     */
+    public BooleanMatrix(int height, int width) throws IllegalArgumentException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.height = height;
+        this.width = width;
+        storage = new long[(height * width + 63) >>> 6];
+    }
+    
+    /**
+     * Set an element in the matrix.
+     * @param row   the row/vertical position of the element to set.
+     * @param col   the column/horizontal position of the element to set.
+     * @param value the value to set the element to at the specified position.
+     */
+    public void set(int row, int col, boolean value) {
+        int i = row * width + col;
+        if (value) {
+            storage[i >>> 6] |= 1L << i;
+        } else {
+            storage[i >>> 6] &= ~(1L << i);
+        }
+    }
+    
+    /**
+     * Fill an entire matrix with a specified value.
+     * @param value the value to fill the matrix with.
+     */
+    public void fill(boolean value) {
+        Arrays.fill(storage, value ? -1L : 0L);
+    }
+    
+    /**
+     * Retrieve a value from the matrix at a position.
+     * @param row   the row/vertical position of the element to get.
+     * @param col   the column/horizontal position of the element to get.
+     * @return      the value at the specified position.
+     */
+    public boolean get(int row, int col) {
+        int i = row * width + col;
+        return (storage[i >>> 6] & (1L << i)) != 0;
+    }
+    
+    /**
+     * Create a larger matrix holding the elements of this one.
+     * Element (row, col) of this matrix becomes element
+     * (row + rowShift, col + colShift) of the new matrix; the new elements are false.
+     * @param rowShift  the number of rows to add above the current rows.
+     * @param colShift  the number of columns to add left of the current columns.
+     * @param height    the number of rows in the new matrix.
+     * @param width     the number of columns in the new matrix.
+     * @return          the new matrix.
+     */
+    public BooleanMatrix grow(int rowShift, int colShift, int height, int width) {
+        if (rowShift < 0 || colShift < 0
+                || height < this.height + rowShift || width < this.width + colShift) {
+            throw new IllegalArgumentException();
+        }
+        BooleanMatrix grown = new BooleanMatrix(height, width);
+        for (int row = 0; row < this.height; row += 1) {
+            for (int col = 0; col < this.width; col += 1) {
+                if (get(row, col)) grown.set(row + rowShift, col + colShift, true);
+            }
+        }
+        return grown;
+    }
+    
+    /**
+     * Get the height of the matrix.
+     * @return the height (number of rows) in the matrix.
+     */
+    public int height() {
+        return height;
+    }
+    
+    /**
+     * Get the width of the matrix.
+     * @return the width (number of columns) in the matrix.
+     */
+    public int width() {
+        return width;
+    }
+
+    // Internal storage details.
+    private int height;
+    private int width;
+    private long[] storage;
+}
@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size 2D storage container of probabilities, quantized to one byte
+ * per element. Matrices are zero-indexed and stored row-major.
+ * Each element is a step count from 0 to maxSteps, representing the
+ * probability steps / maxSteps. maxSteps is even, so 0.0, 0.5 and 1.0 are
+ * stored exactly. Other values are rounded to the nearest step, except that
+ * values just above 0.5 round up, so comparisons against 0.5 give the same
+ * answer as for the unquantized value.
+ * @author jkortman
+ */
+public class ByteProbabilityMatrix implements MapLayer {
+    /**
+     * Default constructor is disallowed; Matrices must have an associated size/height.
+     */
+    @SuppressWarnings("unused")
+    private ByteProbabilityMatrix() {}
+    
+    /**
+     * Create a matrix. All elements are initialized to 0.0.
+     * @param height    the number of rows in the matrix.
+     * @param width     the number of columns in the matrix.
+     */
+    public ByteProbabilityMatrix(int height, int width) throws IllegalArgumentException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.height = height;
+        this.width = width;
+        storage = new byte[height * width];
+    }
+    
+    /**
+     * Convert a probability to the nearest step, clamping to [0.0, 1.0].
+     * @param value the probability.
+     * @return      the step count, 0 to maxSteps.
+     */
+    public static int quantize(float value) {
+        if (!(value > 0.0f)) return 0;
+        if (value >= 1.0f) return maxSteps;
+        int steps = (int)(value * maxSteps + 0.5f);
+        // Values just above 0.5 must not round down onto it.
+        if (steps == maxSteps / 2 && value > 0.5f) steps += 1;
+        return steps;
+    }
+    
+    /**
+     * Convert a step count back to a probability.
+     * @param steps the step count, 0 to maxSteps.
+     * @return      the probability.
+     */
+    public static float probability(int steps) {
+        return probabilities[steps];
+    }
+    
+    /**
+     * Set an element in the matrix, rounded to the nearest step.
+     * @param row   the row/vertical position of the element to set.
+     * @param col   the column/horizontal position of the element to set.
+     * @param value the probability to set the element to at the specified position.
+     */
+    public void set(int row, int col, float value) {
+        set(row * width + col, value);
+    }
+    
+    /**
+     * Set an element in the matrix by its row-major index, rounded to the nearest step.
+     * @param index the element index, row * width + col.
+     * @param value the probability to set the element to.
+     */
+    public void set(int index, float value) {
+        storage[index] = (byte)quantize(value);
+    }
+    
+    /**
+     * Fill an entire matrix with a specified probability.
+     * @param value the probability to fill the matrix with.
+     */
+    public void fill(float value) {
+        Arrays.fill(storage, (byte)quantize(value));
+    }
+    
+    /**
+     * Retrieve a value from the matrix at a position.
+     * @param row   the row/vertical position of the element to get.
+     * @param col   the column/horizontal position of the element to get.
+     * @return      the probability at the specified position.
+     */
+    public float get(int row, int col) {
+        return get(row * width + col);
+    }
+    
+    /**
+     * Retrieve a value from the matrix by its row-major index.
+     * @param index the element index, row * width + col.
+     * @return      the probability at the specified index.
+     */
+    public float get(int index) {
+        return probabilities[storage[index] & 0xFF];
+    }
+    
+    /**
+     * Retrieve the step count of an element.
+     * @param index the element index, row * width + col.
+     * @return      the step count, 0 to maxSteps.
+     */
+    public int getSteps(int index) {
+        return storage[index] & 0xFF;
+    }
+    
+    /**
+     * Add a number of steps to an element, saturating at 0 and maxSteps.
+     * @param index the element index, row * width + col.
+     * @param delta the number of steps to add; may be negative.
+     * @return      the new step count.
+     */
+    public int addSteps(int index, int delta) {
+        int steps = (storage[index] & 0xFF) + delta;
+        if (steps < 0) steps = 0;
+        if (steps > maxSteps) steps = maxSteps;
+        storage[index] = (byte)steps;
+        return steps;
+    }
+    
+    /**
+     * Copy a rectangular region of the matrix into an array, row by row.
+     * @param row    the first row of the region.
+     * @param col    the first column of the region.
+     * @param height the number of rows in the region.
+     * @param width  the number of columns in the region.
+     * @param dest   the array to copy into.
+     * @param offset the position in dest of the first copied element.
+     */
+    public void copyRegion(int row, int col, int height, int width, float[] dest, int offset) {
+        for (int i = 0; i < height; i += 1) {
+            int from = (row + i) * this.width + col;
+            int to = offset + i * width;
+            for (int j = 0; j < width; j += 1) {
+                dest[to + j] = probabilities[storage[from + j] & 0xFF];
+            }
+        }
+    }
+    
+    /**
+     * Get the height of the matrix.
+     * @return the height (number of rows) in the matrix.
+     */
+    public int height() {
+        return height;
+    }
+    
+    /**
+     * Get the width of the matrix.
+     * @return the width (number of columns) in the matrix.
+     */
+    public int width() {
+        return width;
+    }
+    
+    // The number of steps representing a probability of 1.0.
+    public static final int maxSteps = 254;
+    // The probability of each step count.
+    private static final float[] probabilities = new float[256];
+    static {
+        for (int i = 0; i < probabilities.length; i += 1) {
+            probabilities[i] = Math.min(i, maxSteps) / (float)maxSteps;
+        }
+    }
+    
+    // Internal storage details.
+    private int height;
+    private int width;
+    private byte[] storage;
+}
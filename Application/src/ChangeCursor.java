@@ -0,0 +1,107 @@
+import java.util.BitSet;
+
+/**
+ * Records which cells of a Map have changed since its consumer last looked.
+ * Each consumer (renderer, exporter, planner, ...) owns its own cursor, so
+ * consumers drain changes independently of each other and only need to
+ * process the cells that were modified since their previous drain.
+ * Changes are tracked both per cell and per tile (see Map.tileSize).
+ * A new cursor reports every cell as changed.
+ * Cursors are drained under their lock. A cursor of a map that is not
+ * concurrent is marked without it, by the map's only writer, so it must be
+ * drained on that thread; a shared cursor is marked under its lock too.
+ * @author jkortman
+ */
+public class ChangeCursor {
+    /**
+     * Create a cursor. Cursors are created through Map.newChangeCursor().
+     * @param cellCount the number of cells being tracked
+     * @param tileCount the number of tiles being tracked
+     * @param shared    whether the cursor is marked by several threads
+     */
+    ChangeCursor(int cellCount, int tileCount, boolean shared) {
+        this.shared = shared;
+        resize(cellCount, tileCount);
+    }
+    
+    /**
+     * Record a change to a cell.
+     * @param index the index of the changed cell
+     * @param tile  the index of the tile containing the cell
+     */
+    void mark(int index, int tile) {
+        if (shared) {
+            synchronized (this) {
+                cells.set(index);
+                tiles.set(tile);
+            }
+            return;
+        }
+        cells.set(index);
+        tiles.set(tile);
+    }
+    
+    /**
+     * Reset the cursor for a new map size, reporting every cell as changed.
+     * @param cellCount the number of cells being tracked
+     * @param tileCount the number of tiles being tracked
+     */
+    synchronized void resize(int cellCount, int tileCount) {
+        this.cellCount = cellCount;
+        this.tileCount = tileCount;
+        cells = new BitSet(cellCount);
+        tiles = new BitSet(tileCount);
+        cells.set(0, cellCount);
+        tiles.set(0, tileCount);
+    }
+    
+    /**
+     * Check whether any cell has changed since the last drain.
+     */
+    public synchronized boolean hasChanges() {
+        return !tiles.isEmpty();
+    }
+    
+    /**
+     * Move the recorded changes into caller-owned bitsets and reset the cursor.
+     * The bitsets are cleared first; either may be null if not needed.
+     * The drained bitsets can then be walked without holding any lock, e.g.
+     * for (int i = cells.nextSetBit(0); i >= 0; i = cells.nextSetBit(i + 1)).
+     * @param cellsInto receives the indices of the changed cells
+     * @param tilesInto receives the indices of the changed tiles
+     */
+    public synchronized void drain(BitSet cellsInto, BitSet tilesInto) {
+        if (cellsInto != null) {
+            cellsInto.clear();
+            cellsInto.or(cells);
+        }
+        if (tilesInto != null) {
+            tilesInto.clear();
+            tilesInto.or(tiles);
+        }
+        cells.clear();
+        tiles.clear();
+    }
+    
+    /**
+     * Get the number of cells tracked by the cursor.
+     */
+    public synchronized int cellCount() {
+        return cellCount;
+    }
+    
+    /**
+     * Get the number of tiles tracked by the cursor.
+     */
+    public synchronized int tileCount() {
+        return tileCount;
+    }
+    
+    // Whether marks take the lock.
+    private final boolean shared;
+    // The changed cells and tiles.
+    private BitSet cells;
+    private BitSet tiles;
+    private int cellCount;
+    private int tileCount;
+}
@@ -1,3 +1,4 @@
+import java.util.EnumSet;
 import java.util.HashMap;
 
 /**
@@ -7,6 +8,10 @@ import java.util.HashMap;
 public class ColorInterpreter {
     public ColorInterpreter(HashMap<ColorDetector.Color, Map.Property> key) {
         this.key = key;
+        this.observable = EnumSet.noneOf(Map.Property.class);
+        for (Map.Property prop : key.values()) {
+            if (prop != Map.Property.NONE) observable.add(prop);
+        }
     }
     
     /**
@@ -14,10 +19,10 @@ public class ColorInterpreter {
      * @param c     The detected color from the ColorDetector.
      * @param map   The map to load the interpretation into.
      * @param pos   The position of the detected color.
-     * @return      The interpreted property, or null if no successful interpretation.
-     * @throws      Map.OutOfMapBoundsException
+     * @return      The interpreted property, or null if no successful interpretation
+     *              (including when pos is outside of the map).
      */
-    public Map.Property interpret(ColorDetector.Color c, Map map, Point pos) throws Map.OutOfMapBoundsException {
+    public Map.Property interpret(ColorDetector.Color c, Map map, Point pos) {
         Map.Property prop = key.get(c);
         if (prop == null) {
             throw new RuntimeException("Color " + c.toString() + " is not in the ColorInterpreter key");
@@ -27,10 +32,12 @@ public class ColorInterpreter {
                     pos.xMetres, pos.yMetres, c.toString(), prop.toString());
         }
         
-        // Update the map.
-        if (prop != Map.Property.NONE) {
-            map.set(prop, pos, 1.0f);
-        } 
+        // Update the map: the detected property becomes more likely at pos,
+        // and every other property the sensor can detect less likely.
+        if (prop != Map.Property.NONE && !map.observe(prop, pos, LogOdds.hit)) return null;
+        for (Map.Property other : observable) {
+            if (other != prop) map.observe(other, pos, LogOdds.miss);
+        }
         
         if (Settings.Debug.showDetectedColorPropery) {
             if (prop == null)   System.out.printf("Property detected: null%n");
@@ -41,4 +48,6 @@ public class ColorInterpreter {
     }
 
     private HashMap<ColorDetector.Color, Map.Property> key;
+    // The properties that some color in the key maps to.
+    private EnumSet<Map.Property> observable;
 }
@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An incremental planner using D* Lite (Koenig and Likhachev, "D* Lite",
+ * AAAI 2002).
+ * D* Lite searches backwards from the goal and keeps its search tree between
+ * calls. When it is asked for a path to the same goal again, it only repairs
+ * the cells whose traversability changed since the last call (reported by a
+ * change cursor on the map's traversability layer) and the part of the tree
+ * that depended on them, so replanning after a sensed obstacle costs about
+ * as much as the change, not as much as the arena. The start may move along
+ * the previous path between calls.
+ * A new goal, a new clearance or a map that has grown starts a new search.
+ * @author jkortman
+ */
+public class DStarLite implements GridPlanner {
+    /**
+     * Create a planner for a map.
+     * @param map the map to plan on
+     */
+    public DStarLite(Map map) {
+        this.map = map;
+        this.distanceFromPoint = 0;
+        this.goal = -1;
+    }
+    
+    public void setDistanceFromPoint(int val) {
+        distanceFromPoint = val;
+    }
+    
+    public int getDistanceFromPoint() {
+        return distanceFromPoint;
+    }
+    
+    public int[] searchPath(int start, int goal) {
+        TraversabilityLayer layer = map.traversability(distanceFromPoint);
+        if (goal != this.goal || layer != traversable) {
+            initialize(layer, start, goal);
+        } else {
+            // The start has moved; keys already in the heap are lower bounds.
+            keyModifier += hCost(lastStart, start);
+            lastStart = start;
+            this.start = start;
+            repairChanges();
+        }
+        if (!computeShortestPath()) return new int[0];
+        return extractPath();
+    }
+    
+    /**
+     * Get the number of cells expanded by the last call to searchPath.
+     */
+    public int lastExpansions() {
+        return expansions;
+    }
+    
+    /**
+     * Start a new search tree for a goal.
+     */
+    private void initialize(TraversabilityLayer layer, int start, int goal) {
+        if (traversable != null) {
+            traversable.releaseChangeCursor(changes);
+        }
+        traversable = layer;
+        changes = layer.newChangeCursor();
+        // A new cursor reports every cell; the new search sees them all anyway.
+        changes.drain(null, null);
+        int cellCount = map.cellCount();
+        if (gCosts == null || gCosts.length != cellCount) {
+            gCosts = new float[cellCount];
+            rhs = new float[cellCount];
+            open = new IndexedMinHeap(cellCount);
+        }
+        Arrays.fill(gCosts, infinity);
+        Arrays.fill(rhs, infinity);
+        open.clear();
+        rows = map.rows();
+        cols = map.columns();
+        this.goal = goal;
+        this.start = start;
+        lastStart = start;
+        keyModifier = 0.0f;
+        rhs[goal] = 0.0f;
+        open.push(goal, hCost(start, goal), 0.0f);
+    }
+    
+    /**
+     * Update the cells whose outgoing costs changed since the last call:
+     * every neighbour of a cell whose traversability changed.
+     */
+    private void repairChanges() {
+        changes.drain(changedCells, null);
+        for (int cell = changedCells.nextSetBit(0); cell >= 0; cell = changedCells.nextSetBit(cell + 1)) {
+            int row = cell / cols;
+            int col = cell - row * cols;
+            for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                int nRow = row + Map.neighbourRowOffsets[direction];
+                int nCol = col + Map.neighbourColOffsets[direction];
+                if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+                updateVertex(nRow * cols + nCol);
+            }
+        }
+    }
+    
+    /**
+     * Expand cells until the start is consistent and no queued cell could
+     * lower its cost. An interrupted search leaves the queue as it is, so the
+     * next call for the same goal carries on from there.
+     * @return false if the thread was interrupted first
+     */
+    private boolean computeShortestPath() {
+        expansions = 0;
+        while (!open.isEmpty()
+               && (less(open.peekKey(), open.peekTieBreak(), key(start), tieBreak(start))
+                   || rhs[start] != gCosts[start])) {
+            if (Thread.currentThread().isInterrupted()) return false;
+            int cell = open.peek();
+            float key = key(cell);
+            float tieBreak = tieBreak(cell);
+            if (less(open.peekKey(), open.peekTieBreak(), key, tieBreak)) {
+                // Queued before the start moved; requeue with its current key.
+                open.push(cell, key, tieBreak);
+                continue;
+            }
+            expansions += 1;
+            open.remove(cell);
+            if (gCosts[cell] > rhs[cell]) {
+                gCosts[cell] = rhs[cell];
+            } else {
+                gCosts[cell] = infinity;
+                updateVertex(cell);
+            }
+            updateNeighbours(cell);
+        }
+        return true;
+    }
+    
+    /**
+     * Update every neighbour of a cell whose cost has changed.
+     */
+    private void updateNeighbours(int cell) {
+        int row = cell / cols;
+        int col = cell - row * cols;
+        for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+            int nRow = row + Map.neighbourRowOffsets[direction];
+            int nCol = col + Map.neighbourColOffsets[direction];
+            if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+            updateVertex(nRow * cols + nCol);
+        }
+    }
+    
+    /**
+     * Recompute a cell's one-step lookahead cost, and queue it if it is
+     * inconsistent.
+     */
+    private void updateVertex(int cell) {
+        if (cell != goal) {
+            rhs[cell] = bestNeighbourCost(cell);
+        }
+        if (gCosts[cell] != rhs[cell]) {
+            open.push(cell, key(cell), tieBreak(cell));
+        } else {
+            open.remove(cell);
+        }
+    }
+    
+    /**
+     * Get the lowest cost of a path from a cell through one of its neighbours,
+     * using the neighbours' current costs.
+     */
+    private float bestNeighbourCost(int cell) {
+        int row = cell / cols;
+        int col = cell - row * cols;
+        float best = infinity;
+        for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+            int nRow = row + Map.neighbourRowOffsets[direction];
+            int nCol = col + Map.neighbourColOffsets[direction];
+            if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+            int n = nRow * cols + nCol;
+            if (!traversable.isTraversable(n)) continue;
+            best = Math.min(best, gCosts[n] + stepCost(direction));
+        }
+        return best;
+    }
+    
+    /**
+     * Follow the lowest-cost neighbours from the start to the goal.
+     */
+    private int[] extractPath() {
+        if (gCosts[start] == infinity && rhs[start] == infinity) return new int[0];
+        int[] path = new int[64];
+        int length = 0;
+        int cell = start;
+        path[length++] = cell;
+        while (cell != goal) {
+            int row = cell / cols;
+            int col = cell - row * cols;
+            int next = -1;
+            float best = infinity;
+            for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                int nRow = row + Map.neighbourRowOffsets[direction];
+                int nCol = col + Map.neighbourColOffsets[direction];
+                if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+                int n = nRow * cols + nCol;
+                if (!traversable.isTraversable(n)) continue;
+                float cost = gCosts[n] + stepCost(direction);
+                if (cost < best) {
+                    best = cost;
+                    next = n;
+                }
+            }
+            if (next < 0 || length > rows * cols) return new int[0];
+            if (length == path.length) path = Arrays.copyOf(path, length * 2);
+            path[length++] = next;
+            cell = next;
+        }
+        return Arrays.copyOf(path, length);
+    }
+    
+    /**
+     * Get the primary key of a cell: its cost, plus the estimate from the start.
+     */
+    private float key(int cell) {
+        return Math.min(gCosts[cell], rhs[cell]) + hCost(start, cell) + keyModifier;
+    }
+    
+    /**
+     * Get the secondary key of a cell: its cost.
+     */
+    private float tieBreak(int cell) {
+        return Math.min(gCosts[cell], rhs[cell]);
+    }
+    
+    /**
+     * Compare two keys lexicographically.
+     */
+    private static boolean less(float key, float tieBreak, float otherKey, float otherTieBreak) {
+        return key < otherKey || (key == otherKey && tieBreak < otherTieBreak);
+    }
+    
+    /**
+     * Get the cost of a step in a neighbour direction.
+     */
+    private static float stepCost(int direction) {
+        return Map.isDiagonal(direction) ? PathNode.diagonallyMovementCost : PathNode.sideWaysMovementCost;
+    }
+    
+    /**
+     * Get the cost of the best path between two cells on open floor, which
+     * never overestimates.
+     */
+    private float hCost(int from, int to) {
+        int dRow = Math.abs(to / cols - from / cols);
+        int dCol = Math.abs(to % cols - from % cols);
+        int diagonal = Math.min(dRow, dCol);
+        return diagonal * PathNode.diagonallyMovementCost
+             + (Math.max(dRow, dCol) - diagonal) * PathNode.sideWaysMovementCost;
+    }
+    
+    private static final float infinity = Float.POSITIVE_INFINITY;
+    
+    // The map, and the clearance paths keep from impassable areas, in cells.
+    private Map map;
+    private int distanceFromPoint;
+    // The traversability the search tree was built on, and the cells whose
+    // traversability has changed since.
+    private TraversabilityLayer traversable;
+    private ChangeCursor changes;
+    private final BitSet changedCells = new BitSet();
+    private int rows;
+    private int cols;
+    // The search tree: the cost to the goal from each cell (g), and its
+    // one-step lookahead (rhs); cells where they differ are queued.
+    private float[] gCosts;
+    private float[] rhs;
+    private IndexedMinHeap open;
+    private int start;
+    private int goal;
+    // The start of the previous call, and the total distance the start has
+    // moved, which is added to new keys instead of requeuing every cell.
+    private int lastStart;
+    private float keyModifier;
+    // The number of cells expanded by the last call.
+    private int expansions;
+}
@@ -0,0 +1,55 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DStarLiteTest {
+    @Test
+    public void testSameCostAsAStarAfterChanges() {
+        new PlannerTestSupport.Trials<DStarLite>(new Random(19), 60, 70, 30, 15) {
+            DStarLite create(Map map) {
+                return new DStarLite(map);
+            }
+        
+            void check(DStarLite dStar, Map map, int clearance, int start, int goal, int[] lowest) {
+                for (int step = 0; step < 10; step += 1) {
+                    int[] path = dStar.searchPath(start, goal);
+                    PlannerTestSupport.assertLowestCost(map, clearance, start, goal, lowest, path);
+                    if (path.length > 0) {
+                        // Move some way along the path, then sense new obstacles and clear old ones.
+                        start = path[Math.min(path.length - 1, random.nextInt(10))];
+                    }
+                    PlannerTestSupport.addWalls(map, random, 3, 15, 1.0f);
+                    PlannerTestSupport.addWalls(map, random, 3, 15, 0.0f);
+                    lowest = PlannerTestSupport.lowestCostPath(map, clearance, start, goal);
+                }
+            }
+        }.run(20, 1);
+    }
+    
+    @Test
+    public void testRepairIsLocal() {
+        Map map = new Map(0.02f, 120, 120);
+        for (int col = 30; col <= 90; col += 1) {
+            map.set(Map.Property.OBSTACLE, map.index(100, col), 1.0f);
+        }
+        // The first search explores around the wall across the straight path.
+        DStarLite dStar = new DStarLite(map);
+        int start = map.index(5, 60);
+        int goal = map.index(115, 60);
+        int[] path = dStar.searchPath(start, goal);
+        int firstExpansions = dStar.lastExpansions();
+        
+        // Move along the path, then sense a small obstacle just ahead of the robot.
+        start = path[5];
+        int row = map.rowOf(path[10]);
+        int col = map.colOf(path[10]);
+        for (int c = col - 3; c <= col + 3; c += 1) {
+            map.set(Map.Property.OBSTACLE, map.index(row, c), 1.0f);
+        }
+        path = dStar.searchPath(start, goal);
+        PlannerTestSupport.assertLowestCost(map, 0, start, goal, path);
+        assertTrue(dStar.lastExpansions() < firstExpansions / 10);
+    }
+}
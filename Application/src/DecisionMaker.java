@@ -13,26 +13,96 @@ import java.util.List;
 public class DecisionMaker {
 	private Map map;
 	private PathFinding pathFinding;		// The pathfinding algorithm
+	private GridPlanner planner;			// The planner that searches for paths; may be pathFinding
+	private GridPlanner hierarchicalPlanner;	// The planner for large maps
+	private ThetaStar thetaStar;			// The any-angle planner, which also straightens lattice paths
+	private LatticePlanner latticePlanner;	// The planner for the quickest path, from the robot's heading
+	private FlowField flowField;			// The next step towards the destination from every grid location
+	private FlowField followedField;		// The field the robot follows: flowField, one handed over with a path, or null
+	private AnytimePlanner anytimePlanner;	// The planner that searches in slices of a time budget
+	private boolean planning;				// Whether the anytime planner is still improving the found path
+	private GridPlanner replanner;			// The planner that repairs the path when obstacles are sensed; may be planner
+	private boolean straightSegments;		// Whether found paths are given as the ends of their straight segments
+	private boolean hierarchical;			// Whether the hierarchical planner stands in for planner on large maps
 	private List<PathNode> foundPath;	// The found path
 	private int nextPointCounter;		// Points to the next point in the found path
 	private PathNode origin;				// The origin point of the robot
 	
 	public DecisionMaker(Map map) {
+		this(map, Settings.Planning.planner);
+	}
+	
+	/**
+	 * Creates a DecisionMaker that finds paths with a given planner, instead of the one in Settings.
+	 * @param map		- The map to find paths on
+	 * @param planner	- The planner to find paths with
+	 */
+	public DecisionMaker(Map map, Settings.Planning.Planner planner) {
 		this.map = map;
 		this.pathFinding = new PathFinding(this.map);
 		this.nextPointCounter = 0;
-		init();
+		init(planner);
 	}
 	
-	private void init() {
-		pathFinding.setDistanceFromPoint(10);
+	private void init(Settings.Planning.Planner plannerType) {
+		thetaStar = new ThetaStar(map);
+		flowField = new FlowField(map);
+		latticePlanner = new LatticePlanner(map, new ExecutionTimeModel(Settings.Planning.driveSpeed,
+				Settings.Planning.turnRate, Settings.Planning.turnAcceleration, Settings.Planning.commandOverhead));
+		anytimePlanner = new AnytimePlanner(map, Settings.Planning.initialEpsilon, Settings.Planning.epsilonStep,
+				Settings.Planning.planningBudget);
+		switch (plannerType) {
+		case JUMP_POINT_SEARCH:
+			planner = new JumpPointSearch(map);
+			break;
+		case ANY_ANGLE:
+			planner = thetaStar;
+			break;
+		case MINIMUM_TIME:
+			planner = latticePlanner;
+			break;
+		case ANYTIME:
+			planner = anytimePlanner;
+			break;
+		case FLOW_FIELD:
+			planner = flowField;
+			break;
+		default:
+			planner = pathFinding;
+			break;
+		}
+		// Theta* and lattice paths are made to be driven as straight segments.
+		straightSegments = planner == thetaStar || planner == latticePlanner;
+		// Only a planner of the lowest-cost paths is swapped for HPA*, whose smoothed paths cost at
+		// most slightly more (see HierarchicalPlanner).
+		hierarchical = plannerType == Settings.Planning.Planner.A_STAR
+				|| plannerType == Settings.Planning.Planner.JUMP_POINT_SEARCH;
+		hierarchicalPlanner = new HierarchicalPlanner(map);
+		if (Settings.Planning.incrementalReplanning) {
+			replanner = new DStarLite(map);
+		} else {
+			replanner = planner;
+		}
+		// Keep the whole robot footprint clear of impassable areas.
+		int clearance = (int)Math.ceil(Robot.maximumRadiusFromCentre / map.getGridSize());
+		pathFinding.setDistanceFromPoint(clearance);
+		planner.setDistanceFromPoint(clearance);
+		hierarchicalPlanner.setDistanceFromPoint(clearance);
+		thetaStar.setDistanceFromPoint(clearance);
+		latticePlanner.setDistanceFromPoint(clearance);
+		flowField.setDistanceFromPoint(clearance);
+		anytimePlanner.setDistanceFromPoint(clearance);
+		replanner.setDistanceFromPoint(clearance);
 	}
 	
 	/**
 	 * Provides the next position in the found path. If the next position is not traversable then it
 	 * finds a new path and returns the next position on the new found path. If a path could not be found
 	 * or if the next position is out of bounds or if the destination point has been reached, it returns 
-	 * null.
+	 * null. It also returns null while the anytime planner has not found the new path yet; the robot
+	 * waits until improvePath() has. With any-angle or minimum-time planning the positions are the
+	 * ends of the straight segments of the path, and the whole segment to the next position must still
+	 * be traversable.
 	 * @return  - The next position/point in metres
 	 */
 	public Point getNextPosition() {
@@ -41,13 +111,19 @@ public class DecisionMaker {
 			try {
 				nextPosNode = foundPath.get(nextPointCounter);
 				if (!isTraversable(nextPosNode) ||
-						!pathFinding.checkSurroundings(nextPosNode)) {		// Robot sensor has detected that the next point is inside an impassable area
+						!pathFinding.checkSurroundings(nextPosNode) ||
+						!isSegmentClear(nextPosNode)) {		// Robot sensor has detected that the next point is inside an impassable area
 					if (!findAnotherPath()) { 			// If a path could not be found.
 						return null;
 					}
+					if (foundPath.isEmpty()) {			// No new path has been found within the time budget yet; see improvePath()
+						return null;
+					}
 					nextPosNode = foundPath.get(nextPointCounter);
 				}
-				if (nextPointCounter + 5 < foundPath.size()) {
+				if (straightSegments) {
+					nextPointCounter += 1;				// Every point ends a straight segment
+				} else if (nextPointCounter + 5 < foundPath.size()) {
 					nextPointCounter += 5;
 				} else {
 					nextPointCounter += 1;
@@ -61,6 +137,52 @@ public class DecisionMaker {
 		return null;
 	}
 	
+	/**
+	 * Provides the next position towards the destination from wherever the robot is. With a flow field
+	 * (the FLOW_FIELD planner, see Settings.Planning.Planner) the position is looked up from the
+	 * robot's grid location, so a robot that has drifted off the found path carries on from where it
+	 * is, and sensed obstacles only repair the field instead of replanning. The position is as far
+	 * along the field as the robot can drive straight (or five grid locations along it). With any
+	 * other planner it is the next position in the found path (see getNextPosition()).
+	 * A field found by the planning service (see followPath()) is only looked up here; it is repaired
+	 * on the planning thread, and until a repaired field is handed over (see followFlowField()) the
+	 * robot does not drive into grid locations that have become impassable since.
+	 * @param robotPos	- The robot's current position on the map in metres
+	 * @return			- The next position/point in metres, or null if the destination cannot be reached
+	 * 					  or the way on is blocked until the field is repaired
+	 */
+	public Point getNextPosition(Point robotPos) {
+		Map.GridLocation loc = map.getGridLocation(robotPos);
+		if (followedField == null || map.isOutOfBounds(loc)) {
+			return getNextPosition();
+		}
+		followedField.update();							// Only repairs the field found here
+		int cell = map.index(loc.row, loc.col);
+		if (followedField.cost(cell) == Float.MAX_VALUE) {	// The destination can not be reached from here
+			System.out.println("There are no more points or the path is blocked");
+			return null;
+		}
+		TraversabilityLayer traversable = map.traversability(pathFinding.getDistanceFromPoint());
+		int next = cell;
+		int hops = 0;
+		while (followedField.nextHop(next) >= 0) {
+			int further = followedField.nextHop(next);
+			if (hops > 0 && (straightSegments ? !thetaStar.hasLineOfSight(cell, further) : hops == 5)) {
+				break;
+			}
+			if (!traversable.isTraversable(further) && further != followedField.goal()) {
+				break;									// Blocked since the field was found
+			}
+			next = further;
+			hops += 1;
+		}
+		if (next == cell) {
+			System.out.println("The way on is blocked until the flow field is repaired");
+			return null;
+		}
+		return map.getCentrePoint(next);
+	}
+	
 	/**
 	 * This method finds a new path from the robot's current position to the destination point
 	 * @return - True if a path is found, otherwise false
@@ -73,7 +195,7 @@ public class DecisionMaker {
 		} else {								// If robot has moved from it's origin
 			startPoint = foundPath.get(nextPointCounter-1);
 		}
-		return findPathHelper(startPoint, adjustNode(endPoint));
+		return findPathHelper(replanner, startPoint, adjustNode(endPoint));
 	}
 	
 	/**
@@ -84,22 +206,106 @@ public class DecisionMaker {
 	 * @return		   - True if a path is found, false otherwise
 	 */
 	public boolean findPath(Point robotPos, Map.GridLocation destPos) {
+		return findPath(robotPos, Float.NaN, destPos);
+	}
+	
+	/**
+	 * It converts the robot and destination to grid location and invokes a function that finds the 
+	 * shortest path, or the quickest one from the robot's heading.
+	 * @param robotPos	 - The robot's current position on the map in metres
+	 * @param robotAngle - The robot's orientation in degrees, relative to the positive y-axis as the
+	 * 					   handler tracks it, or NaN if it is not known
+	 * @param destPos	 - A point on the map in terms of cartesian coordinate
+	 * @return			 - True if a path is found, false otherwise
+	 */
+	public boolean findPath(Point robotPos, float robotAngle, Map.GridLocation destPos) {
+		latticePlanner.setStartHeading(90.0f + robotAngle);	// Relative to the positive x-axis
 		PathNode robotPosNode = convertPointToGridLocation(robotPos);
 		PathNode destPosNode = adjustNode(new PathNode(destPos.row, destPos.col));
 //		PathNode destPosNode = new PathNode(destPos.row, destPos.col);
 //		PathNode destPosNode = new PathNode(destPos.xMetres, destPos.yMetres);
 		origin = robotPosNode;
-		return findPathHelper(robotPosNode, destPosNode);
+		boolean found;
+		if (hierarchical && map.cellCount() >= Settings.Planning.hierarchicalCellThreshold) {
+			found = findPathHelper(hierarchicalPlanner, robotPosNode, destPosNode);
+		} else {
+			found = findPathHelper(planner, robotPosNode, destPosNode);
+		}
+		if (found && planner == flowField) {	// Built or repaired by the search
+			followedField = flowField;
+		} else {
+			flowField.clearGoal();		// Do not head for an earlier destination
+			followedField = null;
+		}
+		return found;
+	}
+	
+	/**
+	 * Follows a path found by another DecisionMaker on a copy of the map (see PlanningService) as if
+	 * it had been found here. It is checked for impassable areas as it is followed, like a found path.
+	 * No flow field is built here: the robot follows the one found along with the path, if any.
+	 * @param origin	- The grid location the path starts from
+	 * @param path		- The path, as given by getFoundPath()
+	 * @param field		- The flow field towards the end of the path, as given by getFlowField().copy(),
+	 * 					  or null
+	 */
+	public void followPath(PathNode origin, List<PathNode> path, FlowField field) {
+		takePath(origin, path);
+		flowField.clearGoal();					// Stop keeping a field found here up to date
+		followedField = path.isEmpty() ? null : field;
+	}
+	
+	/**
+	 * Follows a repaired copy of the flow field being followed, found by another DecisionMaker on a
+	 * copy of the map (see PlanningService.takeRepairedPlan()).
+	 * @param field		- The repaired flow field, as given by getFlowField().copy()
+	 */
+	public void followFlowField(FlowField field) {
+		if (followedField != null && followedField != flowField && field.goal() == followedField.goal()) {
+			followedField = field;
+		}
+	}
+	
+	/**
+	 * Provides the flow field the robot follows towards the destination.
+	 * @return	- The field, or null if there is none
+	 */
+	public FlowField getFlowField() {
+		return followedField;
+	}
+	
+	/**
+	 * Takes a path found by another DecisionMaker in place of the found path.
+	 * @param origin	- The grid location the path starts from
+	 * @param path		- The path, as given by getFoundPath()
+	 */
+	private void takePath(PathNode origin, List<PathNode> path) {
+		this.origin = origin;
+		foundPath = new ArrayList<PathNode>(path);
+		nextPointCounter = 0;
+		planning = false;
+	}
+	
+	/**
+	 * Provides the path that was found, with any-angle or minimum-time planning as the ends of its straight segments.
+	 * @return	- A copy of the found path, which is empty if no path has been found
+	 */
+	public List<PathNode> getFoundPath() {
+		if (foundPath == null) {
+			return new ArrayList<PathNode>();
+		}
+		return new ArrayList<PathNode>(foundPath);
 	}
 	
 	/**
 	 * A helper function that finds a shortest path from the robot's current position to a destination 
 	 * point. And stores the found path in this object's "foundPath" variable.
+	 * @param planner	   - The planner to search with
 	 * @param robotPosNode - The robot's current position on the map in terms of GridLocation
 	 * @param destPosNode  - A point on the map in terms of GridLocation
 	 * @return			   - True if a path is found, false otherwise
 	 */
-	private boolean findPathHelper(PathNode node1, PathNode node2) {
+	private boolean findPathHelper(GridPlanner planner, PathNode node1, PathNode node2) {
 		try {
 			if (!isTraversable(node1)) {
 				System.err.printf("The grid location %s is not traversable\n", node1.toString());
@@ -109,10 +315,24 @@ public class DecisionMaker {
 				System.err.printf("The grid location %s is not traversable\n", node2.toString());
 				return false;
 			}
-			foundPath = pathFinding.searchPath(node1, node2);
+			int start = map.index((int)node1.xMetres, (int)node1.yMetres);
+			int goal = map.index((int)node2.xMetres, (int)node2.yMetres);
+			int[] path = planner.searchPath(start, goal);
+			planning = planner == anytimePlanner && !anytimePlanner.isComplete();
+			if (path.length == 0 && planning) {	// No path has been found within the time budget yet; see improvePath()
+				foundPath = new ArrayList<PathNode>();
+				origin = node1;
+				nextPointCounter = 0;
+				return true;
+			}
+			if (straightSegments) {
+				path = thetaStar.waypoints(path);	// Keep only the ends of the straight segments
+			}
+			foundPath = pathFinding.toPathNodes(node1, path);
 			if (foundPath.size() == 0) {			// The destination point is surrounded by an obstacle or is inside an impassable area
 				return false;
 			}
+			origin = node1;						// The found path starts from here
 			this.labelAndPrintMap(this.getAllPointsInFoundPath(this));	// FOR DEBUGGING
 			nextPointCounter = 0;				// Set the nextPointCounter to 0 to start at the beginning of the found path
 		} catch (Exception e) {
@@ -123,94 +343,214 @@ public class DecisionMaker {
 		return true;
 	}
 	
+	/**
+	 * Carries on with the anytime planner's search for one slice of the time budget, and takes its
+	 * path if it has found a better one. Paths are only taken until the robot sets off along the
+	 * found path, since they start from where the robot was when the destination was given.
+	 * @return	- True if a better path was taken, false otherwise
+	 */
+	public boolean improvePath() {
+		if (!planning) {
+			return false;
+		}
+		if (nextPointCounter > 0) {				// The robot has set off along the found path
+			planning = false;
+			return false;
+		}
+		boolean improved = anytimePlanner.improve();
+		if (improved) {
+			int[] path = anytimePlanner.bestPath();
+			if (straightSegments) {
+				path = thetaStar.waypoints(path);	// Keep only the ends of the straight segments
+			}
+			foundPath = pathFinding.toPathNodes(origin, path);
+			nextPointCounter = 0;
+		}
+		planning = !anytimePlanner.isComplete();
+		return improved;
+	}
+	
+	/**
+	 * Takes a better path for the destination, found by another DecisionMaker on a copy of the map
+	 * (see PlanningService.takeImprovedPlan()), in place of the one being followed. Like improvePath()
+	 * it is only taken until the robot sets off along the found path.
+	 * @param origin	- The grid location the path starts from
+	 * @param path		- The path, as given by getFoundPath()
+	 * @return			- True if the path was taken, false otherwise
+	 */
+	public boolean improvePath(PathNode origin, List<PathNode> path) {
+		if (nextPointCounter > 0) {				// The robot has set off along the found path
+			return false;
+		}
+		if (path.isEmpty()) {
+			return false;
+		}
+		takePath(origin, path);				// The flow field is the same, as the destination is
+		return true;
+	}
+	
+	/**
+	 * Tells whether the anytime planner is still searching for a path to the destination, or for a
+	 * better one; if so, improvePath() should be called on every step of the control loop.
+	 * @return	- True if the search is not over yet, false otherwise
+	 */
+	public boolean isPlanning() {
+		return planning;
+	}
+	
 	/**
 	 * Adjusts the destination point so that it would be
 	 * far enough from impassable areas so that the robot
-	 * can find a path to it.
+	 * can find a path to it. Directions that are already
+	 * clear are skipped with one rectangle count each.
 	 * @param node	- The point to be adjusted
 	 * @return		- The adjusted point
 	 */
 	private PathNode adjustNode(PathNode node) {
 		int distanceFromPoint = pathFinding.getDistanceFromPoint();
 		PathNode adjustedNode = new PathNode(node);
-		if (adjustedNode.xMetres >= distanceFromPoint) {		// Check grid to the left of the node
+		if (adjustedNode.xMetres >= distanceFromPoint
+				&& !isLineClear(adjustedNode, -1, 0, distanceFromPoint)) {		// Check grid to the left of the node
 			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(adjustedNode.xMetres - distance, adjustedNode.yMetres);
+				int row = (int)adjustedNode.xMetres - distance;
+				int col = (int)adjustedNode.yMetres;
 				try {
-					if (!isTraversable(loc)) {
-						PathNode temp = new PathNode(adjustedNode.xMetres + 1, adjustedNode.yMetres);
+					if (!isTraversable(row, col)) {
 						// Check if the node is still inside the borders and is not inside an impassable 
 						// area if it is moved to the right by 1 grid
 						if (adjustedNode.xMetres < map.columns() && 
-								isTraversable(temp)) {					
+								isTraversable((int)adjustedNode.xMetres + 1, col)) {					
 							adjustedNode.xMetres += 1;					// Move the node to the right by 1 grid
 						}
 					}
 				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
+					System.err.printf("Grid location (%d, %d) is out of bounds%n", row, col);
 				}
 			}
 		}
-		if (adjustedNode.xMetres <= map.columns() - distanceFromPoint - 1) {		// Check grid to the right of the node
+		if (adjustedNode.xMetres <= map.columns() - distanceFromPoint - 1
+				&& !isLineClear(adjustedNode, 1, 0, distanceFromPoint)) {		// Check grid to the right of the node
 			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(adjustedNode.xMetres + distance, adjustedNode.yMetres);
+				int row = (int)adjustedNode.xMetres + distance;
+				int col = (int)adjustedNode.yMetres;
 				try {
-					if (!isTraversable(loc)) {
-						PathNode temp = new PathNode(adjustedNode.xMetres - 1, adjustedNode.yMetres);
+					if (!isTraversable(row, col)) {
 						if (adjustedNode.xMetres >= 0 && 
-								isTraversable(temp)) {
+								isTraversable((int)adjustedNode.xMetres - 1, col)) {
 							adjustedNode.xMetres -= 1;				// Move the node to the left by 1 grid
 						}
 					}
 				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
+					System.err.printf("Grid location (%d, %d) is out of bounds%n", row, col);
 				}
 			}
 		}
-		if (adjustedNode.yMetres >= distanceFromPoint) {		// Check grid below the node
+		if (adjustedNode.yMetres >= distanceFromPoint
+				&& !isLineClear(adjustedNode, 0, -1, distanceFromPoint)) {		// Check grid below the node
 			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(adjustedNode.xMetres, adjustedNode.yMetres - distance);
+				int row = (int)adjustedNode.xMetres;
+				int col = (int)adjustedNode.yMetres - distance;
 				try {
-					if (!isTraversable(loc)) {
-						PathNode temp = new PathNode(adjustedNode.xMetres + 1, adjustedNode.yMetres);
+					if (!isTraversable(row, col)) {
 						if (adjustedNode.yMetres < map.rows() &&
-								isTraversable(temp)) {
+								isTraversable((int)adjustedNode.xMetres + 1, (int)adjustedNode.yMetres)) {
 							adjustedNode.yMetres += 1;				// Move the node up by 1 grid
 						}
 					}
 				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
+					System.err.printf("Grid location (%d, %d) is out of bounds%n", row, col);
 				}
 			}
 		}
-		if (adjustedNode.yMetres <= map.rows() - distanceFromPoint - 1) {		// Check grid above the node
+		if (adjustedNode.yMetres <= map.rows() - distanceFromPoint - 1
+				&& !isLineClear(adjustedNode, 0, 1, distanceFromPoint)) {		// Check grid above the node
 			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(adjustedNode.xMetres, adjustedNode.yMetres + distance);
+				int row = (int)adjustedNode.xMetres;
+				int col = (int)adjustedNode.yMetres + distance;
 				try {
-					if (!isTraversable(loc)) {
-						PathNode temp = new PathNode(adjustedNode.xMetres - 1, adjustedNode.yMetres);
+					if (!isTraversable(row, col)) {
 						if (adjustedNode.yMetres >= 0 &&
-								isTraversable(temp)) {
+								isTraversable((int)adjustedNode.xMetres - 1, (int)adjustedNode.yMetres)) {
 							adjustedNode.yMetres -= 1;				// Move the node down by 1 grid
 						}
 					}
 				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
+					System.err.printf("Grid location (%d, %d) is out of bounds%n", row, col);
 				}
 			}
 		}
 		return adjustedNode;
 	}
 	
+	/**
+	 * Checks if every grid location on a straight line from a node is inside
+	 * the map and traversable, with a single count of the blocked cells in
+	 * the line (see Map.countBlocked).
+	 * @param node		- The node the line starts from (not itself checked)
+	 * @param dRow		- The row step of the line
+	 * @param dCol		- The column step of the line
+	 * @param distance	- The number of grid locations in the line
+	 * @return			- True if the whole line is clear
+	 */
+	private boolean isLineClear(PathNode node, int dRow, int dCol, int distance) {
+		if (distance <= 0) {
+			return true;
+		}
+		int row = (int)node.xMetres;
+		int col = (int)node.yMetres;
+		int top = Math.min(row + dRow, row + dRow * distance);
+		int left = Math.min(col + dCol, col + dCol * distance);
+		int height = dRow == 0 ? 1 : distance;
+		int width = dCol == 0 ? 1 : distance;
+		if (map.isOutOfBounds(top, left) || map.isOutOfBounds(top + height - 1, left + width - 1)) {
+			return false;
+		}
+		return map.countBlocked(top, left, height, width) == 0;
+	}
+	
+	/**
+	 * Checks if the robot can still drive straight to a point of the found path, from the point
+	 * before it (or the origin). Without any-angle or minimum-time planning the points are a few cells apart and
+	 * only the point itself is checked.
+	 * @param node	- The next point in the found path
+	 * @return		- True if the straight segment to the point is clear
+	 */
+	private boolean isSegmentClear(PathNode node) {
+		if (!straightSegments) {
+			return true;
+		}
+		PathNode from = nextPointCounter == 0 ? origin : foundPath.get(nextPointCounter-1);
+		return thetaStar.hasLineOfSight(map.index((int)from.xMetres, (int)from.yMetres),
+										map.index((int)node.xMetres, (int)node.yMetres));
+	}
+	
+	/**
+	 * Tells whether the robot has reached the destination. With a flow field it has once it is on the
+	 * destination's grid location; otherwise once every point in the found path has been provided
+	 * (see hasReached()).
+	 * @param robotPos	- The robot's current position on the map in metres
+	 * @return			- True if the destination has been reached or there is none, false otherwise
+	 */
+	public boolean hasReached(Point robotPos) {
+		if (followedField == null) {
+			return hasReached();
+		}
+		Map.GridLocation loc = map.getGridLocation(robotPos);
+		return !map.isOutOfBounds(loc) && map.index(loc.row, loc.col) == followedField.goal();
+	}
+	
 	/**
 	 * Informs the caller if there are more points in the found path to be traversed(i.e. it hasn't reached
-	 * the destination point).
+	 * the destination point). A path the anytime planner is still searching for has not been traversed.
 	 * @return  - True if there are no more points, false otherwise
 	 */
 	public boolean hasReached() {
 		if (foundPath == null) {
 			return true;
 		}
+		if (planning && foundPath.isEmpty()) {	// The path is still being searched for
+			return false;
+		}
 		if (nextPointCounter >= 0 && nextPointCounter <= foundPath.size()-1) {
 			return false;
 		}
@@ -223,21 +563,20 @@ public class DecisionMaker {
 	 * @return  - True if the point is traversable(i.e. outside an impassable area), false otherwise
 	 */
 	private boolean isTraversable(PathNode node) throws Map.OutOfMapBoundsException {
-		Map.GridLocation loc = new Map.GridLocation((int)node.xMetres, (int)node.yMetres);
-		boolean traversable = true;
-		float obstacleProb;
-		float craterProb;
-		float noGoZoneProb;
-		obstacleProb = map.get(Map.Property.OBSTACLE, loc);
-		craterProb = map.get(Map.Property.CRATER, loc);
-		noGoZoneProb = map.get(Map.Property.NO_GO_ZONE, loc);
-		if (Float.compare(obstacleProb, 0.5f) > 0 || 
-			Float.compare(craterProb, 0.5f) > 0 ||
-			Float.compare(noGoZoneProb, 0.5f) > 0) {
-			traversable = false;
-		}
-		
-		return traversable;
+		return isTraversable((int)node.xMetres, (int)node.yMetres);
+	}
+	
+	/**
+	 * Checks if the given grid location in the map is traversable.
+	 * @param row - The row of the grid location
+	 * @param col - The column of the grid location
+	 * @return    - True if the location is traversable(i.e. outside an impassable area), false otherwise
+	 */
+	private boolean isTraversable(int row, int col) throws Map.OutOfMapBoundsException {
+		if (map.isOutOfBounds(row, col)) {
+			throw new Map.OutOfMapBoundsException();
+		}
+		return !map.isBlocked(map.index(row, col));
 	}
 	
 	/**
@@ -138,6 +138,74 @@ public class DecisionMakerTest {
 		labelAndPrintMap(robotPos, foundPath);
 	}
 	
+	/**
+	 * A wall between the robot and the destination, so the robot has to get there in several legs.
+	 * The robot is taken to arrive wherever it is sent, and is sent on until it has reached the
+	 * destination. Only the FLOW_FIELD planner sends it along a flow field; any other planner sends
+	 * it along its own path.
+	 */
+	@Test
+	public void testDrivesAroundWall() {
+		map = new Map(gridSize, rows, cols);
+		for (int row = 0; row <= 90; row += 1) {
+			for (int col = 59; col <= 60; col += 1) {
+				map.set(Map.Property.OBSTACLE, map.index(row, col), 1.0f);
+			}
+		}
+		Settings.Planning.Planner[] planners = {
+			Settings.Planning.Planner.JUMP_POINT_SEARCH, Settings.Planning.Planner.ANY_ANGLE,
+			Settings.Planning.Planner.FLOW_FIELD
+		};
+		for (Settings.Planning.Planner planner : planners) {
+			DecisionMaker dm = new DecisionMaker(map, planner);
+			Point robotPos = map.getCentrePoint(map.index(20, 20));
+			assertTrue(dm.findPath(robotPos, new Map.GridLocation(20, 100)));
+			assertEquals(planner == Settings.Planning.Planner.FLOW_FIELD, dm.getFlowField() != null);
+			int legs = 0;
+			while (!dm.hasReached(robotPos)) {
+				Point nextPos = dm.getNextPosition(robotPos);
+				assertNotNull(nextPos);
+				assertFalse(map.isBlocked(map.index(map.getGridLocation(nextPos))));
+				robotPos = nextPos;
+				legs += 1;
+				assertTrue(legs < 50);
+			}
+			assertTrue(legs > 1);
+			Map.GridLocation loc = map.getGridLocation(robotPos);
+			assertEquals(20, loc.row);
+			assertEquals(100, loc.col);
+		}
+	}
+	
+	/**
+	 * The whole robot footprint is kept clear of blocked cells on the arena: at 2 cm per cell, no
+	 * cell within 12 cells (0.24 m >= Robot.maximumRadiusFromCentre) of a blocked cell can be driven
+	 * to, so the robot passes through a gap in a wall that is 25 cells wide, but not a narrower one.
+	 */
+	@Test
+	public void testClearanceOnArena() {
+		map = new Map(gridSize, rows, cols);
+		map.set(Map.Property.OBSTACLE, map.index(60, 60), 1.0f);
+		TraversabilityLayer layer = map.traversability(Robot.maximumRadiusFromCentre);
+		assertEquals(12, layer.radius());
+		assertFalse(layer.isTraversable(map.index(60, 72)));
+		assertTrue(layer.isTraversable(map.index(60, 73)));
+		assertFalse(layer.isTraversable(map.index(68, 68)));	// 11.3 cells away
+		assertTrue(layer.isTraversable(map.index(69, 69)));		// 12.7 cells away
+		
+		for (int gap = 20; gap <= 26; gap += 1) {
+			map = new Map(gridSize, rows, cols);
+			for (int col = 0; col < cols; col += 1) {
+				if (col < 48 || col >= 48 + gap) {
+					map.set(Map.Property.OBSTACLE, map.index(60, col), 1.0f);
+				}
+			}
+			DecisionMaker dm = new DecisionMaker(map);
+			boolean found = dm.findPath(map.getCentrePoint(map.index(20, 60)), new Map.GridLocation(100, 60));
+			assertEquals(gap >= 25, found);
+		}
+	}
+	
 	/**
 	 * Converts point(x,y) in metres to grid location(row, column)
 	 * @param point - The point that contains a point in the map
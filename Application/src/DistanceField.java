@@ -0,0 +1,216 @@
+import java.util.Arrays;
+
+/**
+ * A Euclidean distance transform of a grid, kept up to date as cells become
+ * blocked or unblocked. For every cell it stores the nearest blocked cell and
+ * the squared distance to it (in cells), so nearest-obstacle queries are O(1).
+ * Changes are propagated incrementally with the dynamic brushfire algorithm
+ * of Lau, Sprunk and Burgard ("Improved updating of Euclidean distance maps
+ * and Voronoi diagrams", IROS 2010): adding a blocked cell lowers distances
+ * outwards from it, removing one raises the cells that used it as their
+ * nearest blocked cell and then lowers them from the remaining ones. Only
+ * cells whose distance changes are visited.
+ * Cells are addressed by row-major index, as for Map.index().
+ * The field is not synchronized, as queries propagate pending changes; Map
+ * serializes its updates and queries.
+ * @author jkortman
+ */
+public class DistanceField {
+    /**
+     * Default constructor is disallowed; fields must have an associated size.
+     */
+    @SuppressWarnings("unused")
+    private DistanceField() {}
+    
+    /**
+     * Create a distance field with no blocked cells.
+     * @param rows the number of rows in the grid
+     * @param cols the number of columns in the grid
+     */
+    public DistanceField(int rows, int cols) {
+        if (rows < 1 || cols < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.rows = rows;
+        this.cols = cols;
+        nearest = new int[rows * cols];
+        distanceSquared = new int[rows * cols];
+        raise = new boolean[rows * cols];
+        Arrays.fill(nearest, none);
+        Arrays.fill(distanceSquared, Integer.MAX_VALUE);
+        queue = new long[64];
+    }
+    
+    /**
+     * Mark a cell as blocked or unblocked. The change is propagated the next
+     * time the field is queried or update() is called.
+     * @param index   the cell index
+     * @param blocked whether the cell is blocked
+     */
+    public void setBlocked(int index, boolean blocked) {
+        if (blocked == isBlocked(index)) return;
+        if (blocked) {
+            nearest[index] = index;
+            distanceSquared[index] = 0;
+            raise[index] = false;
+        } else {
+            nearest[index] = none;
+            distanceSquared[index] = Integer.MAX_VALUE;
+            raise[index] = true;
+        }
+        push(0, index);
+    }
+    
+    /**
+     * Check whether a cell is blocked.
+     */
+    public boolean isBlocked(int index) {
+        return nearest[index] == index;
+    }
+    
+    /**
+     * Get the nearest blocked cell to a cell.
+     * @param index the cell index
+     * @return      the index of the nearest blocked cell, or -1 if no cell is blocked
+     */
+    public int nearest(int index) {
+        update();
+        return nearest[index];
+    }
+    
+    /**
+     * Get the squared distance from a cell to the nearest blocked cell, in cells.
+     * @param index the cell index
+     * @return      the squared distance, or Integer.MAX_VALUE if no cell is blocked
+     */
+    public int distanceSquared(int index) {
+        update();
+        return distanceSquared[index];
+    }
+    
+    /**
+     * Propagate all pending changes through the field.
+     */
+    public void update() {
+        while (queueSize > 0) {
+            long entry = pop();
+            int index = (int)entry;
+            if (raise[index]) {
+                raise(index);
+            } else if (nearest[index] != none && isBlocked(nearest[index])
+                       && (int)(entry >>> 32) == distanceSquared[index]) {
+                // Entries queued with an old distance are stale.
+                lower(index);
+            }
+        }
+    }
+    
+    /**
+     * Invalidate the neighbours whose nearest blocked cell has been unblocked,
+     * and queue the others to lower them again.
+     */
+    private void raise(int index) {
+        int row = index / cols;
+        int col = index - row * cols;
+        for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+            int nRow = row + Map.neighbourRowOffsets[direction];
+            int nCol = col + Map.neighbourColOffsets[direction];
+            if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+            int n = nRow * cols + nCol;
+            if (nearest[n] == none || raise[n]) continue;
+            push(distanceSquared[n], n);
+            if (!isBlocked(nearest[n])) {
+                nearest[n] = none;
+                distanceSquared[n] = Integer.MAX_VALUE;
+                raise[n] = true;
+            }
+        }
+        raise[index] = false;
+    }
+    
+    /**
+     * Offer a cell's nearest blocked cell to its neighbours.
+     */
+    private void lower(int index) {
+        int row = index / cols;
+        int col = index - row * cols;
+        int source = nearest[index];
+        int sourceRow = source / cols;
+        int sourceCol = source - sourceRow * cols;
+        for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+            int nRow = row + Map.neighbourRowOffsets[direction];
+            int nCol = col + Map.neighbourColOffsets[direction];
+            if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+            int n = nRow * cols + nCol;
+            if (raise[n]) continue;
+            int dRow = nRow - sourceRow;
+            int dCol = nCol - sourceCol;
+            int d = dRow * dRow + dCol * dCol;
+            boolean better = d < distanceSquared[n]
+                    || (d == distanceSquared[n] && (nearest[n] == none || !isBlocked(nearest[n])));
+            if (better) {
+                distanceSquared[n] = d;
+                nearest[n] = source;
+                push(d, n);
+            }
+        }
+    }
+    
+    /**
+     * Add a cell to the queue. Entries are packed as (distance << 32 | index),
+     * so the queue is ordered by distance.
+     */
+    private void push(int distance, int index) {
+        if (queueSize == queue.length) {
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        long entry = ((long)distance << 32) | index;
+        // Sift up.
+        int i = queueSize;
+        queueSize += 1;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (queue[parent] <= entry) break;
+            queue[i] = queue[parent];
+            i = parent;
+        }
+        queue[i] = entry;
+    }
+    
+    /**
+     * Remove and return the entry with the smallest distance.
+     */
+    private long pop() {
+        long top = queue[0];
+        queueSize -= 1;
+        long last = queue[queueSize];
+        // Sift down.
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= queueSize) break;
+            if (child + 1 < queueSize && queue[child + 1] < queue[child]) child += 1;
+            if (last <= queue[child]) break;
+            queue[i] = queue[child];
+            i = child;
+        }
+        queue[i] = last;
+        return top;
+    }
+    
+    // Marks a cell with no nearest blocked cell.
+    private static final int none = -1;
+    
+    // Grid size.
+    private int rows;
+    private int cols;
+    // The nearest blocked cell and squared distance to it for each cell.
+    // A cell is blocked if it is its own nearest blocked cell.
+    private int[] nearest;
+    private int[] distanceSquared;
+    // Cells whose nearest blocked cell was unblocked, waiting to be raised.
+    private boolean[] raise;
+    // Cells waiting to be processed, as a binary min-heap.
+    private long[] queue;
+    private int queueSize;
+}
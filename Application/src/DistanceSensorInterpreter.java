@@ -14,7 +14,7 @@ public class DistanceSensorInterpreter {
     
     /**
      * Given a robot state and the distance sensor reading, load the obstacle
-     * data into the map.
+     * data into the map as a log-odds observation (see Map.observeRay).
      * @param distanceMetres        the metres from the robot position at
      *                              which an obstacle is detected.
      * @param map                   the map data structure to update.
@@ -40,11 +40,10 @@ public class DistanceSensorInterpreter {
             new Point(-1.0f * distanceMetres * (float)Math.sin(Math.toRadians(robotDirectionDegrees)),
                        1.0f * distanceMetres * (float)Math.cos(Math.toRadians(robotDirectionDegrees)))
         );
-        // Load the obstacle position into the Map.
-        try {
-            //System.out.printf("pos = (%f, %f)\n", pos.xMetres, pos.yMetres);
-            map.set(Map.Property.OBSTACLE, pos, 1.0f);
-        } catch (Map.OutOfMapBoundsException e) {
+        // Load the reading into the Map: the obstacle at the end of the ray
+        // becomes more likely, the cells the ray passed through less likely.
+        // Readings past the arena edge are common, so this does not throw.
+        if (!map.observeRay(Map.Property.OBSTACLE, robotLocation, pos, true)) {
             return Interpretation.OUT_OF_BOUNDS;
         }
         return Interpretation.SUCCESS;
@@ -0,0 +1,90 @@
+/**
+ * Estimates how long the robot takes to carry out its move commands, so that
+ * paths can be chosen by time instead of by length.
+ * A path is driven as a turn command followed by a drive command for each
+ * straight segment. The robot drives at a constant speed, and turns on the
+ * spot with a trapezoidal speed profile: it accelerates at a constant rate up
+ * to its top turn rate, and decelerates at the same rate (see Robot.turn).
+ * Every command also costs a fixed overhead, for stopping, sending the
+ * command and waiting for its acknowledgement.
+ * @author jkortman
+ */
+public class ExecutionTimeModel {
+    /**
+     * Default constructor is disallowed; models must have associated rates.
+     */
+    @SuppressWarnings("unused")
+    private ExecutionTimeModel() {}
+    
+    /**
+     * Create a model of the robot's motion.
+     * @param driveSpeed       the driving speed, in metres per second
+     * @param turnRate         the top turning rate, in degrees per second
+     * @param turnAcceleration the turning acceleration, in degrees per second squared
+     * @param commandOverhead  the fixed time each command takes, in seconds
+     */
+    public ExecutionTimeModel(float driveSpeed, float turnRate, float turnAcceleration, float commandOverhead) {
+        if (driveSpeed <= 0.0f || turnRate <= 0.0f || turnAcceleration <= 0.0f || commandOverhead < 0.0f) {
+            throw new IllegalArgumentException();
+        }
+        this.driveSpeed = driveSpeed;
+        this.turnRate = turnRate;
+        this.turnAcceleration = turnAcceleration;
+        this.commandOverhead = commandOverhead;
+    }
+    
+    /**
+     * Get the time to drive a distance, not counting the command overhead.
+     * @param metres the distance
+     * @return       the time, in seconds
+     */
+    public float driveTime(float metres) {
+        return Math.abs(metres) / driveSpeed;
+    }
+    
+    /**
+     * Get the time to turn on the spot, not counting the command overhead.
+     * @param degrees the angle to turn, in either direction
+     * @return        the time, in seconds
+     */
+    public float turnTime(float degrees) {
+        float angle = Math.abs(degrees);
+        // The angle turned while accelerating to the top rate and back to rest.
+        float rampAngle = turnRate * turnRate / turnAcceleration;
+        if (angle < rampAngle) {
+            return 2.0f * (float)Math.sqrt(angle / turnAcceleration);
+        }
+        return angle / turnRate + turnRate / turnAcceleration;
+    }
+    
+    /**
+     * Get the fixed time each command takes, in seconds.
+     */
+    public float commandOverhead() {
+        return commandOverhead;
+    }
+    
+    /**
+     * Get the time to start a new straight segment: a turn command and a
+     * drive command, and the turn itself.
+     * @param degrees the angle to turn, in either direction
+     * @return        the time, in seconds
+     */
+    public float segmentTime(float degrees) {
+        return 2.0f * commandOverhead + turnTime(degrees);
+    }
+    
+    /**
+     * Get the driving speed, in metres per second.
+     */
+    public float driveSpeed() {
+        return driveSpeed;
+    }
+    
+    // The robot's rates.
+    private float driveSpeed;
+    private float turnRate;
+    private float turnAcceleration;
+    // The time each command costs besides the motion.
+    private float commandOverhead;
+}
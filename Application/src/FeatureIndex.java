@@ -0,0 +1,279 @@
+import java.util.Arrays;
+
+/**
+ * A spatial index of the cells of a grid that have some feature (e.g. a map
+ * property), answering nearest, k-nearest and radius queries without
+ * scanning the grid.
+ * Each feature is stored as a count pyramid: level 0 holds one bit per cell,
+ * and each cell of level l + 1 counts the feature cells in the 2x2 block of
+ * level l below it, up to a single root. Setting or clearing a cell updates
+ * one count per level, so the index stays exact under incremental updates.
+ * Queries search the pyramid best-first, always expanding the block closest
+ * to the query cell and skipping blocks with no feature cells, so a nearest
+ * query costs about O(log cells) plus the number of results.
+ * Cells are addressed by row-major index, as for Map.index(), and distances
+ * are measured between cell centres, in cells.
+ * The index is not synchronized; Map serializes its updates and queries.
+ * @author jkortman
+ */
+public class FeatureIndex {
+    /**
+     * Default constructor is disallowed; indices must have an associated size.
+     */
+    @SuppressWarnings("unused")
+    private FeatureIndex() {}
+    
+    /**
+     * Create an index in which no cell has any feature.
+     * @param rows     the number of rows in the grid
+     * @param cols     the number of columns in the grid
+     * @param features the number of features, numbered 0 to features - 1
+     */
+    public FeatureIndex(int rows, int cols, int features) {
+        if (rows < 1 || cols < 1 || features < 1) {
+            throw new IllegalArgumentException();
+        }
+        if ((long)rows * cols > maxCells) {
+            throw new IllegalArgumentException("Grid too large to index");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        // Levels halve the grid until a single block covers it.
+        int levelCount = 1;
+        while ((rows - 1) >> (levelCount - 1) > 0 || (cols - 1) >> (levelCount - 1) > 0) {
+            levelCount += 1;
+        }
+        this.levelRows = new int[levelCount];
+        this.levelCols = new int[levelCount];
+        for (int level = 0; level < levelCount; level += 1) {
+            levelRows[level] = ((rows - 1) >> level) + 1;
+            levelCols[level] = ((cols - 1) >> level) + 1;
+        }
+        this.bits = new long[features][];
+        this.counts = new int[features][][];
+        this.heap = new long[64];
+    }
+    
+    /**
+     * Set whether a cell has a feature.
+     * @param feature the feature
+     * @param index   the cell index
+     * @param present whether the cell has the feature
+     */
+    public void set(int feature, int index, boolean present) {
+        if (present == contains(feature, index)) return;
+        if (bits[feature] == null) allocate(feature);
+        if (present) {
+            bits[feature][index >>> 6] |= 1L << index;
+        } else {
+            bits[feature][index >>> 6] &= ~(1L << index);
+        }
+        int delta = present ? 1 : -1;
+        int row = index / cols;
+        int col = index - row * cols;
+        int[][] levels = counts[feature];
+        for (int level = 1; level < levelRows.length; level += 1) {
+            levels[level][(row >> level) * levelCols[level] + (col >> level)] += delta;
+        }
+    }
+    
+    /**
+     * Set a feature on every cell of the grid.
+     * @param feature the feature
+     */
+    public void fill(int feature) {
+        if (bits[feature] == null) allocate(feature);
+        Arrays.fill(bits[feature], 0L);
+        int[][] levels = counts[feature];
+        for (int level = 1; level < levelRows.length; level += 1) {
+            Arrays.fill(levels[level], 0);
+        }
+        for (int index = 0; index < rows * cols; index += 1) {
+            set(feature, index, true);
+        }
+    }
+    
+    /**
+     * Check whether a cell has a feature.
+     */
+    public boolean contains(int feature, int index) {
+        long[] featureBits = bits[feature];
+        return featureBits != null && (featureBits[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    /**
+     * Get the number of cells with a feature.
+     */
+    public int count(int feature) {
+        if (bits[feature] == null) return 0;
+        int top = levelRows.length - 1;
+        if (top == 0) return Long.bitCount(bits[feature][0]);
+        return counts[feature][top][0];
+    }
+    
+    /**
+     * Find the nearest cell with a feature.
+     * @param feature the feature
+     * @param index   the cell index to search from
+     * @return        the index of the nearest cell with the feature, or -1 if there are none
+     */
+    public int nearest(int feature, int index) {
+        int[] found = new int[1];
+        return search(feature, index, Integer.MAX_VALUE, found) == 0 ? -1 : found[0];
+    }
+    
+    /**
+     * Find the k nearest cells with a feature, nearest first.
+     * @param feature the feature
+     * @param index   the cell index to search from
+     * @param k       the number of cells to find
+     * @return        the indices of up to k cells
+     */
+    public int[] nearest(int feature, int index, int k) {
+        int[] found = new int[k];
+        int n = search(feature, index, Integer.MAX_VALUE, found);
+        return n == k ? found : Arrays.copyOf(found, n);
+    }
+    
+    /**
+     * Find every cell with a feature within a radius, nearest first.
+     * @param feature the feature
+     * @param index   the cell index to search from
+     * @param radius  the radius in cells; cells at exactly this distance are included
+     * @return        the indices of the cells
+     */
+    public int[] withinRadius(int feature, int index, float radius) {
+        long limit = (long)Math.floor((double)radius * radius);
+        int maxDistanceSquared = (int)Math.min(limit, Integer.MAX_VALUE - 1);
+        int[] found = new int[16];
+        int n = 0;
+        while (true) {
+            n = search(feature, index, maxDistanceSquared, found);
+            if (n < found.length) break;
+            // Possibly truncated; search again with more room.
+            found = new int[found.length * 4];
+        }
+        return Arrays.copyOf(found, n);
+    }
+    
+    /**
+     * Search best-first for the cells with a feature nearest to a cell.
+     * @param feature            the feature
+     * @param index              the cell index to search from
+     * @param maxDistanceSquared ignore cells further than this
+     * @param found              receives the indices found, nearest first; the search
+     *                           stops when it is full
+     * @return                   the number of indices found
+     */
+    private int search(int feature, int index, int maxDistanceSquared, int[] found) {
+        if (found.length == 0 || count(feature) == 0) return 0;
+        int row = index / cols;
+        int col = index - row * cols;
+        heapSize = 0;
+        int top = levelRows.length - 1;
+        push(feature, top, 0, 0, row, col, maxDistanceSquared);
+        int n = 0;
+        while (heapSize > 0 && n < found.length) {
+            long entry = pop();
+            int node = (int)entry;
+            int level = node >>> levelShift;
+            int position = node & positionMask;
+            int nodeRow = position / levelCols[level];
+            int nodeCol = position - nodeRow * levelCols[level];
+            if (level == 0) {
+                // Cells are exact, so every block still queued is further away.
+                found[n] = position;
+                n += 1;
+                continue;
+            }
+            for (int i = 0; i < 4; i += 1) {
+                push(feature, level - 1, 2 * nodeRow + (i >> 1), 2 * nodeCol + (i & 1),
+                     row, col, maxDistanceSquared);
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * Queue a block of the pyramid if it has feature cells within range.
+     * Blocks are keyed by the squared distance from the query cell to the
+     * nearest cell in the block.
+     */
+    private void push(int feature, int level, int nodeRow, int nodeCol,
+                      int row, int col, int maxDistanceSquared) {
+        if (nodeRow >= levelRows[level] || nodeCol >= levelCols[level]) return;
+        int position = nodeRow * levelCols[level] + nodeCol;
+        if (level == 0) {
+            if ((bits[feature][position >>> 6] & (1L << position)) == 0) return;
+        } else if (counts[feature][level][position] == 0) {
+            return;
+        }
+        int dRow = Math.max(0, Math.max((nodeRow << level) - row, row - ((nodeRow + 1 << level) - 1)));
+        int dCol = Math.max(0, Math.max((nodeCol << level) - col, col - ((nodeCol + 1 << level) - 1)));
+        long distanceSquared = (long)dRow * dRow + (long)dCol * dCol;
+        if (distanceSquared > maxDistanceSquared) return;
+        // Ties go to lower levels first, so cells are returned as soon as possible.
+        long entry = (distanceSquared << 32) | ((long)level << levelShift) | position;
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        int i = heapSize;
+        heapSize += 1;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+    
+    /**
+     * Remove and return the nearest queued block.
+     */
+    private long pop() {
+        long top = heap[0];
+        heapSize -= 1;
+        long last = heap[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child += 1;
+            if (last <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+    
+    /**
+     * Allocate the pyramid for a feature.
+     */
+    private void allocate(int feature) {
+        bits[feature] = new long[(rows * cols + 63) >>> 6];
+        counts[feature] = new int[levelRows.length][];
+        for (int level = 1; level < levelRows.length; level += 1) {
+            counts[feature][level] = new int[levelRows[level] * levelCols[level]];
+        }
+    }
+    
+    // Blocks are packed into queue entries as (level << levelShift | position).
+    private static final int levelShift = 27;
+    private static final int positionMask = (1 << levelShift) - 1;
+    private static final long maxCells = 1L << levelShift;
+    
+    // Grid size, and the size of each level of the pyramids.
+    private int rows;
+    private int cols;
+    private int[] levelRows;
+    private int[] levelCols;
+    // For each feature, one bit per cell, and counts per block for levels
+    // 1 and up; null until the feature is first set.
+    private long[][] bits;
+    private int[][][] counts;
+    // The search queue, as a binary min-heap.
+    private long[] heap;
+    private int heapSize;
+}
@@ -0,0 +1,111 @@
+/**
+ * A 2D Fenwick (binary indexed) tree of integer counts, for counting the
+ * cells of a grid with some feature inside a rectangle.
+ * Adding to a cell and summing a rectangle both cost O(log rows * log cols),
+ * so counts stay exact as cells change, without rebuilding a summed-area table.
+ * The tree is not synchronized; Map serializes its updates and queries.
+ * @author jkortman
+ */
+public class Fenwick2D {
+    /**
+     * Default constructor is disallowed; trees must have an associated size.
+     */
+    @SuppressWarnings("unused")
+    private Fenwick2D() {}
+    
+    /**
+     * Create a tree in which every cell counts 0.
+     * @param rows the number of rows in the grid
+     * @param cols the number of columns in the grid
+     */
+    public Fenwick2D(int rows, int cols) {
+        if (rows < 1 || cols < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.rows = rows;
+        this.cols = cols;
+        // Row 0 and column 0 are unused, so the tree can be 1-indexed.
+        tree = new int[(rows + 1) * (cols + 1)];
+    }
+    
+    /**
+     * Create a tree from the counts of every cell, in O(rows * cols).
+     * @param rows   the number of rows in the grid
+     * @param cols   the number of columns in the grid
+     * @param counts the count of each cell, row-major
+     */
+    public Fenwick2D(int rows, int cols, int[] counts) {
+        this(rows, cols);
+        int stride = cols + 1;
+        for (int row = 0; row < rows; row += 1) {
+            System.arraycopy(counts, row * cols, tree, (row + 1) * stride + 1, cols);
+        }
+        // Push each node into its parent along columns, then along rows.
+        for (int row = 1; row <= rows; row += 1) {
+            for (int col = 1; col <= cols; col += 1) {
+                int parent = col + (col & -col);
+                if (parent <= cols) tree[row * stride + parent] += tree[row * stride + col];
+            }
+        }
+        for (int row = 1; row <= rows; row += 1) {
+            int parent = row + (row & -row);
+            if (parent > rows) continue;
+            for (int col = 1; col <= cols; col += 1) {
+                tree[parent * stride + col] += tree[row * stride + col];
+            }
+        }
+    }
+    
+    /**
+     * Add to the count of a cell.
+     * @param row   the row of the cell
+     * @param col   the column of the cell
+     * @param delta the amount to add; may be negative
+     */
+    public void add(int row, int col, int delta) {
+        int stride = cols + 1;
+        for (int r = row + 1; r <= rows; r += r & -r) {
+            for (int c = col + 1; c <= cols; c += c & -c) {
+                tree[r * stride + c] += delta;
+            }
+        }
+    }
+    
+    /**
+     * Get the total count of a rectangle of cells.
+     * The rectangle must lie inside the grid.
+     * @param row    the first row of the rectangle
+     * @param col    the first column of the rectangle
+     * @param height the number of rows in the rectangle
+     * @param width  the number of columns in the rectangle
+     * @return       the sum of the counts of the cells in the rectangle
+     */
+    public int sum(int row, int col, int height, int width) {
+        if (height <= 0 || width <= 0) return 0;
+        int lastRow = row + height;
+        int lastCol = col + width;
+        return prefix(lastRow, lastCol) - prefix(row, lastCol)
+             - prefix(lastRow, col) + prefix(row, col);
+    }
+    
+    /**
+     * Get the total count of the cells in the first rowCount rows and colCount columns.
+     */
+    private int prefix(int rowCount, int colCount) {
+        int stride = cols + 1;
+        int total = 0;
+        for (int r = rowCount; r > 0; r -= r & -r) {
+            for (int c = colCount; c > 0; c -= c & -c) {
+                total += tree[r * stride + c];
+            }
+        }
+        return total;
+    }
+    
+    // Grid size.
+    private int rows;
+    private int cols;
+    // The tree, (rows + 1) * (cols + 1) row-major; node (r, c) holds the
+    // counts of rows (r - lowbit(r), r] and columns (c - lowbit(c), c].
+    private int[] tree;
+}
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size 2D storage container of primitive floats. Matrices are zero-indexed.
+ * Elements are stored row-major in a single float[], so reads and writes never
+ * box and never take a lock.
+ * @author jkortman
+ */
+public class FloatMatrix implements MapLayer {
+    /**
+     * Default constructor is disallowed; Matrices must have an associated size/height.
+     */
+    @SuppressWarnings("unused")
+    private FloatMatrix() {}
+    
+    /**
+     * Create a matrix. All elements are initialized to 0.0.
+     * @param height    the number of rows in the matrix.
+     * @param width     the number of columns in the matrix.
+     */
+    public FloatMatrix(int height, int width) throws IllegalArgumentException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.height = height;
+        this.width = width;
+        storage = new float[height * width];
+    }
+    
+    /**
+     * Set an element in the matrix.
+     * @param row   the row/vertical position of the element to set.
+     * @param col   the column/horizontal position of the element to set.
+     * @param value the value to set the element to at the specified position.
+     */
+    public void set(int row, int col, float value) {
+        storage[row * width + col] = value;
+    }
+    
+    /**
+     * Set an element in the matrix by its row-major index.
+     * @param index the element index, row * width + col.
+     * @param value the value to set the element to.
+     */
+    public void set(int index, float value) {
+        storage[index] = value;
+    }
+    
+    /**
+     * Fill an entire matrix with a specified value.
+     * @param value the value to fill the matrix with.
+     */
+    public void fill(float value) {
+        Arrays.fill(storage, value);
+    }
+    
+    /**
+     * Retrieve a value from the matrix at a position.
+     * @param row   the row/vertical position of the element to get.
+     * @param col   the column/horizontal position of the element to get.
+     * @return      the value at the specified position.
+     */
+    public float get(int row, int col) {
+        return storage[row * width + col];
+    }
+    
+    /**
+     * Retrieve a value from the matrix by its row-major index.
+     * @param index the element index, row * width + col.
+     * @return      the value at the specified index.
+     */
+    public float get(int index) {
+        return storage[index];
+    }
+    
+    /**
+     * Copy a rectangular region of the matrix into an array, row by row.
+     * @param row    the first row of the region.
+     * @param col    the first column of the region.
+     * @param height the number of rows in the region.
+     * @param width  the number of columns in the region.
+     * @param dest   the array to copy into.
+     * @param offset the position in dest of the first copied element.
+     */
+    public void copyRegion(int row, int col, int height, int width, float[] dest, int offset) {
+        for (int i = 0; i < height; i += 1) {
+            System.arraycopy(storage, (row + i) * this.width + col, dest, offset + i * width, width);
+        }
+    }
+    
+    /**
+     * Get the height of the matrix.
+     * @return the height (number of rows) in the matrix.
+     */
+    public int height() {
+        return height;
+    }
+    
+    /**
+     * Get the width of the matrix.
+     * @return the width (number of columns) in the matrix.
+     */
+    public int width() {
+        return width;
+    }
+
+    // Internal storage details.
+    private int height;
+    private int width;
+    private float[] storage;
+}
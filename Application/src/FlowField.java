@@ -0,0 +1,331 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A flow field (or Dijkstra map) towards a goal: the cost of the best path
+ * from every cell of a map to the goal, and the neighbour to step to next.
+ * It is built by one Dijkstra search outwards from the goal, after which the
+ * next step from any cell, for any number of robots heading to the same goal,
+ * is one array lookup.
+ * Paths step between neighbouring cells at PathNode's costs, like a
+ * GridPlanner's, and only enter traversable cells (see Map.traversability()).
+ * Cells that are not traversable still get a cost and a next step, so a robot
+ * that finds itself inside an inflated obstacle can step out of it.
+ * update() repairs the field from the cells whose traversability changed since
+ * the last update, as reported by a change cursor: the cells whose path ran
+ * through a newly blocked cell are cleared and refilled from their neighbours,
+ * and newly unblocked cells are searched onwards from, so the work is in
+ * proportion to the part of the field that changed.
+ * copy() takes a copy of the field that can be followed on another thread
+ * while the original is repaired; copies are not kept up to date.
+ * A build or repair stops when its thread is interrupted (see
+ * PlanningService.cancel()), and forgets the goal, so the next setGoal()
+ * builds the field again.
+ * As a GridPlanner (see Settings.Planning.Planner.FLOW_FIELD), searchPath()
+ * builds the field towards the goal, or repairs it if it is already built
+ * towards it, and follows it from the start.
+ * @author jkortman
+ */
+public class FlowField implements GridPlanner {
+    /**
+     * Create a flow field for a map, with no goal.
+     * @param map the map to plan on
+     */
+    public FlowField(Map map) {
+        this.map = map;
+        this.distanceFromPoint = 0;
+        this.goal = -1;
+    }
+    
+    /**
+     * Create a copy of a field, with no map.
+     */
+    private FlowField(FlowField field) {
+        this.map = null;
+        this.distanceFromPoint = field.distanceFromPoint;
+        this.rows = field.rows;
+        this.cols = field.cols;
+        this.goal = field.goal;
+        if (field.costs != null) {
+            this.costs = field.costs.clone();
+            this.nextHops = field.nextHops.clone();
+        }
+    }
+    
+    /**
+     * Take a copy of the field as it is, e.g. to be followed on another thread
+     * while this field is repaired. The copy is not kept up to date, and its
+     * goal cannot be set.
+     * @return the copy
+     */
+    public FlowField copy() {
+        return new FlowField(this);
+    }
+    
+    /**
+     * Set the clearance, in cells, that every cell of a path must keep from
+     * impassable areas. It takes effect at the next setGoal() or update().
+     */
+    public void setDistanceFromPoint(int val) {
+        distanceFromPoint = val;
+    }
+    
+    /**
+     * Get the clearance, in cells, that every cell of a path must keep from
+     * impassable areas.
+     */
+    public int getDistanceFromPoint() {
+        return distanceFromPoint;
+    }
+    
+    /**
+     * Get the goal of the field, or -1 if none has been set.
+     */
+    public int goal() {
+        return goal;
+    }
+    
+    /**
+     * Build or repair the field towards a goal (see setGoal()), and follow
+     * it from a cell.
+     * @param start the cell index of the origin
+     * @param goal  the cell index of the destination
+     * @return      the cell indices of the path from start to goal inclusive,
+     *              or an empty array if the goal cannot be reached, or is not
+     *              traversable, like any GridPlanner's goal
+     */
+    public int[] searchPath(int start, int goal) {
+        if (start != goal && !map.traversability(distanceFromPoint).isTraversable(goal)) {
+            return new int[0];
+        }
+        setGoal(goal);
+        if (this.goal < 0 || costs[start] == Float.MAX_VALUE) return new int[0];
+        int length = 1;
+        for (int cell = start; nextHops[cell] >= 0; cell = nextHops[cell]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        path[0] = start;
+        for (int i = 1; i < length; i += 1) {
+            path[i] = nextHops[path[i - 1]];
+        }
+        return path;
+    }
+    
+    /**
+     * Build the field towards a goal, unless it is already built towards it,
+     * in which case it is only brought up to date.
+     * @param goal the cell index of the goal
+     */
+    public void setGoal(int goal) {
+        if (map == null) {
+            throw new IllegalStateException("A copy of a flow field cannot be rebuilt");
+        }
+        if (goal == this.goal && map.traversability(distanceFromPoint) == traversable) {
+            update();
+            return;
+        }
+        this.goal = goal;
+        build();
+    }
+    
+    /**
+     * Forget the goal, and stop keeping the field up to date.
+     */
+    public void clearGoal() {
+        if (traversable != null) {
+            traversable.releaseChangeCursor(changes);
+            traversable = null;
+            changes = null;
+        }
+        goal = -1;
+    }
+    
+    /**
+     * Bring the field up to date with the cells whose traversability changed
+     * since the last update. Copies are left as they are.
+     */
+    public void update() {
+        if (goal < 0 || map == null) return;
+        if (map.traversability(distanceFromPoint) != traversable) {
+            // A new clearance, or a map that has grown.
+            build();
+            return;
+        }
+        if (!changes.hasChanges()) return;
+        changes.drain(changedCells, null);
+        
+        // Clear the cells whose path ran through a newly blocked cell.
+        int invalidCount = 0;
+        for (int cell = changedCells.nextSetBit(0); cell >= 0; cell = changedCells.nextSetBit(cell + 1)) {
+            if (!traversable.isTraversable(cell) && cell != goal && !invalid.get(cell)) {
+                invalid.set(cell);
+                stack[invalidCount] = cell;
+                invalidCount += 1;
+            }
+        }
+        for (int i = 0; i < invalidCount; i += 1) {
+            int cell = stack[i];
+            int row = cell / cols;
+            int col = cell - row * cols;
+            for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                int nRow = row + Map.neighbourRowOffsets[direction];
+                int nCol = col + Map.neighbourColOffsets[direction];
+                if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+                int child = nRow * cols + nCol;
+                if (nextHops[child] == cell && !invalid.get(child)) {
+                    invalid.set(child);
+                    stack[invalidCount] = child;
+                    invalidCount += 1;
+                }
+            }
+        }
+        for (int i = 0; i < invalidCount; i += 1) {
+            costs[stack[i]] = Float.MAX_VALUE;
+            nextHops[stack[i]] = -1;
+        }
+        
+        // Refill the cleared cells from their neighbours, and search onwards
+        // from them and from the newly unblocked cells.
+        for (int i = 0; i < invalidCount; i += 1) {
+            int cell = stack[i];
+            invalid.clear(cell);
+            int row = cell / cols;
+            int col = cell - row * cols;
+            for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                int nRow = row + Map.neighbourRowOffsets[direction];
+                int nCol = col + Map.neighbourColOffsets[direction];
+                if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+                int neighbour = nRow * cols + nCol;
+                if (costs[neighbour] == Float.MAX_VALUE || !isExpandable(neighbour)) continue;
+                float cost = costs[neighbour] + stepCost(direction);
+                if (cost < costs[cell]) {
+                    costs[cell] = cost;
+                    nextHops[cell] = neighbour;
+                }
+            }
+            if (costs[cell] != Float.MAX_VALUE && isExpandable(cell)) {
+                open.push(cell, costs[cell], 0.0f);
+            }
+        }
+        for (int cell = changedCells.nextSetBit(0); cell >= 0; cell = changedCells.nextSetBit(cell + 1)) {
+            if (costs[cell] != Float.MAX_VALUE && isExpandable(cell)) {
+                open.push(cell, costs[cell], 0.0f);
+            }
+        }
+        if (!search()) clearGoal();
+    }
+    
+    /**
+     * Get the cost of the best path from a cell to the goal.
+     * @param cell the cell index
+     * @return     the cost, or Float.MAX_VALUE if the goal cannot be reached
+     */
+    public float cost(int cell) {
+        return costs[cell];
+    }
+    
+    /**
+     * Get the next cell on the best path from a cell to the goal.
+     * @param cell the cell index
+     * @return     the index of a neighbouring cell, or -1 if the cell is the
+     *             goal or the goal cannot be reached from it
+     */
+    public int nextHop(int cell) {
+        return nextHops[cell];
+    }
+    
+    /**
+     * Search the whole map outwards from the goal.
+     */
+    private void build() {
+        if (traversable != null) {
+            traversable.releaseChangeCursor(changes);
+        }
+        traversable = map.traversability(distanceFromPoint);
+        // The new cursor reports every cell, but the whole field is built anyway.
+        changes = traversable.newChangeCursor();
+        changes.drain(null, null);
+        rows = map.rows();
+        cols = map.columns();
+        int cellCount = map.cellCount();
+        if (costs == null || costs.length != cellCount) {
+            costs = new float[cellCount];
+            nextHops = new int[cellCount];
+            stack = new int[cellCount];
+            open = new IndexedMinHeap(cellCount);
+        }
+        Arrays.fill(costs, Float.MAX_VALUE);
+        Arrays.fill(nextHops, -1);
+        invalid.clear();
+        open.clear();
+        costs[goal] = 0.0f;
+        open.push(goal, 0.0f, 0.0f);
+        if (!search()) clearGoal();
+    }
+    
+    /**
+     * Lower the costs of the neighbours of the queued cells, and of their
+     * neighbours in turn, until no cost can be lowered.
+     * @return false if the thread was interrupted first, leaving the field
+     *         half built
+     */
+    private boolean search() {
+        while (!open.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) return false;
+            int cell = open.pop();
+            int row = cell / cols;
+            int col = cell - row * cols;
+            for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                int nRow = row + Map.neighbourRowOffsets[direction];
+                int nCol = col + Map.neighbourColOffsets[direction];
+                if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+                int neighbour = nRow * cols + nCol;
+                float cost = costs[cell] + stepCost(direction);
+                if (cost >= costs[neighbour]) continue;
+                costs[neighbour] = cost;
+                nextHops[neighbour] = cell;
+                // Cells that are not traversable can be left, but not passed through.
+                if (isExpandable(neighbour)) {
+                    open.push(neighbour, cost, 0.0f);
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Check whether paths may pass through a cell: whether it is the goal or
+     * traversable.
+     */
+    private boolean isExpandable(int cell) {
+        return cell == goal || traversable.isTraversable(cell);
+    }
+    
+    /**
+     * Get the cost of a step in a neighbour direction.
+     */
+    private static float stepCost(int direction) {
+        return Map.isDiagonal(direction) ? PathNode.diagonallyMovementCost : PathNode.sideWaysMovementCost;
+    }
+    
+    // The map, or null for a copy, and the clearance paths keep from
+    // impassable areas, in cells.
+    private Map map;
+    private int distanceFromPoint;
+    // The traversability the field was built on, and the cells whose
+    // traversability has changed since.
+    private TraversabilityLayer traversable;
+    private ChangeCursor changes;
+    private final BitSet changedCells = new BitSet();
+    private int rows;
+    private int cols;
+    // The goal, and for every cell the cost to it and the next cell on the way.
+    private int goal;
+    private float[] costs;
+    private int[] nextHops;
+    // Repair state: the cells being cleared, and the cells to search onwards from.
+    private final BitSet invalid = new BitSet();
+    private int[] stack;
+    private IndexedMinHeap open;
+}
@@ -0,0 +1,87 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FlowFieldTest {
+    @Test
+    public void testSameCostAsAStar() {
+        Random random = new Random(41);
+        Map map = PlannerTestSupport.mapWithWalls(random, 60, 70, 30, 15);
+        int goal = map.index(30, 35);
+        map.set(Map.Property.OBSTACLE, goal, 0.0f);
+        FlowField field = new FlowField(map);
+        field.setDistanceFromPoint(1);
+        field.setGoal(goal);
+        assertTrue(map.traversability(1).isTraversable(goal));
+        for (int query = 0; query < 40; query += 1) {
+            int start = random.nextInt(map.cellCount());
+            if (start == goal) continue;
+            int[] expected = PlannerTestSupport.lowestCostPath(map, 1, start, goal);
+            assertEquals(expected.length == 0, field.cost(start) == Float.MAX_VALUE);
+            if (expected.length == 0) continue;
+            assertEquals(PlannerTestSupport.cost(map, expected), field.cost(start), 0.0f);
+            // Following the next steps from any cell leads to the goal at that cost.
+            int[] path = follow(field, start);
+            PlannerTestSupport.assertValidPath(map, 1, start, goal, path);
+            assertEquals(field.cost(start), PlannerTestSupport.cost(map, path), 0.0f);
+        }
+    }
+    
+    @Test
+    public void testSearchPath() {
+        new PlannerTestSupport.Trials<FlowField>(new Random(47), 60, 70, 30, 15) {
+            FlowField create(Map map) {
+                return new FlowField(map);
+            }
+        
+            void check(FlowField field, Map map, int clearance, int start, int goal, int[] lowest) {
+                PlannerTestSupport.assertLowestCost(map, clearance, start, goal, lowest, field.searchPath(start, goal));
+            }
+        }.run(10, 10);
+    }
+    
+    @Test
+    public void testRepairMatchesRebuild() {
+        Random random = new Random(43);
+        for (int trial = 0; trial < 10; trial += 1) {
+            Map map = PlannerTestSupport.mapWithWalls(random, 50, 60, 20, 15);
+            int clearance = PlannerTestSupport.randomClearance(random);
+            FlowField field = new FlowField(map);
+            field.setDistanceFromPoint(clearance);
+            field.setGoal(random.nextInt(map.cellCount()));
+            for (int step = 0; step < 10; step += 1) {
+                PlannerTestSupport.addWalls(map, random, 2, 15, 1.0f);
+                PlannerTestSupport.addWalls(map, random, 2, 15, 0.0f);
+                field.update();
+                FlowField rebuilt = new FlowField(map);
+                rebuilt.setDistanceFromPoint(clearance);
+                rebuilt.setGoal(field.goal());
+                for (int cell = 0; cell < map.cellCount(); cell += 1) {
+                    assertEquals(rebuilt.cost(cell), field.cost(cell), 0.0f);
+                    if (field.nextHop(cell) >= 0) {
+                        int next = field.nextHop(cell);
+                        assertEquals(field.cost(cell), field.cost(next)
+                            + PlannerTestSupport.cost(map, new int[] { cell, next }), 0.0f);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Follow the next steps of a field from a cell to the goal.
+     */
+    private static int[] follow(FlowField field, int cell) {
+        int[] path = new int[1];
+        path[0] = cell;
+        while (field.nextHop(cell) >= 0) {
+            cell = field.nextHop(cell);
+            path = Arrays.copyOf(path, path.length + 1);
+            path[path.length - 1] = cell;
+        }
+        return path;
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Vector;
 import javax.swing.*;
@@ -61,9 +62,6 @@ public class GUIMapRendering extends JFrame {
     	destinationX = -destination.getIconWidth();
     	destinationY = -destination.getIconHeight();
     	
-    	displayGridRow =(int) Math.ceil((width / handler.map().rows()));
-    	displayGridCol = (int)  Math.ceil((height / handler.map().columns()));
-
     	receiveMapData(true);
     	scenes();
     	zoomMoveListener();
@@ -94,7 +92,7 @@ public class GUIMapRendering extends JFrame {
     	
     	try {
 			MapXMLExporter.export("SavedMap.xml",
-									handler.map(),robotPos, 
+									handler.map().snapshot(),robotPos, 
 									rotateDegree,
 									shapeDetection.returnFootsteps(), 
 									null, 
@@ -181,23 +179,49 @@ public class GUIMapRendering extends JFrame {
      * Recieve the data in grid from map structure
      */
     public void receiveMapData(boolean isInitial){
-    	for(int i = 0; i < handler.map().columns(); i += 1 ){
-    		for(int j = 0 ; j <  handler.map().rows(); j += 1 ){
-    			
-    			
-    			RGBColor colorOnPos = handler.map().getColorAtPosition(new Map.GridLocation(i, j));
-    			Map.Property propertyOnGrid =  handler.map().getProperty(new Map.GridLocation(i, j));
-    			int x = translateToDisplayX(j);
-    			int y = translateToDisplayY(i);
-    			mapPoints.add(new DisplayMapPoint(x, y,i, j,colorOnPos, propertyOnGrid));
+    	/**
+    	 * Read from the latest published snapshot, as the map itself is being
+    	 * updated by the main loop
+    	 */
+    	MapSnapshot map = handler.map().snapshot();
+    	/**
+    	 * Register each row and column at the beginning, and again if the map
+    	 * has grown, as every cell has moved
+    	 */
+    	if(isInitial || shownMap.geometryVersion() != map.geometryVersion()){
+    		grids.clear();
+    		displayGridRow =(int) Math.ceil((width / map.rows()));
+    		displayGridCol = (int)  Math.ceil((height / map.columns()));
+    		pointAt = new DisplayMapPoint[map.cellCount()];
+    		for(int i = 0; i < map.columns(); i += 1 ){
+    			for(int j = 0 ; j < map.rows(); j += 1 ){
+    				int index = map.index(i, j);
+    				int x = translateToDisplayX(j);
+    				int y = translateToDisplayY(i);
+    				DisplayMapPoint point = new DisplayMapPoint(x, y, i, j,
+    						map.getColorAtPosition(index), map.getProperty(index));
+    				grids.add(point);
+    				pointAt[index] = point;
+    			}
     		}
+    		shownMap = map;
+    		return;
     	}
     	/**
-    	 * Register each row and column at the beginning
+    	 * Afterwards only refresh the points in tiles that changed since the
+    	 * snapshot shown last
     	 */
-    	if(isInitial){
-    		grids.addAll(mapPoints);
+    	if(map == shownMap){
+    		return;
+    	}
+    	map.changedCells(shownMap, changedCells);
+    	for(int index = changedCells.nextSetBit(0); index >= 0; index = changedCells.nextSetBit(index + 1)){
+    		DisplayMapPoint point = pointAt[index];
+    		if(point != null){
+    			point.update(map.getColorAtPosition(index), map.getProperty(index));
+    		}
     	}
+    	shownMap = map;
     }
     
     /**
@@ -211,10 +235,10 @@ public class GUIMapRendering extends JFrame {
             	
             	Point robotPos = handler.getRobotPosition(); 
             	rotateDegree = handler.getAngleDegree();
-            	robotPositionX = handler.map().getGridLocation(robotPos).col;
-            	robotPositionY = handler.map().getGridLocation(robotPos).row;
+            	robotPositionX = handler.map().snapshot().getGridLocation(robotPos).col;
+            	robotPositionY = handler.map().snapshot().getGridLocation(robotPos).row;
             	Point colorSensorPos = handler.getColorSensorPosition();
-            	handler.map().getGridLocation(colorSensorPos);
+            	handler.map().snapshot().getGridLocation(colorSensorPos);
     			System.out.println(handler.getRobotPosition());
             	System.out.println("GUI robot : "+robotPositionX+"    "+robotPositionY);
             	receiveMapData(false);
@@ -394,11 +418,10 @@ public class GUIMapRendering extends JFrame {
          	/**
          	 * Rendering Map features from Map structure
          	 */
-         	for (int i = 0; i < mapPoints.size(); i++) {
-         		g.setColor(mapPoints.get(i).GetColor());
-        		g.fillRect(mapPoints.get(i).PosX, mapPoints.get(i).PosY, displayGridRow, displayGridCol);
+         	for (int i = 0; i < grids.size(); i++) {
+         		g.setColor(grids.get(i).GetColor());
+        		g.fillRect(grids.get(i).PosX, grids.get(i).PosY, displayGridRow, displayGridCol);
          	}
-         	mapPoints.clear();
          	
         	/**
              * Display the Position of the robot
@@ -470,11 +493,21 @@ public class GUIMapRendering extends JFrame {
 				this.PosY = PosY;
 				this.gridRow = row;
 				this.gridCol = col;
-				this.FeatureColor = FeatureColor;
+				update(FeatureColor, Property);
+			}
+			/**
+			 * Refresh the feature shown at this point.
+			 * The display color is only rebuilt when the feature color changes.
+			 */
+			public void update(RGBColor FeatureColor, Map.Property Property){
+				if(this.FeatureColor != FeatureColor){
+					this.FeatureColor = FeatureColor;
+					this.DisplayColor = new Color(FeatureColor.r,FeatureColor.g,FeatureColor.b);
+				}
 				this.Property = Property;
 			}
 			public Color GetColor(){
-				return new Color(FeatureColor.r,FeatureColor.g,FeatureColor.b);
+				return DisplayColor;
 			}
 			public int GetX(){
 				return PosX;
@@ -491,6 +524,7 @@ public class GUIMapRendering extends JFrame {
 			}
 			public RGBColor FeatureColor;
 			public Map.Property Property;
+			private Color DisplayColor;
 			int PosX,PosY,gridRow,gridCol;
 
 		}
@@ -523,8 +557,10 @@ public class GUIMapRendering extends JFrame {
     	Timer timer;
     	Point currentPoint;
 
-    	List <DisplayMapPoint> mapPoints =  new ArrayList<DisplayMapPoint>();
     	List <DisplayMapPoint> grids = new ArrayList <DisplayMapPoint>();
+    	private DisplayMapPoint[] pointAt;
+    	private MapSnapshot shownMap;
+    	private BitSet changedCells = new BitSet();
         List<Point> footsteps = new ArrayList<Point>();
         List<List<Point>> vehicleTracks = new ArrayList<List<Point>>();
         List<List<Point>> landingTrack = new ArrayList<List<Point>>();
@@ -0,0 +1,44 @@
+/**
+ * A path planner over the cells of a map. Planners move between the eight
+ * neighbours of a cell (see Map.neighbour()), at a cost of
+ * PathNode.sideWaysMovementCost for a straight step and
+ * PathNode.diagonallyMovementCost for a diagonal one, and only enter cells
+ * that keep distanceFromPoint cells of clearance from impassable areas
+ * (see Map.traversability()).
+ * PathFinding, JumpPointSearch, DStarLite and FlowField find a path of the
+ * lowest cost, so they can be swapped for one another. The other planners
+ * trade that away: ThetaStar finds the shortest path at any angle, and steps
+ * along its straight segments; AnytimePlanner returns the best path it finds
+ * within its time budget, bounded by its epsilon(); HierarchicalPlanner plans
+ * over clusters of cells, and its smoothed paths may cost slightly more than
+ * the lowest (at most 10% more in its tests); and LatticePlanner finds the
+ * path of least execution time for the robot's turns and drives, which may
+ * cost more in steps.
+ * Cells are addressed by row-major index, as for Map.index().
+ * A search stops when its thread is interrupted (see PlanningService.cancel()),
+ * and returns no path; AnytimePlanner's searches only run for one slice of its
+ * time budget anyway.
+ * @author jkortman
+ */
+public interface GridPlanner {
+    /**
+     * Search for a path between two cells.
+     * @param start the cell index of the origin
+     * @param goal  the cell index of the destination
+     * @return      the cell indices of the path from start to goal inclusive, each a
+     *              neighbour of the one before, or an empty array if no path exists
+     */
+    int[] searchPath(int start, int goal);
+    
+    /**
+     * Set the clearance, in cells, that every cell of a path must keep from
+     * impassable areas.
+     */
+    void setDistanceFromPoint(int val);
+    
+    /**
+     * Get the clearance, in cells, that every cell of a path must keep from
+     * impassable areas.
+     */
+    int getDistanceFromPoint();
+}
@@ -1,3 +1,5 @@
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -12,6 +14,9 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * A module that translate graphical user interface events(such as button press) to high-level
@@ -38,6 +43,9 @@ public class Handler implements HandlerDisplayInterface {
     private DistanceSensorInterpreter distanceSensorInterpreter;
     private NoGoZonesMarker ngzMarker;
     private DecisionMaker decisionMaker;
+    private PlanningService planningService;			// Finds paths off the control loop
+    private Future<PlanningService.Plan> pendingPlan;	// The path being found for the latest destination, or null
+    private PlanningService.Plan followedPlan;			// The plan whose flow field is followed, or null
     private PointToCommandParameterConverter ptcParameterConverter;
     private Deque<Integer> existingJobs;		// Stores the id's of the jobs/commands sent to robot that has not been executed by the robot
     // FOR DEBUGGING
@@ -92,9 +100,23 @@ public class Handler implements HandlerDisplayInterface {
         rows = Settings.Map.rows;
         cols = Settings.Map.cols;
         GridSize = Settings.Map.gridSize;
-        this.map = new Map(GridSize,     // 1cm grid size
-        					rows,    // 119cm is the maximum edge length of an A0 sheet.
-        					cols);
+        if (Settings.Map.mappedFile != null) {
+            // Resume from (or start) a map kept in a memory-mapped file.
+            try {
+                this.map = new Map(GridSize, rows, cols, new File(Settings.Map.mappedFile));
+            } catch (IOException e) {
+                System.err.printf("Could not map '%s', keeping the map in memory: %s%n",
+                                  Settings.Map.mappedFile, e.getMessage());
+            }
+        }
+        if (this.map == null) {
+            this.map = new Map(GridSize,     // 1cm grid size
+            					rows,    // 119cm is the maximum edge length of an A0 sheet.
+            					cols,
+            					Settings.Map.tiled ? Map.Storage.TILED
+            					: Settings.Map.quantized ? Map.Storage.QUANTIZED
+            					: Map.Storage.DENSE);
+        }
         this.robotPosition = new Point(0.0f, 0.0f);
         this.colorSensorPosition = new Point(0.0f, 0.0f);
         
@@ -120,6 +142,7 @@ public class Handler implements HandlerDisplayInterface {
         this.distanceSensorInterpreter = new DistanceSensorInterpreter();
         this.ngzMarker = new NoGoZonesMarker(this.map);
         this.decisionMaker = new DecisionMaker(this.map);
+        this.planningService = new PlanningService();
         this.ptcParameterConverter = new PointToCommandParameterConverter();
         this.existingJobs = new ArrayDeque<>();
         if (Settings.Debug.usePresetMap) {
@@ -156,6 +179,10 @@ public class Handler implements HandlerDisplayInterface {
             // Clear the queue in case if the operator has pressed some buttons(forward, back, 
             // left/right rotate) on the UI while in AUTO mode.
             uiEventQueue.clear();
+            // Drop the path being found, without waiting for the planner.
+            planningService.cancel();
+            pendingPlan = null;
+            followedPlan = null;
             emergencyStopPressedFlag = true;
         }
         
@@ -195,7 +222,16 @@ public class Handler implements HandlerDisplayInterface {
 //            		System.out.println("");
         		}
         		
-        		if (existingJobs.isEmpty()) {			// There are no more existing jobs
+        		collectPlan();
+        		PlanningService.Plan improvedPlan = planningService.takeImprovedPlan();
+        		if (improvedPlan != null && improvedPlan.geometryVersion() == map.geometryVersion()) {
+        			decisionMaker.improvePath(improvedPlan.origin(), improvedPlan.path());	// A better path for the latest destination
+        		}
+        		followRepairedPlan();
+        		if (decisionMaker.isPlanning()) {		// Improve the found path within one step's time budget
+        			decisionMaker.improvePath();
+        		}
+        		if (existingJobs.isEmpty() && pendingPlan == null) {	// There are no more existing jobs, and the path is found
         			moveToNextPosition();
         		}
         }
@@ -212,7 +248,13 @@ public class Handler implements HandlerDisplayInterface {
             		existingJobs.add(handlerToRobotQueue.turnDegrees(360));
             		existingJobs.add(handlerToRobotQueue.turnDegrees(-360));
             		Map.GridLocation destinationPoint = uiEventQueue.getDestination();
-                this.decisionMaker.findPath(robotPosition, destinationPoint);
+                if (Settings.Planning.asynchronous) {	// Find the path off the control loop; see collectPlan()
+                		pendingPlan = planningService.plan(map.publishSnapshot(), robotPosition, turnAngleDegrees,
+                										   destinationPoint);
+                } else {
+                		followedPlan = null;
+                		this.decisionMaker.findPath(robotPosition, turnAngleDegrees, destinationPoint);
+                }
                 System.out.printf("DESTINATION CREATED%n");
                 break;
             default:
@@ -247,6 +289,7 @@ public class Handler implements HandlerDisplayInterface {
                 case CLOSE:
                     setExitFlag(true);
                     handlerToRobotQueue.emergencyStop();
+                    planningService.shutdown();
                     System.out.printf("CLOSE PRESSED%n");
                     break;
                 case ADD_NO_GO_ZONES:
@@ -268,12 +311,65 @@ public class Handler implements HandlerDisplayInterface {
         }
     }
     
+    /**
+     * Takes the flow field repaired by the planning service since the last step, and has it repaired
+     * on the latest snapshot of the map, so the robot heads around obstacles sensed since the path
+     * was found. A field found before the map grew no longer fits it, so the path is found again.
+     */
+    private void followRepairedPlan() {
+        if (followedPlan == null || pendingPlan != null || decisionMaker.getFlowField() == null) {
+        		return;
+        }
+        if (followedPlan.geometryVersion() != map.geometryVersion()) {
+        		followedPlan = null;
+        		pendingPlan = planningService.plan(map.publishSnapshot(), robotPosition, turnAngleDegrees,
+        										   uiEventQueue.getDestination());
+        		return;
+        }
+        PlanningService.Plan repairedPlan = planningService.takeRepairedPlan();
+        if (repairedPlan != null && repairedPlan.geometryVersion() == map.geometryVersion()) {
+        		decisionMaker.followFlowField(repairedPlan.flowField());
+        }
+        planningService.repair(map.snapshot());
+    }
+    
+    /**
+     * Takes the path found by the planning service for the latest destination, once it has been
+     * found. A path found before the map grew no longer fits it, so it is found again.
+     */
+    private void collectPlan() {
+        if (pendingPlan == null || !pendingPlan.isDone()) {
+        		return;
+        }
+        try {
+        		PlanningService.Plan plan = pendingPlan.get();
+        		pendingPlan = null;
+        		if (plan.geometryVersion() != map.geometryVersion()) {
+        			pendingPlan = planningService.plan(map.publishSnapshot(), robotPosition, turnAngleDegrees,
+        											   uiEventQueue.getDestination());
+        			return;
+        		}
+        		if (!plan.isFound()) {
+        			System.out.println("Destination is blocked");
+        		}
+        		decisionMaker.followPath(plan.origin(), plan.path(), plan.flowField());
+        		followedPlan = plan.flowField() == null ? null : plan;
+        } catch (CancellationException e) {
+        		pendingPlan = null;
+        } catch (ExecutionException e) {
+        		System.err.printf("Could not find a path: %s%n", e.getCause());
+        		pendingPlan = null;
+        } catch (InterruptedException e) {
+        		Thread.currentThread().interrupt();
+        }
+    }
+    
     /**
      * Moves the robot to the next position in the found path
      */
     private void moveToNextPosition() {
-		if (!decisionMaker.hasReached()) {	// The destination point has not been reached
-    			Point nextPos = decisionMaker.getNextPosition();
+		if (!decisionMaker.hasReached(robotPosition)) {	// The destination point has not been reached
+    			Point nextPos = decisionMaker.getNextPosition(robotPosition);
     			if (nextPos == null) { 			// A path does not exist
     				System.out.println("Destination is blocked");
     				return;
@@ -431,15 +527,11 @@ public class Handler implements HandlerDisplayInterface {
                                             map,
                                             robotPosition,
                                             data.angleDegrees);
-        // Interpret color sensor.
-        try {
-            ColorDetector.Color color = colorDetector.detect(data.sensorRGB);
-            colorInterpreter.interpret(color,
-                                       map,
-                                       colorSensorPosition);
-        } catch (Map.OutOfMapBoundsException e) {
-            // Pass.
-        }
+        // Interpret color sensor. Readings outside the map are ignored.
+        ColorDetector.Color color = colorDetector.detect(data.sensorRGB);
+        colorInterpreter.interpret(color,
+                                   map,
+                                   colorSensorPosition);
     }
     
     /**
@@ -489,6 +581,8 @@ public class Handler implements HandlerDisplayInterface {
                 // Some Lunarian is controlling our robot!
                 break;
         }
+        // Let the display and exporter see this step's changes.
+        map.publishSnapshot();
     }
     
     /**
@@ -0,0 +1,78 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HierarchicalPlannerTest {
+    @Test
+    public void testNearOptimal() {
+        new PlannerTestSupport.Trials<HierarchicalPlanner>(new Random(29), 150, 130, 60, 25) {
+            HierarchicalPlanner create(Map map) {
+                return new HierarchicalPlanner(map);
+            }
+        
+            void check(HierarchicalPlanner hpa, Map map, int clearance, int start, int goal, int[] lowest) {
+                int[] path = hpa.searchPath(start, goal);
+                assertEquals(lowest.length == 0, path.length == 0);
+                if (path.length == 0) return;
+                PlannerTestSupport.assertValidPath(map, clearance, start, goal, path);
+                float optimal = PlannerTestSupport.cost(map, lowest);
+                float cost = PlannerTestSupport.cost(map, path);
+                assertTrue(cost >= optimal);
+                assertTrue(cost <= optimal * 1.1f);
+                ratios += cost / optimal;
+                paths += 1;
+            }
+        }.run(20, 10);
+        // Paths cost well under 1% more than optimal on average.
+        assertTrue(ratios / paths < 1.01f);
+    }
+    
+    @Test
+    public void testShortPathsNearOptimal() {
+        // Without refinement, a path to a goal a few cells away across a
+        // border detours through the nearest entrance, at several times the cost.
+        Random random = new Random(41);
+        for (int trial = 0; trial < 20; trial += 1) {
+            Map map = PlannerTestSupport.mapWithWalls(random, 150, 130, 60, 25);
+            int clearance = PlannerTestSupport.randomClearance(random);
+            HierarchicalPlanner hpa = new HierarchicalPlanner(map);
+            hpa.setDistanceFromPoint(clearance);
+            for (int query = 0; query < 20; query += 1) {
+                int start = random.nextInt(map.cellCount());
+                int row = Math.max(0, Math.min(map.rows() - 1, map.rowOf(start) + random.nextInt(25) - 12));
+                int col = Math.max(0, Math.min(map.columns() - 1, map.colOf(start) + random.nextInt(25) - 12));
+                int goal = map.index(row, col);
+                int[] lowest = PlannerTestSupport.lowestCostPath(map, clearance, start, goal);
+                int[] path = hpa.searchPath(start, goal);
+                assertEquals(lowest.length == 0, path.length == 0);
+                if (path.length == 0) continue;
+                PlannerTestSupport.assertValidPath(map, clearance, start, goal, path);
+                assertTrue(PlannerTestSupport.cost(map, path) <= PlannerTestSupport.cost(map, lowest) * 1.1f);
+            }
+        }
+    }
+    
+    @Test
+    public void testRebuildsChangedClusters() {
+        Map map = new Map(0.02f, 160, 160);
+        HierarchicalPlanner hpa = new HierarchicalPlanner(map);
+        int start = map.index(2, 3);
+        int goal = map.index(150, 155);
+        assertEquals(148 + 152, PlannerTestSupport.cost(map, hpa.searchPath(start, goal)), 0.0f);
+        assertEquals(25, hpa.lastRebuiltClusters());
+        hpa.searchPath(start, goal);
+        assertEquals(0, hpa.lastRebuiltClusters());
+        
+        // A change inside the middle cluster rebuilds it and the four clusters sharing its borders.
+        map.set(Map.Property.OBSTACLE, map.index(80, 80), 1.0f);
+        int[] path = hpa.searchPath(start, goal);
+        assertEquals(5, hpa.lastRebuiltClusters());
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, path);
+    }
+    
+    // The sum of the ratios of path costs to the lowest costs, and the number of paths.
+    private float ratios;
+    private int paths;
+}
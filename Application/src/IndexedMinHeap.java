@@ -0,0 +1,219 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of cell indices with float keys, that can find, re-key
+ * and remove any cell it holds in O(log n). Used as the open list of the
+ * grid planners, where a cell's key drops whenever a cheaper path to it is
+ * found.
+ * Cells are ordered by key, then by a tie-break key, so planners can e.g.
+ * prefer cells nearer the goal among cells with the same total cost.
+ * @author jkortman
+ */
+public class IndexedMinHeap {
+    /**
+     * Default constructor is disallowed; heaps must have an associated capacity.
+     */
+    @SuppressWarnings("unused")
+    private IndexedMinHeap() {}
+    
+    /**
+     * Create an empty heap.
+     * @param capacity the number of cells; cells are numbered 0 to capacity - 1
+     */
+    public IndexedMinHeap(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        cells = new int[capacity];
+        keys = new float[capacity];
+        tieBreaks = new float[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, absent);
+    }
+    
+    /**
+     * Get the number of cells the heap can index.
+     */
+    public int capacity() {
+        return positions.length;
+    }
+    
+    /**
+     * Get the number of cells in the heap.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Check whether the heap is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Check whether a cell is in the heap.
+     */
+    public boolean contains(int cell) {
+        return positions[cell] != absent;
+    }
+    
+    /**
+     * Get the key of a cell in the heap.
+     */
+    public float key(int cell) {
+        return keys[positions[cell]];
+    }
+    
+    /**
+     * Get the tie-break key of a cell in the heap.
+     */
+    public float tieBreak(int cell) {
+        return tieBreaks[positions[cell]];
+    }
+    
+    /**
+     * Get the cell with the smallest key, without removing it.
+     */
+    public int peek() {
+        return cells[0];
+    }
+    
+    /**
+     * Get the smallest key in the heap.
+     */
+    public float peekKey() {
+        return keys[0];
+    }
+    
+    /**
+     * Get the tie-break key of the cell with the smallest key.
+     */
+    public float peekTieBreak() {
+        return tieBreaks[0];
+    }
+    
+    /**
+     * Add a cell to the heap, or change its keys if it is already there.
+     * @param cell     the cell
+     * @param key      the key to order the cell by
+     * @param tieBreak the key to order cells with equal keys by
+     */
+    public void push(int cell, float key, float tieBreak) {
+        int i = positions[cell];
+        if (i == absent) {
+            i = size;
+            size += 1;
+            place(cell, key, tieBreak, i);
+            siftUp(i);
+        } else if (less(key, tieBreak, keys[i], tieBreaks[i])) {
+            keys[i] = key;
+            tieBreaks[i] = tieBreak;
+            siftUp(i);
+        } else {
+            keys[i] = key;
+            tieBreaks[i] = tieBreak;
+            siftDown(i);
+        }
+    }
+    
+    /**
+     * Remove and return the cell with the smallest key.
+     */
+    public int pop() {
+        int top = cells[0];
+        remove(top);
+        return top;
+    }
+    
+    /**
+     * Remove a cell from the heap, if it is there.
+     */
+    public void remove(int cell) {
+        int i = positions[cell];
+        if (i == absent) return;
+        positions[cell] = absent;
+        size -= 1;
+        if (i == size) return;
+        // Move the last entry into the gap, then restore the heap order.
+        int moved = cells[size];
+        place(moved, keys[size], tieBreaks[size], i);
+        siftUp(i);
+        siftDown(positions[moved]);
+    }
+    
+    /**
+     * Remove every cell, in O(size).
+     */
+    public void clear() {
+        for (int i = 0; i < size; i += 1) {
+            positions[cells[i]] = absent;
+        }
+        size = 0;
+    }
+    
+    /**
+     * Move an entry towards the root until its parent is not larger.
+     */
+    private void siftUp(int i) {
+        int cell = cells[i];
+        float key = keys[i];
+        float tieBreak = tieBreaks[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(key, tieBreak, keys[parent], tieBreaks[parent])) break;
+            place(cells[parent], keys[parent], tieBreaks[parent], i);
+            i = parent;
+        }
+        place(cell, key, tieBreak, i);
+    }
+    
+    /**
+     * Move an entry towards the leaves until neither child is smaller.
+     */
+    private void siftDown(int i) {
+        int cell = cells[i];
+        float key = keys[i];
+        float tieBreak = tieBreaks[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && less(keys[child + 1], tieBreaks[child + 1], keys[child], tieBreaks[child])) {
+                child += 1;
+            }
+            if (!less(keys[child], tieBreaks[child], key, tieBreak)) break;
+            place(cells[child], keys[child], tieBreaks[child], i);
+            i = child;
+        }
+        place(cell, key, tieBreak, i);
+    }
+    
+    /**
+     * Store an entry at a position in the heap.
+     */
+    private void place(int cell, float key, float tieBreak, int i) {
+        cells[i] = cell;
+        keys[i] = key;
+        tieBreaks[i] = tieBreak;
+        positions[cell] = i;
+    }
+    
+    /**
+     * Compare two entries by key, then by tie-break key.
+     */
+    private static boolean less(float key, float tieBreak, float otherKey, float otherTieBreak) {
+        return key < otherKey || (key == otherKey && tieBreak < otherTieBreak);
+    }
+    
+    // Marks a cell that is not in the heap.
+    private static final int absent = -1;
+    
+    // The heap entries, as parallel arrays; entry i has children 2i + 1 and 2i + 2.
+    private int[] cells;
+    private float[] keys;
+    private float[] tieBreaks;
+    private int size;
+    // The position of each cell in the heap, or absent.
+    private int[] positions;
+}
@@ -0,0 +1,203 @@
+/**
+ * A Jump Point Search planner (Harabor and Grastien, "Online Graph Pruning
+ * for Pathfinding on Grid Maps", AAAI 2011).
+ * JPS is A* that skips the cells of a straight or diagonal run that every
+ * optimal path would cross the same way: from each expanded cell it only
+ * follows the directions that cannot be reached more cheaply through the
+ * cell's parent, and walks along them until it meets a jump point, a cell
+ * next to an obstacle corner (a forced neighbour) or the goal. On open floor
+ * with sparse obstacles only a handful of cells are put in the open heap,
+ * instead of every cell A* expands.
+ * The pruning rules hold for any diagonal cost between one and two straight
+ * steps, including PathNode's costs, so JPS finds paths of the same cost as
+ * PathFinding. The jump points are filled in, so paths step between
+ * neighbouring cells like every GridPlanner.
+ * @author jkortman
+ */
+public class JumpPointSearch implements GridPlanner {
+    /**
+     * Create a planner for a map.
+     * @param map the map to plan on
+     */
+    public JumpPointSearch(Map map) {
+        this.map = map;
+        this.distanceFromPoint = 0;
+    }
+    
+    public void setDistanceFromPoint(int val) {
+        distanceFromPoint = val;
+    }
+    
+    public int getDistanceFromPoint() {
+        return distanceFromPoint;
+    }
+    
+    public int[] searchPath(int start, int goal) {
+        if (workspace == null || workspace.capacity() != map.cellCount()) {
+            workspace = new PlannerWorkspace(map.cellCount());
+        }
+        traversable = map.traversability(distanceFromPoint);
+        rows = map.rows();
+        cols = map.columns();
+        goalRow = map.rowOf(goal);
+        goalCol = map.colOf(goal);
+        IndexedMinHeap open = workspace.open();
+        
+        workspace.reset();
+        workspace.reach(start, 0.0f, -1, hCost(start));
+        open.push(start, workspace.hCost(start), workspace.hCost(start));
+        while (!open.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) break;
+            int current = open.pop();
+            if (current == goal) {
+                return fillIn(workspace.path(goal));
+            }
+            workspace.close(current);
+            int row = map.rowOf(current);
+            int col = map.colOf(current);
+            int parent = workspace.parent(current);
+            for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                int dRow = Map.neighbourRowOffsets[direction];
+                int dCol = Map.neighbourColOffsets[direction];
+                if (parent >= 0 && !isSuccessorDirection(row, col, map.rowOf(parent), map.colOf(parent), dRow, dCol)) {
+                    continue;
+                }
+                int jumpPoint = jump(row, col, dRow, dCol);
+                if (jumpPoint < 0 || workspace.isClosed(jumpPoint)) continue;
+                float cost = workspace.gCost(current) + cost(current, jumpPoint);
+                if (workspace.gCost(jumpPoint) <= cost) continue;
+                float h = workspace.isReached(jumpPoint) ? workspace.hCost(jumpPoint) : hCost(jumpPoint);
+                workspace.reach(jumpPoint, cost, current, h);
+                // Among equal costs, prefer the cell closest to the goal.
+                open.push(jumpPoint, cost + h, h);
+            }
+        }
+        return new int[0];
+    }
+    
+    /**
+     * Check whether a direction from a cell needs to be searched, given the
+     * cell it was reached from: the natural directions that continue the move,
+     * and the forced directions around obstacle corners beside it.
+     */
+    private boolean isSuccessorDirection(int row, int col, int parentRow, int parentCol, int dRow, int dCol) {
+        int moveRow = Integer.signum(row - parentRow);
+        int moveCol = Integer.signum(col - parentCol);
+        if (moveRow != 0 && moveCol != 0) {
+            // Diagonal move: continue diagonally or along either component.
+            if ((dRow == moveRow && dCol == moveCol) || (dRow == moveRow && dCol == 0)
+                    || (dRow == 0 && dCol == moveCol)) {
+                return true;
+            }
+            return (dRow == -moveRow && dCol == moveCol && !isWalkable(row - moveRow, col))
+                || (dRow == moveRow && dCol == -moveCol && !isWalkable(row, col - moveCol));
+        }
+        if (dRow == moveRow && dCol == moveCol) return true;
+        if (moveRow == 0) {
+            // Horizontal move: turn diagonally past a blocked cell above or below.
+            return dCol == moveCol && dRow != 0 && !isWalkable(row + dRow, col);
+        }
+        // Vertical move: turn diagonally past a blocked cell left or right.
+        return dRow == moveRow && dCol != 0 && !isWalkable(row, col + dCol);
+    }
+    
+    /**
+     * Walk from a cell in a direction until reaching a jump point.
+     * @return the cell index of the jump point, or -1 if the walk is blocked
+     *         or leaves the map first
+     */
+    private int jump(int row, int col, int dRow, int dCol) {
+        while (true) {
+            row += dRow;
+            col += dCol;
+            if (!isWalkable(row, col)) return -1;
+            if (row == goalRow && col == goalCol) return map.index(row, col);
+            if (dRow != 0 && dCol != 0) {
+                if ((!isWalkable(row - dRow, col) && isWalkable(row - dRow, col + dCol))
+                        || (!isWalkable(row, col - dCol) && isWalkable(row + dRow, col - dCol))) {
+                    return map.index(row, col);
+                }
+                // A diagonal step is a jump point if either straight walk from it finds one.
+                if (jump(row, col, dRow, 0) >= 0 || jump(row, col, 0, dCol) >= 0) {
+                    return map.index(row, col);
+                }
+            } else if (dRow == 0) {
+                if ((!isWalkable(row + 1, col) && isWalkable(row + 1, col + dCol))
+                        || (!isWalkable(row - 1, col) && isWalkable(row - 1, col + dCol))) {
+                    return map.index(row, col);
+                }
+            } else {
+                if ((!isWalkable(row, col + 1) && isWalkable(row + dRow, col + 1))
+                        || (!isWalkable(row, col - 1) && isWalkable(row + dRow, col - 1))) {
+                    return map.index(row, col);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Check whether a grid position is inside the map and traversable.
+     */
+    private boolean isWalkable(int row, int col) {
+        return row >= 0 && col >= 0 && row < rows && col < cols
+            && traversable.isTraversable(row * cols + col);
+    }
+    
+    /**
+     * Get the cost of the straight or diagonal run between two cells.
+     */
+    private float cost(int from, int to) {
+        int dRow = Math.abs(map.rowOf(to) - map.rowOf(from));
+        int dCol = Math.abs(map.colOf(to) - map.colOf(from));
+        int diagonal = Math.min(dRow, dCol);
+        return diagonal * PathNode.diagonallyMovementCost
+             + (Math.max(dRow, dCol) - diagonal) * PathNode.sideWaysMovementCost;
+    }
+    
+    /**
+     * Get the estimated cost from a cell to the goal: the cost of the best
+     * path on open floor, which never overestimates.
+     */
+    private float hCost(int cell) {
+        return cost(cell, map.index(goalRow, goalCol));
+    }
+    
+    /**
+     * Fill in the cells between consecutive jump points of a path.
+     */
+    private int[] fillIn(int[] jumpPoints) {
+        int length = 1;
+        for (int i = 1; i < jumpPoints.length; i += 1) {
+            length += Math.max(Math.abs(map.rowOf(jumpPoints[i]) - map.rowOf(jumpPoints[i - 1])),
+                               Math.abs(map.colOf(jumpPoints[i]) - map.colOf(jumpPoints[i - 1])));
+        }
+        int[] path = new int[length];
+        path[0] = jumpPoints[0];
+        int n = 1;
+        for (int i = 1; i < jumpPoints.length; i += 1) {
+            int row = map.rowOf(jumpPoints[i - 1]);
+            int col = map.colOf(jumpPoints[i - 1]);
+            int dRow = Integer.signum(map.rowOf(jumpPoints[i]) - row);
+            int dCol = Integer.signum(map.colOf(jumpPoints[i]) - col);
+            while (map.index(row, col) != jumpPoints[i]) {
+                row += dRow;
+                col += dCol;
+                path[n] = map.index(row, col);
+                n += 1;
+            }
+        }
+        return path;
+    }
+    
+    // The map, and the clearance paths keep from impassable areas, in cells.
+    private Map map;
+    private int distanceFromPoint;
+    // The search state, reused between searches.
+    private PlannerWorkspace workspace;
+    // The state of the current search.
+    private TraversabilityLayer traversable;
+    private int rows;
+    private int cols;
+    private int goalRow;
+    private int goalCol;
+}
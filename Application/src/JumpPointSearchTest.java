@@ -0,0 +1,34 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JumpPointSearchTest {
+    @Test
+    public void testOpenFloor() {
+        Map map = new Map(0.02f, 120, 120);
+        JumpPointSearch jps = new JumpPointSearch(map);
+        int start = map.index(3, 5);
+        int goal = map.index(110, 90);
+        int[] path = jps.searchPath(start, goal);
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, path);
+        // Straight steps cost 1 and diagonal steps 2, so open floor costs the row plus column distance.
+        assertEquals(107 + 85, PlannerTestSupport.cost(map, path), 0.0f);
+        assertArrayEquals(new int[] { start }, jps.searchPath(start, start));
+    }
+    
+    @Test
+    public void testSameCostAsAStar() {
+        // Sparse blocks and walls.
+        new PlannerTestSupport.Trials<JumpPointSearch>(new Random(23), 60, 70, 40, 15) {
+            JumpPointSearch create(Map map) {
+                return new JumpPointSearch(map);
+            }
+        
+            void check(JumpPointSearch jps, Map map, int clearance, int start, int goal, int[] lowest) {
+                PlannerTestSupport.assertLowestCost(map, clearance, start, goal, lowest, jps.searchPath(start, goal));
+            }
+        }.run(30, 10);
+    }
+}
@@ -0,0 +1,304 @@
+import java.util.Arrays;
+
+/**
+ * A state-lattice planner that finds the path the robot can carry out in the
+ * least time, by an ExecutionTimeModel, rather than the path of fewest cells.
+ * States are a cell and one of sixteen headings. The motion primitives are
+ * precomputed for each heading: drive forward to the next lattice point along
+ * the heading (one cell straight or diagonally, or a knight's move for the
+ * headings between), or turn on the spot to another heading. A drive costs its
+ * driving time, and a turn costs the turning time plus the overhead of the
+ * turn and drive commands that start a new segment, so paths trade length
+ * against the number and size of their turns.
+ * Drives only pass through cells that keep distanceFromPoint cells of
+ * clearance, like any GridPlanner's path, and paths are returned as cells, each
+ * a neighbour of the one before. The robot's heading at the start may be set
+ * with setStartHeading(); otherwise it may start at any heading for free.
+ * @author jkortman
+ */
+public class LatticePlanner implements GridPlanner {
+    /**
+     * Create a planner for a map.
+     * @param map   the map to plan on
+     * @param model the time the robot takes to drive and turn
+     */
+    public LatticePlanner(Map map, ExecutionTimeModel model) {
+        this.map = map;
+        this.model = model;
+        this.distanceFromPoint = 0;
+        this.startHeading = -1;
+        
+        // Sweep each primitive once; the cells are offsets from the start of the drive.
+        sweptRows = new int[headingCount][];
+        sweptCols = new int[headingCount][];
+        driveTimes = new float[headingCount];
+        turnTimes = new float[headingCount][headingCount];
+        for (int heading = 0; heading < headingCount; heading += 1) {
+            sweep(heading);
+            driveTimes[heading] = model.driveTime((float)Math.hypot(headingRows[heading], headingCols[heading])
+                                                  * map.getGridSize());
+            for (int other = 0; other < headingCount; other += 1) {
+                turnTimes[heading][other] = model.segmentTime(angleBetween(heading, other));
+            }
+        }
+        // Headings are not evenly spaced, so the smallest turn is not necessarily one from heading 0.
+        minimumTurnTime = Float.MAX_VALUE;
+        for (int heading = 0; heading < headingCount; heading += 1) {
+            for (int other = 0; other < headingCount; other += 1) {
+                if (other != heading) minimumTurnTime = Math.min(minimumTurnTime, turnTimes[heading][other]);
+            }
+        }
+    }
+    
+    public void setDistanceFromPoint(int val) {
+        distanceFromPoint = val;
+    }
+    
+    public int getDistanceFromPoint() {
+        return distanceFromPoint;
+    }
+    
+    /**
+     * Set the robot's heading at the start of the next searches.
+     * @param degrees the heading, counterclockwise from the map's x axis
+     *                (along a row, towards higher columns); or NaN if the
+     *                robot may start at any heading
+     */
+    public void setStartHeading(float degrees) {
+        if (Float.isNaN(degrees)) {
+            startHeading = -1;
+            return;
+        }
+        int best = 0;
+        for (int heading = 1; heading < headingCount; heading += 1) {
+            if (angleDifference(headingAngle(heading), degrees) < angleDifference(headingAngle(best), degrees)) {
+                best = heading;
+            }
+        }
+        startHeading = best;
+    }
+    
+    /**
+     * Search without the heuristic, i.e. with Dijkstra's algorithm, e.g. to
+     * check in tests that the heuristic never overestimates.
+     * @param heuristic whether to guide the search with the heuristic
+     */
+    void setHeuristic(boolean heuristic) {
+        this.heuristic = heuristic;
+    }
+    
+    /**
+     * Get the estimated time of the path found by the last search, in seconds,
+     * not counting the first segment's turn and drive commands.
+     */
+    public float lastPathTime() {
+        return pathTime;
+    }
+    
+    public int[] searchPath(int start, int goal) {
+        int stateCount = map.cellCount() * headingCount;
+        if (workspace == null || workspace.capacity() != stateCount) {
+            workspace = new PlannerWorkspace(stateCount);
+        }
+        traversable = map.traversability(distanceFromPoint);
+        rows = map.rows();
+        cols = map.columns();
+        goalRow = map.rowOf(goal);
+        goalCol = map.colOf(goal);
+        IndexedMinHeap open = workspace.open();
+        
+        workspace.reset();
+        for (int heading = 0; heading < headingCount; heading += 1) {
+            if (startHeading >= 0 && heading != startHeading) continue;
+            int state = start * headingCount + heading;
+            workspace.reach(state, 0.0f, -1, hCost(start, heading));
+            open.push(state, workspace.hCost(state), workspace.hCost(state));
+        }
+        while (!open.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) break;
+            int state = open.pop();
+            int cell = state / headingCount;
+            int heading = state - cell * headingCount;
+            if (cell == goal) {
+                pathTime = workspace.gCost(state);
+                return cells(workspace.path(state));
+            }
+            workspace.close(state);
+            // Drive forward along the heading.
+            int row = map.rowOf(cell);
+            int col = map.colOf(cell);
+            if (isClear(row, col, heading)) {
+                int next = map.index(row + headingRows[heading], col + headingCols[heading]) * headingCount + heading;
+                relax(state, next, driveTimes[heading]);
+            }
+            // Or turn on the spot, to start a new segment.
+            for (int other = 0; other < headingCount; other += 1) {
+                if (other == heading) continue;
+                relax(state, cell * headingCount + other, turnTimes[heading][other]);
+            }
+        }
+        pathTime = Float.MAX_VALUE;
+        return new int[0];
+    }
+    
+    /**
+     * Reach a state through a primitive, if that is quicker.
+     */
+    private void relax(int state, int next, float time) {
+        if (workspace.isClosed(next)) return;
+        float cost = workspace.gCost(state) + time;
+        if (workspace.gCost(next) <= cost) return;
+        float h = workspace.isReached(next) ? workspace.hCost(next)
+                                            : hCost(next / headingCount, next % headingCount);
+        workspace.reach(next, cost, state, h);
+        // Among equal times, prefer the state closest to the goal.
+        workspace.open().push(next, cost + h, h);
+    }
+    
+    /**
+     * Get a lower bound on the time from a state to the goal: the time to
+     * drive straight there, plus the quickest turn unless driving forward
+     * along the heading reaches the goal.
+     */
+    private float hCost(int cell, int heading) {
+        if (!heuristic) return 0.0f;
+        int dRow = goalRow - map.rowOf(cell);
+        int dCol = goalCol - map.colOf(cell);
+        float time = model.driveTime((float)Math.hypot(dRow, dCol) * map.getGridSize());
+        if (dRow == 0 && dCol == 0) return time;
+        // Forward drives reach the goal only if it is a whole number of steps along the heading.
+        int steps = headingRows[heading] != 0 ? dRow / headingRows[heading] : dCol / headingCols[heading];
+        if (steps <= 0 || dRow != steps * headingRows[heading] || dCol != steps * headingCols[heading]) {
+            time += minimumTurnTime;
+        }
+        return time;
+    }
+    
+    /**
+     * Check whether every cell a forward drive from a cell passes through is
+     * inside the map and traversable.
+     */
+    private boolean isClear(int row, int col, int heading) {
+        int[] dRows = sweptRows[heading];
+        int[] dCols = sweptCols[heading];
+        for (int i = 0; i < dRows.length; i += 1) {
+            int r = row + dRows[i];
+            int c = col + dCols[i];
+            if (r < 0 || c < 0 || r >= rows || c >= cols) return false;
+            if (!traversable.isTraversable(r * cols + c)) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Get the cells of a path of states: the cells every drive passes through.
+     */
+    private int[] cells(int[] states) {
+        int[] path = new int[1 + 3 * states.length];
+        path[0] = states[0] / headingCount;
+        int n = 1;
+        for (int i = 1; i < states.length; i += 1) {
+            int from = states[i - 1] / headingCount;
+            if (states[i] / headingCount == from) continue;
+            int heading = states[i] % headingCount;
+            for (int j = 0; j < sweptRows[heading].length; j += 1) {
+                path[n] = map.index(map.rowOf(from) + sweptRows[heading][j], map.colOf(from) + sweptCols[heading][j]);
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(path, n);
+    }
+    
+    /**
+     * Find the cells that the straight line between the centres of a cell and
+     * the next lattice point along a heading passes through, after the first.
+     * A line through the corner of four cells only passes through the two on
+     * the line, as for ThetaStar's lines of sight.
+     */
+    private void sweep(int heading) {
+        int endRow = headingRows[heading];
+        int endCol = headingCols[heading];
+        int dRow = Math.abs(endRow);
+        int dCol = Math.abs(endCol);
+        int stepRow = endRow > 0 ? 1 : -1;
+        int stepCol = endCol > 0 ? 1 : -1;
+        int[] rowsSwept = new int[dRow + dCol];
+        int[] colsSwept = new int[dRow + dCol];
+        int row = 0;
+        int col = 0;
+        int error = dRow - dCol;
+        int count = 0;
+        while (row != endRow || col != endCol) {
+            if (error > 0) {
+                row += stepRow;
+                error -= 2 * dCol;
+            } else if (error < 0) {
+                col += stepCol;
+                error += 2 * dRow;
+            } else {
+                row += stepRow;
+                col += stepCol;
+                error += 2 * dRow - 2 * dCol;
+            }
+            rowsSwept[count] = row;
+            colsSwept[count] = col;
+            count += 1;
+        }
+        sweptRows[heading] = Arrays.copyOf(rowsSwept, count);
+        sweptCols[heading] = Arrays.copyOf(colsSwept, count);
+    }
+    
+    /**
+     * Get the angle of a heading, counterclockwise from the map's x axis, in degrees.
+     */
+    private static float headingAngle(int heading) {
+        return (float)Math.toDegrees(Math.atan2(headingRows[heading], headingCols[heading]));
+    }
+    
+    /**
+     * Get the angle the robot turns through from one heading to another, in degrees.
+     */
+    private static float angleBetween(int heading, int other) {
+        return angleDifference(headingAngle(heading), headingAngle(other));
+    }
+    
+    /**
+     * Get the smallest angle between two directions, in degrees.
+     */
+    private static float angleDifference(float degrees, float otherDegrees) {
+        float difference = Math.abs(degrees - otherDegrees) % 360.0f;
+        return difference > 180.0f ? 360.0f - difference : difference;
+    }
+    
+    // The lattice headings, counterclockwise from the x axis (along a row,
+    // towards higher columns), as the steps to the next lattice point.
+    private static final int headingCount = 16;
+    private static final int[] headingRows = { 0, 1, 1, 2, 1, 2, 1, 1, 0, -1, -1, -2, -1, -2, -1, -1 };
+    private static final int[] headingCols = { 1, 2, 1, 1, 0, -1, -1, -2, -1, -2, -1, -1, 0, 1, 1, 2 };
+    
+    // The map, and the clearance paths keep from impassable areas, in cells.
+    private Map map;
+    private int distanceFromPoint;
+    // The robot's motion, and the time of each primitive.
+    private ExecutionTimeModel model;
+    private float[] driveTimes;
+    private float[][] turnTimes;
+    private float minimumTurnTime;
+    // Whether searches are guided by hCost().
+    private boolean heuristic = true;
+    // The cells each heading's forward drive passes through, as offsets.
+    private int[][] sweptRows;
+    private int[][] sweptCols;
+    // The heading the robot starts at, or -1 for any.
+    private int startHeading;
+    // The search state, reused between searches.
+    private PlannerWorkspace workspace;
+    // The state of the current search.
+    private TraversabilityLayer traversable;
+    private int rows;
+    private int cols;
+    private int goalRow;
+    private int goalCol;
+    // The time of the last path found.
+    private float pathTime;
+}
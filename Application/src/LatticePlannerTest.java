@@ -0,0 +1,112 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatticePlannerTest {
+    private ExecutionTimeModel model = new ExecutionTimeModel(0.1f, 90.0f, 500.0f, 0.5f);
+    
+    @Test
+    public void testTurnTime() {
+        assertEquals(0.0f, model.turnTime(0.0f), 0.0001f);
+        // Short turns never reach the top rate: 2 * sqrt(angle / acceleration).
+        assertEquals(2.0f * (float)Math.sqrt(5.0f / 500.0f), model.turnTime(5.0f), 0.0001f);
+        // Long turns ramp up and down at the top rate: angle / rate + rate / acceleration.
+        assertEquals(2.0f + 0.18f, model.turnTime(-180.0f), 0.0001f);
+        assertEquals(1.0f + 2.0f + 0.18f, model.segmentTime(180.0f), 0.0001f);
+    }
+    
+    @Test
+    public void testStraightAhead() {
+        Map map = new Map(0.02f, 120, 120);
+        LatticePlanner lattice = new LatticePlanner(map, model);
+        lattice.setStartHeading(0.0f);
+        int start = map.index(30, 10);
+        int goal = map.index(30, 100);
+        int[] path = lattice.searchPath(start, goal);
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, path);
+        assertEquals(91, path.length);
+        assertEquals(model.driveTime(90 * 0.02f), lattice.lastPathTime(), 0.001f);
+        
+        // Facing the other way, the robot turns around once.
+        lattice.setStartHeading(180.0f);
+        path = lattice.searchPath(start, goal);
+        assertEquals(model.segmentTime(180.0f) + model.driveTime(90 * 0.02f), lattice.lastPathTime(), 0.001f);
+    }
+    
+    @Test
+    public void testFewerTurnsThanShortestPath() {
+        Map map = new Map(0.02f, 120, 120);
+        LatticePlanner lattice = new LatticePlanner(map, model);
+        lattice.setStartHeading(0.0f);
+        // A goal off to the side: the eight-direction path turns twice, the lattice path
+        // drives a single knight's-move line.
+        int start = map.index(10, 10);
+        int goal = map.index(50, 90);
+        int[] path = lattice.searchPath(start, goal);
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, path);
+        assertEquals(2, new ThetaStar(map).waypoints(path).length);
+        assertEquals(model.segmentTime(26.565f) + model.driveTime((float)Math.hypot(40, 80) * 0.02f),
+                     lattice.lastPathTime(), 0.01f);
+    }
+    
+    @Test
+    public void testNoSlowerThanGridPaths() {
+        new PlannerTestSupport.Trials<LatticePlanner>(new Random(37), 70, 80, 25, 20) {
+            LatticePlanner create(Map map) {
+                return new LatticePlanner(map, model);
+            }
+        
+            void check(LatticePlanner lattice, Map map, int clearance, int start, int goal, int[] lowest) {
+                float heading = 45.0f * random.nextInt(8);
+                lattice.setStartHeading(heading);
+                int[] path = lattice.searchPath(start, goal);
+                assertEquals(lowest.length == 0, path.length == 0);
+                if (path.length == 0) return;
+                PlannerTestSupport.assertValidPath(map, clearance, start, goal, path);
+                // Every eight-direction path is a lattice path too.
+                assertTrue(lattice.lastPathTime() <= time(map, heading, lowest) + 0.001f);
+            }
+        }.run(10, 5);
+    }
+    
+    @Test
+    public void testHeuristicKeepsPathsOptimal() {
+        new PlannerTestSupport.Trials<LatticePlanner>(new Random(43), 40, 40, 10, 12) {
+            LatticePlanner create(Map map) {
+                return new LatticePlanner(map, model);
+            }
+        
+            void check(LatticePlanner lattice, Map map, int clearance, int start, int goal, int[] lowest) {
+                // Start at any of the lattice's headings; some are closer to each other than to 0 degrees.
+                lattice.setStartHeading(360.0f * random.nextFloat());
+                lattice.setHeuristic(false);
+                lattice.searchPath(start, goal);
+                float optimal = lattice.lastPathTime();
+                lattice.setHeuristic(true);
+                lattice.searchPath(start, goal);
+                assertEquals(optimal, lattice.lastPathTime(), 0.0001f);
+            }
+        }.run(20, 20);
+    }
+    
+    /**
+     * Get the time to carry out an eight-direction path, turning wherever it changes direction.
+     */
+    private float time(Map map, float heading, int[] path) {
+        float time = 0.0f;
+        for (int i = 1; i < path.length; i += 1) {
+            int dRow = map.rowOf(path[i]) - map.rowOf(path[i - 1]);
+            int dCol = map.colOf(path[i]) - map.colOf(path[i - 1]);
+            float direction = (float)Math.toDegrees(Math.atan2(dRow, dCol));
+            float turn = Math.abs(direction - heading) % 360.0f;
+            if (turn > 0.001f) {
+                time += model.segmentTime(turn > 180.0f ? 360.0f - turn : turn);
+            }
+            heading = direction;
+            time += model.driveTime((float)Math.hypot(dRow, dCol) * map.getGridSize());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Fixed-point log-odds arithmetic for Bayesian occupancy updates.
+ * A probability p is represented by its log-odds ln(p / (1 - p)) in units
+ * of 1/scale nats, as an integer clamped to [min, max]. Observations are
+ * integer additions, and conversions to and from probabilities are table
+ * lookups, so an update needs no floating point division or logarithm.
+ * Map layers keep storing probabilities; Map.observe() converts a cell's
+ * probability to log-odds, adds the observation and stores the result.
+ * @author jkortman
+ */
+public class LogOdds {
+    /**
+     * LogOdds only has static members.
+     */
+    private LogOdds() {}
+    
+    /**
+     * Get the probability represented by a log-odds value.
+     * @param logOdds the log-odds value; clamped to [min, max].
+     * @return        the probability.
+     */
+    public static float probability(int logOdds) {
+        return probabilities[clamp(logOdds) - min];
+    }
+    
+    /**
+     * Get the log-odds value closest to a probability.
+     * A probability of exactly 0.0 is how the map stores a property that has
+     * never been observed, so it is treated as the uninformed prior (0, p = 0.5).
+     * @param p the probability.
+     * @return  the log-odds value, min to max.
+     */
+    public static int fromProbability(float p) {
+        if (p == 0.0f) return 0;
+        // Binary search for the first entry >= p.
+        int low = 0;
+        int high = probabilities.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (probabilities[mid] < p) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        // Pick whichever neighbour is closer.
+        if (low > 0 && p - probabilities[low - 1] < probabilities[low] - p) {
+            low -= 1;
+        }
+        return low + min;
+    }
+    
+    /**
+     * Add an observation to a log-odds value.
+     * @param logOdds the current log-odds value.
+     * @param delta   the log-odds of the observation, e.g. hit or miss.
+     * @return        the updated log-odds value, clamped to [min, max].
+     */
+    public static int add(int logOdds, int delta) {
+        return clamp(logOdds + delta);
+    }
+    
+    /**
+     * Clamp a log-odds value to [min, max].
+     */
+    private static int clamp(int logOdds) {
+        if (logOdds < min) return min;
+        if (logOdds > max) return max;
+        return logOdds;
+    }
+    
+    // Log-odds values are in units of 1/scale nats.
+    public static final int scale = 32;
+    // Clamping keeps every cell able to change its mind after a few
+    // observations (p stays within about [0.02, 0.98]), and fits in a byte.
+    public static final int min = -127;
+    public static final int max = 127;
+    // The log-odds of an observation that a property is present (p = 0.7)
+    // and that it is absent (p = 0.4).
+    public static final int hit = 27;
+    public static final int miss = -13;
+    
+    // The probability of each log-odds value, from min to max.
+    private static final float[] probabilities = new float[max - min + 1];
+    static {
+        for (int i = 0; i < probabilities.length; i += 1) {
+            probabilities[i] = (float)(1.0 / (1.0 + Math.exp(-(double)(i + min) / scale)));
+        }
+    }
+}
@@ -1,11 +1,17 @@
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Stores processed sensor data received from the robot in a 2D map.
  * @author jkortman
  */
-public class Map {
+public class Map implements MapView {
     /**
      * Default map constructor is disallowed.
      */
@@ -19,12 +25,96 @@ public class Map {
      * @param cols           The number of columns in the map
      */
     public Map(float gridSizeMetres, int rows, int cols) {
+        this(gridSizeMetres, rows, cols, Storage.DENSE);
+    }
+    
+    /**
+     * Create a Map with a choice of storage for the property layers.
+     * QUANTIZED maps store each value in one byte, rounded to the nearest
+     * 1/254 (0.0, 0.5 and 1.0 are exact; see ByteProbabilityMatrix).
+     * TILED maps allocate their layers one tile at a time as they are written,
+     * and grow past their initial rows and columns (up to Settings.Map.maxRows
+     * and Settings.Map.maxCols) when set or trySet is given a metre-coordinate
+     * point outside of the map.
+     * @param gridSizeMetres The size of each grid element in metres
+     * @param rows           The initial number of rows in the map
+     * @param cols           The initial number of columns in the map
+     * @param storage        How the property layers are stored
+     */
+    public Map(float gridSizeMetres, int rows, int cols, Storage storage) {
+        this(gridSizeMetres, rows, cols, storage, false);
+    }
+    
+    /**
+     * Create a Map that may be updated from several threads at once.
+     * 
+     * Consistency model of a concurrent map:
+     * - Every single-cell operation (set, observe, adjust, trySet) is
+     *   linearizable: it takes the lock of the cell's tile, so concurrent
+     *   updates of a cell never lose each other's changes, and the cell's
+     *   layers and maximum-likelihood property always agree when unlocked.
+     * - Operations over several cells (setRow, Handler/NoGoZonesMarker loops)
+     *   are a sequence of single-cell operations. Other writers may interleave
+     *   with them, and readers of the live map may see them half done.
+     *   Wrap them in atomically() to make them appear as one step.
+     * - Published snapshots are taken with every tile lock held, so each
+     *   snapshot contains either all or none of an atomically() update.
+     * - Reads of the live map do not lock. A read sees a value written by a
+     *   completed update or an older one, never a torn value.
+     * - Writers only take their cell's tile lock. The cells they change are
+     *   queued, and the distance field, feature index, region counts,
+     *   traversability layers and change cursors catch up with them in one
+     *   batch, with every tile lock held, before the next query of those
+     *   indexes or the next published snapshot.
+     * Concurrent maps do not grow, even if TILED.
+     * @param gridSizeMetres The size of each grid element in metres
+     * @param rows           The number of rows in the map
+     * @param cols           The number of columns in the map
+     * @param storage        How the property layers are stored
+     * @param concurrent     Whether the map may be updated from several threads
+     */
+    public Map(float gridSizeMetres, int rows, int cols, Storage storage, boolean concurrent) {
         // The map is a stored as a grid of rows * cols. The map represents a
         // 2D coordinate system, with the centre of the map being (0.0, 0.0).
         // The Robot should be initialized at position (0.0, 0.0), facing along
         // the positive y-axis.
         this.gridSizeMetres = gridSizeMetres;
         this.roverLandingSite = new Point(0.0f, 0.0f);
+        if (storage == Storage.MAPPED) {
+            throw new IllegalArgumentException("MAPPED maps must be given a file");
+        }
+        this.storage = storage;
+        if (concurrent) {
+            this.stripes = new ReentrantLock[stripeCount];
+            for (int i = 0; i < stripeCount; i += 1) {
+                stripes[i] = new ReentrantLock();
+            }
+            this.indexLock = new ReentrantLock();
+            this.pending = new boolean[rows * cols];
+            this.pendingCells = new int[stripeCount][16];
+            this.pendingCounts = new int[stripeCount];
+        }
+        init(rows, cols);
+    }
+    
+    /**
+     * Create a Map whose property layers are stored in a memory-mapped file
+     * instead of on the heap (see MappedFloatMatrix for the file format).
+     * If the file already holds a map of the same size, its values are kept,
+     * so a restarted application resumes with the map it had before.
+     * Changes reach the file when the OS writes them back, or on flush().
+     * @param gridSizeMetres The size of each grid element in metres
+     * @param rows           The number of rows in the map
+     * @param cols           The number of columns in the map
+     * @param file           The file to store the layers in
+     * @throws IOException if the file cannot be mapped or holds a map of a different size
+     */
+    public Map(float gridSizeMetres, int rows, int cols, File file) throws IOException {
+        this.gridSizeMetres = gridSizeMetres;
+        this.roverLandingSite = new Point(0.0f, 0.0f);
+        this.storage = Storage.MAPPED;
+        // One matrix per property other than NONE, in ordinal order.
+        this.mappedLayers = MappedFloatMatrix.open(file, gridSizeMetres, rows, cols, properties.length - 1);
         init(rows, cols);
     }
     
@@ -43,16 +133,35 @@ public class Map {
         // Initialize the map colors.
         initColors();
         // Set up the matrix values.
-        explored = new Matrix<Boolean>(rows, cols);
-        explored.fill(false);
-        this.propertyMaps = new HashMap<Property, Matrix<Float>>();
+        // Layers are indexed by Property.ordinal(); the NONE slot stays null.
+        explored = new BooleanMatrix(rows, cols);
+        this.layers = new MapLayer[Property.values().length];
         for (Property prop : accessibleProperties) {
             if (prop == Property.NONE) continue;
-            Matrix<Float> map = new Matrix<Float>(rows, cols);
-            // Fill with 1.0 for no known property, 0.0 otherwise.
-            map.fill(0.0f);
-            propertyMaps.put(prop, map);
+            // Matrices start at 0.0 for every element (no known property).
+            if (storage == Storage.MAPPED) {
+                layers[prop.ordinal()] = mappedLayers[prop.ordinal() - 1];
+            } else if (storage == Storage.TILED) {
+                layers[prop.ordinal()] = new TiledFloatMatrix(rows, cols, 0.0f);
+            } else if (storage == Storage.QUANTIZED) {
+                layers[prop.ordinal()] = new ByteProbabilityMatrix(rows, cols);
+            } else {
+                layers[prop.ordinal()] = new FloatMatrix(rows, cols);
+            }
+        }
+        // Every cell starts with no property (NONE has ordinal 0).
+        dominant = new byte[rows * cols];
+        if (storage == Storage.MAPPED) {
+            // A reopened file already has values, so the raster must match them.
+            for (int i = 0; i < dominant.length; i += 1) {
+                dominant[i] = (byte)computeProperty(i).ordinal();
+            }
         }
+        rebuildDistanceField();
+        rebuildFeatureIndex();
+        // Publish an initial snapshot, so readers always have one.
+        snapshotChanges = newChangeCursor();
+        publishSnapshot();
     }
     
     /**
@@ -88,7 +197,81 @@ public class Map {
      * Check if a GridLocation is out of bounds.
      */
     public boolean isOutOfBounds(GridLocation loc) {
-        return (loc.col < 0 || loc.row < 0 || loc.row >= numRows || loc.col >= numCols);
+        return isOutOfBounds(loc.row, loc.col);
+    }
+    
+    /**
+     * Check if a row and column are out of bounds.
+     */
+    public boolean isOutOfBounds(int row, int col) {
+        return (col < 0 || row < 0 || row >= numRows || col >= numCols);
+    }
+    
+    /**
+     * Get the number of cells in the map grid.
+     * Valid cell indices are 0 to cellCount() - 1.
+     */
+    public int cellCount() {
+        return numRows * numCols;
+    }
+    
+    /**
+     * Get the packed cell index of a grid position.
+     * Cell indices are row-major (row * columns() + col) and let hot paths
+     * address the map without allocating GridLocations. The row and column
+     * are not bounds checked.
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return    the cell index
+     */
+    public int index(int row, int col) {
+        return row * numCols + col;
+    }
+    
+    /**
+     * Get the packed cell index of a grid location.
+     * @param loc the grid location, which must be within bounds
+     * @return    the cell index
+     */
+    public int index(GridLocation loc) {
+        return index(loc.row, loc.col);
+    }
+    
+    /**
+     * Get the row of a packed cell index.
+     */
+    public int rowOf(int index) {
+        return index / numCols;
+    }
+    
+    /**
+     * Get the column of a packed cell index.
+     */
+    public int colOf(int index) {
+        return index % numCols;
+    }
+    
+    /**
+     * Get the index of a neighbouring cell.
+     * Directions 0 to 3 are the straight neighbours (row - 1, row + 1,
+     * col - 1, col + 1), directions 4 to 7 are the diagonal neighbours.
+     * @param index     the cell index to start from
+     * @param direction the direction to step in, 0 to neighbourCount - 1
+     * @return          the index of the neighbour, or -1 if the neighbour
+     *                  is outside of the map
+     */
+    public int neighbour(int index, int direction) {
+        int row = rowOf(index) + neighbourRowOffsets[direction];
+        int col = colOf(index) + neighbourColOffsets[direction];
+        if (isOutOfBounds(row, col)) return -1;
+        return index(row, col);
+    }
+    
+    /**
+     * Check whether a neighbour direction is a diagonal step.
+     */
+    public static boolean isDiagonal(int direction) {
+        return direction >= 4;
     }
     
     /**
@@ -126,7 +309,44 @@ public class Map {
         if (isOutOfBounds(loc)) {
             throw new OutOfMapBoundsException();
         }
-        return propertyMaps.get(prop).get(loc.row, loc.col);
+        return layers[prop.ordinal()].get(loc.row, loc.col);
+    }
+    
+    /**
+     * Get the value of a property at some location using metre coordinates,
+     * without throwing when the bounds of the map are exceeded.
+     * @param   prop the property to read
+     * @param   pos  the metre-coordinate location to read from
+     * @return       the value at the given location for the given property,
+     *               or Float.NaN if the location is outside the map
+     */
+    public float tryGet(Property prop, Point pos) {
+        return tryGet(prop, pointRow(pos), pointCol(pos));
+    }
+    
+    /**
+     * Get the value of a property at a grid position, without throwing when
+     * the bounds of the map are exceeded.
+     * @param   prop the property to read
+     * @param   row  the row to read from
+     * @param   col  the column to read from
+     * @return       the value at the given location for the given property,
+     *               or Float.NaN if the location is outside the map
+     */
+    public float tryGet(Property prop, int row, int col) {
+        if (isOutOfBounds(row, col)) return Float.NaN;
+        return layers[prop.ordinal()].get(index(row, col));
+    }
+    
+    /**
+     * Get the value of a property at a packed cell index.
+     * The index is not bounds checked; use index() on an in-bounds location.
+     * @param   prop  the property to read
+     * @param   index the cell index to read from
+     * @return        the value at the given cell for the given property
+     */
+    public float get(Property prop, int index) {
+        return layers[prop.ordinal()].get(index);
     }
     
     /**
@@ -136,11 +356,40 @@ public class Map {
      *              likelihoods above 0.5.
      */
     public Map.Property getProperty(GridLocation loc) {
+        return getProperty(index(loc));
+    }
+    
+    /**
+     * Get the maximum-likelihood property at a packed cell index.
+     * @param  index the cell index to check
+     * @return       the most likely property, or NONE if no properties have
+     *               likelihoods above 0.5.
+     */
+    public Map.Property getProperty(int index) {
+        return properties[dominant[index]];
+    }
+    
+    /**
+     * Copy the maximum-likelihood property raster into an array.
+     * Element i of the copy is the ordinal of getProperty(i).
+     * @param dest   the array to copy into, with room for cellCount() values
+     * @param offset the position in dest of cell index 0
+     */
+    public void copyPropertyRaster(byte[] dest, int offset) {
+        System.arraycopy(dominant, 0, dest, offset, dominant.length);
+    }
+    
+    /**
+     * Evaluate the maximum-likelihood property of a cell from the layers.
+     * Called whenever a layer value of the cell changes, to keep the
+     * dominant property raster up to date.
+     */
+    private Map.Property computeProperty(int index) {
         final float threshold = 0.5f;
         Property maxProp = Property.NONE;
         float maxLikelihood = Float.MIN_VALUE;
         for (Property prop : accessibleProperties) {
-            float valueAt = propertyMaps.get(prop).get(loc.row, loc.col);
+            float valueAt = layers[prop.ordinal()].get(index);
             if (valueAt > threshold && valueAt > maxLikelihood) {
                 maxProp = prop;
                 maxLikelihood = valueAt;
@@ -163,14 +412,19 @@ public class Map {
     
     /**
      * Set the value of a property at a certain metre-coordinate point.
-     * Will throw OutOfMapBoundsException if the bounds of the map are exceeded.
+     * Will throw OutOfMapBoundsException if the bounds of the map are exceeded
+     * and cannot be grown to include the position.
      * @param prop  the property to set
      * @param pos   the position where to set the given property in metre coordinates
      * @param value the value to set the property to at position
      */
     public void set(Property prop, Point pos, float value) throws OutOfMapBoundsException {
-        GridLocation loc = getGridLocation(pos);
-        set(prop, loc, value);
+        if (!trySet(prop, pos, value)) {
+            if (prop == Property.NONE) {
+                throw new RuntimeException("set() does not allow use of Map.Property.NONE");
+            }
+            throw new OutOfMapBoundsException();
+        }
     }
     
     /**
@@ -187,7 +441,668 @@ public class Map {
         if (isOutOfBounds(loc)) {
             throw new OutOfMapBoundsException();
         }
-        propertyMaps.get(prop).set(loc.row, loc.col, value);
+        set(prop, index(loc), value);
+    }
+    
+    /**
+     * Set the value of a property at a certain metre-coordinate point,
+     * without throwing when the bounds of the map are exceeded.
+     * TILED maps grow to include pos if they can.
+     * @param prop  the property to set
+     * @param pos   the position where to set the given property in metre coordinates
+     * @param value the value to set the property to at position
+     * @return      true if the value was set, false if pos is outside the map
+     */
+    public boolean trySet(Property prop, Point pos, float value) {
+        if (prop == Property.NONE) return false;
+        int index = writableIndex(pos);
+        if (index < 0) return false;
+        set(prop, index, value);
+        return true;
+    }
+    
+    /**
+     * Get the cell index of a metre-coordinate point that is about to be
+     * written to, growing a TILED map to include it if necessary.
+     * @param pos the position in metre coordinates
+     * @return    the cell index, or -1 if pos is outside the map
+     */
+    private int writableIndex(Point pos) {
+        int row = pointRow(pos);
+        int col = pointCol(pos);
+        if (isOutOfBounds(row, col)) {
+            if (!growToInclude(row, col)) return -1;
+            row = pointRow(pos);
+            col = pointCol(pos);
+        }
+        return index(row, col);
+    }
+    
+    /**
+     * Update the probability of a property at a packed cell index with an
+     * observation, using fixed-point log-odds (see LogOdds).
+     * Unlike set(), repeated and conflicting observations accumulate, so a
+     * single spurious reading no longer decides a cell on its own.
+     * The cell is marked as explored.
+     * @param prop  the property that was observed
+     * @param index the cell index that was observed
+     * @param delta the log-odds of the observation, e.g. LogOdds.hit or LogOdds.miss
+     * @return      the new probability of the property at the cell
+     */
+    public float observe(Property prop, int index, int delta) {
+        ReentrantLock lock = stripe(index);
+        if (lock != null) lock.lock();
+        try {
+            int logOdds = LogOdds.add(LogOdds.fromProbability(get(prop, index)), delta);
+            set(prop, index, LogOdds.probability(logOdds));
+            if (!isExplored(index)) setExplored(index);
+            return get(prop, index);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Update the probability of a property at a metre-coordinate point with
+     * an observation. TILED maps grow to include pos if they can.
+     * @param prop  the property that was observed
+     * @param pos   the position that was observed in metre coordinates
+     * @param delta the log-odds of the observation, e.g. LogOdds.hit or LogOdds.miss
+     * @return      true if the observation was recorded, false if pos is outside the map
+     */
+    public boolean observe(Property prop, Point pos, int delta) {
+        if (prop == Property.NONE) return false;
+        int index = writableIndex(pos);
+        if (index < 0) return false;
+        observe(prop, index, delta);
+        return true;
+    }
+    
+    /**
+     * Update a property along a sensor ray. Every cell the ray passes through
+     * before reaching its end is observed not to have the property
+     * (LogOdds.miss); the cell at the end is observed to have it (LogOdds.hit)
+     * if hit is true. Parts of the ray outside of the map are ignored.
+     * @param prop the property that was observed
+     * @param from the start of the ray (e.g. the sensor) in metre coordinates
+     * @param to   the end of the ray in metre coordinates
+     * @param hit  whether the property was detected at the end of the ray
+     * @return     true if the end of the ray is inside the map
+     */
+    public boolean observeRay(Property prop, Point from, Point to, boolean hit) {
+        // Observe the end first, as it may grow the map.
+        boolean inside = hit ? observe(prop, to, LogOdds.hit)
+                             : !isOutOfBounds(pointRow(to), pointCol(to));
+        int row = pointRow(from);
+        int col = pointCol(from);
+        int endRow = pointRow(to);
+        int endCol = pointCol(to);
+        // Walk the cells between the two ends (Bresenham).
+        int dRow = Math.abs(endRow - row);
+        int dCol = Math.abs(endCol - col);
+        int stepRow = row < endRow ? 1 : -1;
+        int stepCol = col < endCol ? 1 : -1;
+        int err = dCol - dRow;
+        while (row != endRow || col != endCol) {
+            if (!isOutOfBounds(row, col)) {
+                observe(prop, index(row, col), LogOdds.miss);
+            }
+            int err2 = 2 * err;
+            if (err2 > -dRow) {
+                err -= dRow;
+                col += stepCol;
+            }
+            if (err2 < dCol) {
+                err += dCol;
+                row += stepRow;
+            }
+        }
+        return inside;
+    }
+    
+    /**
+     * Grow a TILED map so that it includes a grid position.
+     * The map grows by whole tiles, so existing tiles are kept as they are.
+     * Growing above or left of the map moves the origin and every existing
+     * cell to a new row/column and cell index; geometryVersion() is bumped
+     * and every change cursor is reset to report the whole map as changed.
+     * @param row the row to include, relative to the current map
+     * @param col the column to include, relative to the current map
+     * @return    true if the map now includes the position
+     */
+    private synchronized boolean growToInclude(int row, int col) {
+        if (storage != Storage.TILED || stripes != null) return false;
+        int rowTiles = row < 0 ? (-row + tileSize - 1) >> tileShift : 0;
+        int colTiles = col < 0 ? (-col + tileSize - 1) >> tileShift : 0;
+        int rowShift = rowTiles << tileShift;
+        int colShift = colTiles << tileShift;
+        int rows = rowShift + (row < numRows ? numRows : ((row >> tileShift) + 1) << tileShift);
+        int cols = colShift + (col < numCols ? numCols : ((col >> tileShift) + 1) << tileShift);
+        if (rows > Settings.Map.maxRows || cols > Settings.Map.maxCols) return false;
+        
+        for (Property prop : accessibleProperties) {
+            int i = prop.ordinal();
+            layers[i] = ((TiledFloatMatrix)layers[i]).grow(rowTiles, colTiles, rows, cols);
+        }
+        explored = explored.grow(rowShift, colShift, rows, cols);
+        byte[] grownDominant = new byte[rows * cols];
+        for (int r = 0; r < numRows; r += 1) {
+            System.arraycopy(dominant, r * numCols, grownDominant, (r + rowShift) * cols + colShift, numCols);
+        }
+        dominant = grownDominant;
+        numRows = rows;
+        numCols = cols;
+        originLocation = new GridLocation(originLocation.row + rowShift, originLocation.col + colShift);
+        topLeftX -= colShift * gridSizeMetres;
+        topLeftY -= rowShift * gridSizeMetres;
+        rebuildDistanceField();
+        rebuildFeatureIndex();
+        regionCounts = new Fenwick2D[blockedRegion + 1];
+        traversabilityLayers = new TraversabilityLayer[0];
+        
+        for (ChangeCursor cursor : changeCursors) {
+            cursor.resize(cellCount(), tileCount());
+        }
+        geometryVersion += 1;
+        version.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Get the geometry version of the map. The geometry version increases
+     * every time the map grows, which changes rows(), columns(), origin(),
+     * topLeft() and the cell index of every existing cell. Consumers holding
+     * cell indices or per-cell arrays should rebuild them when it changes.
+     */
+    public long geometryVersion() {
+        return geometryVersion;
+    }
+    
+    /**
+     * Write any pending changes of a MAPPED map out to its file.
+     * Does nothing for other maps.
+     */
+    public void flush() {
+        if (storage != Storage.MAPPED) return;
+        for (MappedFloatMatrix layer : mappedLayers) {
+            layer.force();
+        }
+    }
+    
+    /**
+     * Get how the property layers of the map are stored.
+     */
+    public Storage storage() {
+        return storage;
+    }
+    
+    /**
+     * Set the value of a property at a grid position, without throwing when
+     * the bounds of the map are exceeded.
+     * @param prop  the property to set
+     * @param row   the row where to set the given property
+     * @param col   the column where to set the given property
+     * @param value the value to set the property to at position
+     * @return      true if the value was set, false if the position is outside the map
+     */
+    public boolean trySet(Property prop, int row, int col, float value) {
+        if (isOutOfBounds(row, col)) return false;
+        set(prop, index(row, col), value);
+        return true;
+    }
+    
+    /**
+     * Copy one row of a property into an array.
+     * @param prop   the property to read
+     * @param row    the row to read
+     * @param dest   the array to copy into, with room for columns() values
+     * @param offset the position in dest of the first column
+     * @throws IllegalArgumentException if the row is outside the map
+     */
+    public void getRow(Property prop, int row, float[] dest, int offset) {
+        copyRegion(prop, row, 0, 1, numCols, dest, offset);
+    }
+    
+    /**
+     * Overwrite one row of a property from an array.
+     * @param prop   the property to set
+     * @param row    the row to write
+     * @param src    the array holding columns() values to write
+     * @param offset the position in src of the first column
+     * @throws IllegalArgumentException if the row is outside the map
+     */
+    public void setRow(Property prop, int row, float[] src, int offset) {
+        if (prop == Property.NONE) {
+            throw new RuntimeException("setRow() does not allow use of Map.Property.NONE");
+        }
+        checkRegion(row, 0, 1, numCols);
+        int rowStart = index(row, 0);
+        for (int col = 0; col < numCols; col += 1) {
+            set(prop, rowStart + col, src[offset + col]);
+        }
+    }
+    
+    /**
+     * Copy a rectangular region of a property into an array, row by row.
+     * @param prop   the property to read
+     * @param row    the first row of the region
+     * @param col    the first column of the region
+     * @param height the number of rows in the region
+     * @param width  the number of columns in the region
+     * @param dest   the array to copy into, with room for height * width values
+     * @param offset the position in dest of the first copied value
+     * @throws IllegalArgumentException if the region is not inside the map
+     */
+    public void copyRegion(Property prop, int row, int col, int height, int width, float[] dest, int offset) {
+        if (prop == Property.NONE) {
+            throw new RuntimeException("copyRegion() does not allow use of Map.Property.NONE");
+        }
+        checkRegion(row, col, height, width);
+        layers[prop.ordinal()].copyRegion(row, col, height, width, dest, offset);
+    }
+    
+    /**
+     * Check that a rectangular region lies inside the map.
+     * @throws IllegalArgumentException if it does not
+     */
+    private void checkRegion(int row, int col, int height, int width) {
+        if (height < 0 || width < 0 || isOutOfBounds(row, col)
+                || row + height > numRows || col + width > numCols) {
+            throw new IllegalArgumentException(String.format(
+                    "Region (%d, %d) %dx%d is not inside the map", row, col, height, width));
+        }
+    }
+    
+    /**
+     * Set the value of a property at a packed cell index.
+     * The index is not bounds checked; use index() on an in-bounds location.
+     * @param prop  the property to set
+     * @param index the cell index where to set the given property
+     * @param value the value to set the property to at the cell
+     */
+    public void set(Property prop, int index, float value) {
+        ReentrantLock lock = stripe(index);
+        if (lock != null) lock.lock();
+        try {
+            MapLayer layer = layers[prop.ordinal()];
+            // Compare after storing, as quantized layers may round the value.
+            float previous = layer.get(index);
+            layer.set(index, value);
+            if (layer.get(index) == previous) return;
+            dominant[index] = (byte)computeProperty(index).ordinal();
+            if (lock != null) {
+                // The derived indexes are brought up to date in batches (see syncIndexes()).
+                version.incrementAndGet();
+                defer(index);
+                return;
+            }
+            boolean present = layer.get(index) > 0.5f;
+            if ((previous > 0.5f) != present) {
+                featureIndex.set(prop.ordinal(), index, present);
+                regionChanged(prop.ordinal(), index, present);
+            }
+            if (isBlockingProperty(prop)) {
+                boolean blocked = isBlocked(index);
+                if (blocked != distanceField.isBlocked(index)) {
+                    distanceField.setBlocked(index, blocked);
+                    regionChanged(blockedRegion, index, blocked);
+                    for (TraversabilityLayer traversable : traversabilityLayers) {
+                        traversable.setBlocked(index, blocked);
+                    }
+                }
+            }
+            cellChanged(index);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Add to the value of a property at a packed cell index, saturating at
+     * 0.0 and 1.0.
+     * @param prop  the property to change
+     * @param index the cell index where to change the given property
+     * @param delta the amount to add to the value; may be negative
+     * @return      the new value of the property at the cell
+     */
+    public float adjust(Property prop, int index, float delta) {
+        ReentrantLock lock = stripe(index);
+        if (lock != null) lock.lock();
+        try {
+            float value = get(prop, index) + delta;
+            set(prop, index, Math.max(0.0f, Math.min(1.0f, value)));
+            return get(prop, index);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Run a multi-cell update as one step. For a concurrent map, every tile
+     * lock is held while the update runs, so no other update interleaves
+     * with it and snapshots contain all or none of it. Other maps simply run
+     * the update. Updates should be short, as they block all other writers.
+     * @param update the update to run
+     */
+    public void atomically(Runnable update) {
+        if (stripes == null) {
+            update.run();
+            return;
+        }
+        lockAll();
+        try {
+            update.run();
+        } finally {
+            unlockAll();
+        }
+    }
+    
+    /**
+     * Check whether the map may be updated from several threads at once.
+     */
+    public boolean isConcurrent() {
+        return stripes != null;
+    }
+    
+    /**
+     * Get the lock guarding a cell, or null if the map is not concurrent.
+     * Cells in the same tile share a lock; tiles share stripeCount locks.
+     */
+    private ReentrantLock stripe(int index) {
+        if (stripes == null) return null;
+        return stripes[tileOf(index) & (stripeCount - 1)];
+    }
+    
+    /**
+     * Take every stripe lock, always in the same order.
+     */
+    private void lockAll() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+    }
+    
+    /**
+     * Release every stripe lock.
+     */
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i -= 1) {
+            stripes[i].unlock();
+        }
+    }
+    
+    /**
+     * Queue a changed cell of a concurrent map for syncIndexes(), unless it
+     * is queued already. The stripe lock of the cell must be held.
+     */
+    private void defer(int index) {
+        if (pending[index]) return;
+        pending[index] = true;
+        int stripe = tileOf(index) & (stripeCount - 1);
+        int[] cells = pendingCells[stripe];
+        if (pendingCounts[stripe] == cells.length) {
+            cells = pendingCells[stripe] = Arrays.copyOf(cells, 2 * cells.length);
+        }
+        cells[pendingCounts[stripe]] = index;
+        pendingCounts[stripe] += 1;
+        hasPending = true;
+    }
+    
+    /**
+     * Bring the distance field, feature index, region counts, traversability
+     * layers and change cursors of a concurrent map up to date with the cells
+     * changed since the last sync. The changes are applied in one batch with
+     * every stripe lock held, so writers only take their cell's stripe lock.
+     * Other maps keep them up to date in set(), so this does nothing.
+     */
+    private void syncIndexes() {
+        if (!hasPending) return;
+        lockAll();
+        try {
+            syncIndexesLocked();
+        } finally {
+            unlockAll();
+        }
+    }
+    
+    /**
+     * Bring the derived indexes up to date (see syncIndexes()), with every
+     * stripe lock held.
+     */
+    private void syncIndexesLocked() {
+        if (!hasPending) return;
+        hasPending = false;
+        indexLock.lock();
+        try {
+            for (int stripe = 0; stripe < stripeCount; stripe += 1) {
+                int[] cells = pendingCells[stripe];
+                for (int i = 0; i < pendingCounts[stripe]; i += 1) {
+                    pending[cells[i]] = false;
+                    updateIndexes(cells[i]);
+                    markChanged(cells[i]);
+                }
+                pendingCounts[stripe] = 0;
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+    
+    /**
+     * Update the derived indexes of a concurrent map for a changed cell,
+     * comparing them with the cell's layers, as a queued cell may have
+     * changed any number of times since it was queued.
+     */
+    private void updateIndexes(int index) {
+        for (Property prop : accessibleProperties) {
+            boolean present = layers[prop.ordinal()].get(index) > 0.5f;
+            if (featureIndex.contains(prop.ordinal(), index) != present) {
+                featureIndex.set(prop.ordinal(), index, present);
+                regionChanged(prop.ordinal(), index, present);
+            }
+        }
+        boolean unexplored = !isExplored(index);
+        if (featureIndex.contains(unexploredFeature, index) != unexplored) {
+            featureIndex.set(unexploredFeature, index, unexplored);
+        }
+        boolean blocked = isBlocked(index);
+        if (blocked != distanceField.isBlocked(index)) {
+            distanceField.setBlocked(index, blocked);
+            regionChanged(blockedRegion, index, blocked);
+            for (TraversabilityLayer traversable : traversabilityLayers) {
+                traversable.setBlocked(index, blocked);
+            }
+        }
+    }
+    
+    /**
+     * Take the lock of the derived indexes for a query, after bringing them
+     * up to date. Queries write to the indexes (e.g. the distance field
+     * propagates pending changes), so they must not run concurrently.
+     * @return the lock to release, or null if the map is not concurrent
+     */
+    private ReentrantLock lockIndexes() {
+        if (stripes == null) return null;
+        syncIndexes();
+        indexLock.lock();
+        return indexLock;
+    }
+    
+    /**
+     * Record that a cell has changed: bump the map version and notify every
+     * registered change cursor.
+     */
+    private void cellChanged(int index) {
+        version.incrementAndGet();
+        markChanged(index);
+    }
+    
+    /**
+     * Mark a changed cell in every registered change cursor.
+     */
+    private void markChanged(int index) {
+        ChangeCursor[] cursors = changeCursors;
+        if (cursors.length == 0) return;
+        int tile = tileOf(index);
+        for (ChangeCursor cursor : cursors) {
+            cursor.mark(index, tile);
+        }
+    }
+    
+    /**
+     * Get the map version. The version increases by at least one every time
+     * a cell value changes, so consumers can cheaply tell whether anything
+     * has changed since they last looked.
+     */
+    public long version() {
+        return version.get();
+    }
+    
+    /**
+     * Create a change cursor that records every cell changed from now on.
+     * The new cursor initially reports every cell as changed. Cursors should
+     * be released with releaseChangeCursor() when no longer needed.
+     * The changes to a concurrent map reach its cursors in batches, when the
+     * map's derived indexes are brought up to date (see the constructor).
+     */
+    public synchronized ChangeCursor newChangeCursor() {
+        ChangeCursor cursor = new ChangeCursor(cellCount(), tileCount(), stripes != null);
+        ChangeCursor[] cursors = Arrays.copyOf(changeCursors, changeCursors.length + 1);
+        cursors[cursors.length - 1] = cursor;
+        changeCursors = cursors;
+        return cursor;
+    }
+    
+    /**
+     * Stop recording changes into a change cursor.
+     */
+    public synchronized void releaseChangeCursor(ChangeCursor cursor) {
+        ArrayList<ChangeCursor> cursors = new ArrayList<>(Arrays.asList(changeCursors));
+        cursors.remove(cursor);
+        changeCursors = cursors.toArray(new ChangeCursor[cursors.size()]);
+    }
+    
+    /**
+     * Publish a snapshot of the map as it is now, for readers on other threads
+     * (see MapSnapshot). Only the tiles changed since the previous snapshot
+     * are copied. Must be called from the thread that updates the map, at a
+     * point where the map is consistent (e.g. at the end of Handler.step()).
+     * @return the new snapshot, which snapshot() returns until the next publish
+     */
+    public MapSnapshot publishSnapshot() {
+        if (stripes == null) return publishSnapshotUnlocked();
+        lockAll();
+        try {
+            syncIndexesLocked();
+            return publishSnapshotUnlocked();
+        } finally {
+            unlockAll();
+        }
+    }
+    
+    /**
+     * Publish a snapshot, without taking any locks.
+     */
+    private MapSnapshot publishSnapshotUnlocked() {
+        MapSnapshot previous = snapshot;
+        snapshotChanges.drain(null, snapshotTiles);
+        // Tiles can only be shared if the map has not grown since.
+        boolean share = previous != null && previous.geometryVersion() == geometryVersion;
+        float[][][] layerTiles;
+        byte[][] dominantTiles;
+        if (share && snapshotTiles.isEmpty()) {
+            layerTiles = previous.layerTiles;
+            dominantTiles = previous.dominantTiles;
+        } else {
+            int tileCount = tileCount();
+            if (!share) snapshotTiles.set(0, tileCount);
+            layerTiles = new float[properties.length][][];
+            for (Property prop : accessibleProperties) {
+                int i = prop.ordinal();
+                layerTiles[i] = share ? previous.layerTiles[i].clone() : new float[tileCount][];
+            }
+            dominantTiles = share ? previous.dominantTiles.clone() : new byte[tileCount][];
+            for (int tile = snapshotTiles.nextSetBit(0); tile >= 0; tile = snapshotTiles.nextSetBit(tile + 1)) {
+                copyTile(tile, layerTiles, dominantTiles);
+            }
+        }
+        MapSnapshot next = new MapSnapshot(storage, gridSizeMetres, numRows, numCols, topLeftX, topLeftY,
+                                           new GridLocation(originLocation.row, originLocation.col),
+                                           roverLandingSite, new HashMap<>(propColors), outOfBoundsColor,
+                                           version.get(), geometryVersion, layerTiles, dominantTiles);
+        snapshot = next;
+        return next;
+    }
+    
+    /**
+     * Get the most recently published snapshot of the map.
+     * Never blocks, and is safe to call from any thread.
+     */
+    public MapSnapshot snapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Copy one tile of the layers and the property raster into new snapshot
+     * tiles. Layer tiles that are entirely 0.0 are left null.
+     */
+    private void copyTile(int tile, float[][][] layerTiles, byte[][] dominantTiles) {
+        int rowStart = (tile / tileColumns()) << tileShift;
+        int colStart = (tile % tileColumns()) << tileShift;
+        int height = Math.min(tileSize, numRows - rowStart);
+        int width = Math.min(tileSize, numCols - colStart);
+        byte[] dominantTile = new byte[tileSize * tileSize];
+        for (int i = 0; i < height; i += 1) {
+            System.arraycopy(dominant, index(rowStart + i, colStart), dominantTile, i << tileShift, width);
+        }
+        dominantTiles[tile] = dominantTile;
+        for (Property prop : accessibleProperties) {
+            MapLayer layer = layers[prop.ordinal()];
+            // Clear the parts of edge tiles that lie outside of the map.
+            if (height < tileSize || width < tileSize) Arrays.fill(tileScratch, 0.0f);
+            for (int i = 0; i < height; i += 1) {
+                layer.copyRegion(rowStart + i, colStart, 1, width, tileScratch, i << tileShift);
+            }
+            boolean empty = true;
+            for (float value : tileScratch) {
+                if (value != 0.0f) {
+                    empty = false;
+                    break;
+                }
+            }
+            layerTiles[prop.ordinal()][tile] = empty ? null : tileScratch.clone();
+        }
+    }
+    
+    /**
+     * Get the number of tile rows. Tiles are tileSize * tileSize cells; the
+     * last tile row may be partially outside of the map.
+     */
+    public int tileRows() {
+        return (numRows + tileSize - 1) >> tileShift;
+    }
+    
+    /**
+     * Get the number of tile columns.
+     */
+    public int tileColumns() {
+        return (numCols + tileSize - 1) >> tileShift;
+    }
+    
+    /**
+     * Get the number of tiles covering the map.
+     */
+    public int tileCount() {
+        return tileRows() * tileColumns();
+    }
+    
+    /**
+     * Get the tile containing a cell. Tiles are numbered row-major.
+     * @param index the cell index
+     * @return      the tile index
+     */
+    public int tileOf(int index) {
+        return (rowOf(index) >> tileShift) * tileColumns() + (colOf(index) >> tileShift);
     }
     
     /**
@@ -201,7 +1116,7 @@ public class Map {
         System.out.printf("Map[%s]%n", prop.name());
         for (int i = 0; i < numRows; i += 1) {
             for (int j = 0; j < numCols; j += 1) {
-                System.out.printf("%.2f ", propertyMaps.get(prop).get(i, j));
+                System.out.printf("%.2f ", layers[prop.ordinal()].get(i, j));
             }
             System.out.printf("%n");
         }
@@ -250,7 +1165,7 @@ public class Map {
                 } else if (colorSensorLocation != null && i == colorSensorLocation.row && j == colorSensorLocation.col) {
                     System.out.printf("()");
                 } else {
-                    Property prop = getProperty(new GridLocation(i, j));
+                    Property prop = getProperty(index(i, j));
                     String s = propToStr.get(prop);
                     if (s == null) throw new RuntimeException("String for proprerty " + prop.name() + " not set");
                     System.out.printf("%s", s);
@@ -279,14 +1194,29 @@ public class Map {
      * @return      the grid location that is assigned to point p.
      */
     public GridLocation getGridLocation(Point p) {
-        int row = (int)((p.yMetres - topLeftY) / gridSizeMetres);
-        int col = (int)((p.xMetres - topLeftX) / gridSizeMetres);
+        int row = pointRow(p);
+        int col = pointCol(p);
         if (row < 0 || col < 0 || row >= numRows || col >= numCols) {
             return GridLocation.makeOutOfBoundsLocation();
         }
         return new GridLocation(row, col);
     }
     
+    /**
+     * Get the grid row a point falls in. May be outside of the map.
+     * Rounds down, so points just above the top edge fall in row -1 rather than 0.
+     */
+    private int pointRow(Point p) {
+        return (int)Math.floor((p.yMetres - topLeftY) / gridSizeMetres);
+    }
+    
+    /**
+     * Get the grid column a point falls in. May be outside of the map.
+     */
+    private int pointCol(Point p) {
+        return (int)Math.floor((p.xMetres - topLeftX) / gridSizeMetres);
+    }
+    
     /**
      * Get the centre point of a location in the grid in metre coordinates.
      * @param   loc a location in the grid.
@@ -294,43 +1224,360 @@ public class Map {
      */
     public Point getCentrePoint(GridLocation loc) throws OutOfMapBoundsException {
         if (isOutOfBounds(loc)) throw new OutOfMapBoundsException();
-        float xMetres = ((float)loc.col + 0.5f) * gridSizeMetres + topLeftX;
-        float yMetres = ((float)loc.row + 0.5f) * gridSizeMetres + topLeftY;
-        return new Point(xMetres, yMetres);
-    }
-    
-    /**
-     * Get the distance to the nearest obstacle to point p (metres).
-     * Returns Float.MAX_VALUE if it can't find an obstacle.
-     */
-    public float distanceToNearestObstacle(Point p, float maxAllowable) {
-        float currentMinSquareDist = Float.MAX_VALUE;
-        maxAllowable = (float)Math.pow(maxAllowable, 2.0);
-        // Iterate over every grid position.
-        // this is pretty inefficient, we can improve it if necessary.
-        for (int row = 0; row < numRows; row += 1) {
-            for (int col = 0; col < numCols; col += 1) {
-                try {
-                    GridLocation loc = new GridLocation(row, col);
-                    // Skip if we don't see an obstacle.
-                    if (get(Property.OBSTACLE, loc) < 0.5f) continue;
-                    Point obstacle = getCentrePoint(loc);
-                    float dsq = (float)Math.pow(obstacle.xMetres - p.xMetres, 2.0)
-                              + (float)Math.pow(obstacle.yMetres - p.yMetres, 2.0);
-                    if (dsq < currentMinSquareDist) {
-                        currentMinSquareDist = dsq;
+        return new Point(centreX(loc.col), centreY(loc.row));
+    }
+    
+    /**
+     * Get the centre point of a packed cell index in metre coordinates.
+     * @param   index a cell index in the grid.
+     * @return        the centre of the cell.
+     */
+    public Point getCentrePoint(int index) {
+        return new Point(centreX(colOf(index)), centreY(rowOf(index)));
+    }
+    
+    /**
+     * Get the x-coordinate of the centre of a grid column, in metres.
+     */
+    private float centreX(int col) {
+        return ((float)col + 0.5f) * gridSizeMetres + topLeftX;
+    }
+    
+    /**
+     * Get the y-coordinate of the centre of a grid row, in metres.
+     */
+    private float centreY(int row) {
+        return ((float)row + 0.5f) * gridSizeMetres + topLeftY;
+    }
+    
+    /**
+     * Get the distance from point p to the nearest blocked cell (metres):
+     * the nearest cell with an OBSTACLE, CRATER or NO_GO_ZONE above 0.5.
+     * The nearest cell is looked up in a distance field that is kept up to
+     * date as cells change, so this is O(1). Points outside the map use the
+     * nearest cell to the closest in-bounds cell.
+     * Returns Float.MAX_VALUE if no cell is blocked.
+     * @param p the point to measure from
+     */
+    public float distanceToNearestObstacle(Point p) {
+        int row = Math.max(0, Math.min(numRows - 1, pointRow(p)));
+        int col = Math.max(0, Math.min(numCols - 1, pointCol(p)));
+        int nearest = nearestObstacle(index(row, col));
+        if (nearest < 0) return Float.MAX_VALUE;
+        float dx = centreX(colOf(nearest)) - p.xMetres;
+        float dy = centreY(rowOf(nearest)) - p.yMetres;
+        return (float)Math.sqrt(dx * dx + dy * dy);
+    }
+    
+    /**
+     * Get the distance between the centres of a cell and the nearest blocked
+     * cell (metres). O(1); see distanceToNearestObstacle().
+     * @param index the cell index
+     * @return      the distance, or Float.MAX_VALUE if no cell is blocked
+     */
+    public float distanceToNearestObstacle(int index) {
+        int distanceSquared;
+        ReentrantLock lock = lockIndexes();
+        try {
+            distanceSquared = distanceField.distanceSquared(index);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+        if (distanceSquared == Integer.MAX_VALUE) return Float.MAX_VALUE;
+        return (float)Math.sqrt(distanceSquared) * gridSizeMetres;
+    }
+    
+    /**
+     * Get the nearest blocked cell to a cell.
+     * @param index the cell index
+     * @return      the index of the nearest blocked cell, or -1 if no cell is blocked
+     */
+    public int nearestObstacle(int index) {
+        ReentrantLock lock = lockIndexes();
+        try {
+        return distanceField.nearest(index);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Check whether a cell is blocked: some blocking property (OBSTACLE,
+     * CRATER, NO_GO_ZONE) is more likely than not.
+     * @param index the cell index
+     */
+    public boolean isBlocked(int index) {
+        for (Property prop : blockingProperties) {
+            if (layers[prop.ordinal()].get(index) > 0.5f) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Check whether a property is one of the blocking properties.
+     */
+    private static boolean isBlockingProperty(Property prop) {
+        return prop == Property.OBSTACLE || prop == Property.CRATER || prop == Property.NO_GO_ZONE;
+    }
+    
+    /**
+     * Build the distance field from scratch, for a new or resized map.
+     */
+    private void rebuildDistanceField() {
+        distanceField = new DistanceField(numRows, numCols);
+        for (int index = 0; index < cellCount(); index += 1) {
+            if (isBlocked(index)) distanceField.setBlocked(index, true);
+        }
+    }
+    
+    /**
+     * Build the feature index from scratch, for a new or resized map.
+     */
+    private void rebuildFeatureIndex() {
+        featureIndex = new FeatureIndex(numRows, numCols, unexploredFeature + 1);
+        for (Property prop : accessibleProperties) {
+            MapLayer layer = layers[prop.ordinal()];
+            for (int index = 0; index < cellCount(); index += 1) {
+                if (layer.get(index) > 0.5f) featureIndex.set(prop.ordinal(), index, true);
+            }
+        }
+        featureIndex.fill(unexploredFeature);
+        for (int index = 0; index < cellCount(); index += 1) {
+            if (isExplored(index)) featureIndex.set(unexploredFeature, index, false);
+        }
+    }
+    
+    /**
+     * Get the nearest cell to a cell where a property is more likely than not.
+     * Uses an index kept up to date by set(), so no grid scan is needed.
+     * @param prop  the property to find
+     * @param index the cell index to search from
+     * @return      the index of the nearest cell with the property, or -1 if there are none
+     */
+    public int nearest(Property prop, int index) {
+        ReentrantLock lock = lockIndexes();
+        try {
+        return featureIndex.nearest(prop.ordinal(), index);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Get the k nearest cells to a cell where a property is more likely
+     * than not, nearest first.
+     * @param prop  the property to find
+     * @param index the cell index to search from
+     * @param k     the number of cells to find
+     * @return      the indices of up to k cells
+     */
+    public int[] nearest(Property prop, int index, int k) {
+        ReentrantLock lock = lockIndexes();
+        try {
+        return featureIndex.nearest(prop.ordinal(), index, k);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Get every cell within a radius of a cell where a property is more
+     * likely than not, nearest first. Distances are between cell centres.
+     * @param prop         the property to find
+     * @param index        the cell index to search from
+     * @param radiusMetres the radius to search, in metres
+     * @return             the indices of the cells
+     */
+    public int[] withinRadius(Property prop, int index, float radiusMetres) {
+        ReentrantLock lock = lockIndexes();
+        try {
+        return featureIndex.withinRadius(prop.ordinal(), index, radiusMetres / gridSizeMetres);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Count the cells in a rectangle where a property is more likely than not.
+     * Counts are kept in a 2D Fenwick tree per property, built on first use
+     * and then kept up to date by set(), so this is O(log rows * log cols).
+     * The rectangle is clipped to the map.
+     * @param prop   the property to count
+     * @param row    the first row of the rectangle
+     * @param col    the first column of the rectangle
+     * @param height the number of rows in the rectangle
+     * @param width  the number of columns in the rectangle
+     * @return       the number of cells with the property
+     */
+    public int count(Property prop, int row, int col, int height, int width) {
+        return countRegion(prop.ordinal(), row, col, height, width);
+    }
+    
+    /**
+     * Count the blocked cells in a rectangle (see isBlocked()), in
+     * O(log rows * log cols). The rectangle is clipped to the map.
+     * @param row    the first row of the rectangle
+     * @param col    the first column of the rectangle
+     * @param height the number of rows in the rectangle
+     * @param width  the number of columns in the rectangle
+     * @return       the number of blocked cells
+     */
+    public int countBlocked(int row, int col, int height, int width) {
+        return countRegion(blockedRegion, row, col, height, width);
+    }
+    
+    /**
+     * Count the cells of a rectangle, clipped to the map, in a region count tree.
+     */
+    private int countRegion(int region, int row, int col, int height, int width) {
+        int firstRow = Math.max(row, 0);
+        int firstCol = Math.max(col, 0);
+        int lastRow = Math.min(row + height, numRows);
+        int lastCol = Math.min(col + width, numCols);
+        if (firstRow >= lastRow || firstCol >= lastCol) return 0;
+        ReentrantLock lock = lockIndexes();
+        try {
+        return regionCounts(region).sum(firstRow, firstCol, lastRow - firstRow, lastCol - firstCol);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Get the count tree of a region kind, building it if this is its first use.
+     * @param region a property ordinal, or blockedRegion
+     */
+    private Fenwick2D regionCounts(int region) {
+        Fenwick2D counts = regionCounts[region];
+        if (counts != null) return counts;
+        // Build with every stripe held, so no concurrent write is missed.
+        if (stripes != null) lockAll();
+        try {
+            if (stripes != null) syncIndexesLocked();
+            synchronized (this) {
+                if (regionCounts[region] == null) {
+                    int[] cells = new int[cellCount()];
+                    for (int index = 0; index < cells.length; index += 1) {
+                        boolean present = region == blockedRegion ? isBlocked(index)
+                                                                  : layers[region].get(index) > 0.5f;
+                        cells[index] = present ? 1 : 0;
                     }
-                    if (currentMinSquareDist < maxAllowable) return currentMinSquareDist;
-                } catch (Map.OutOfMapBoundsException e) {
-                    throw new RuntimeException("distanceToNearestObstacle() is bugged, hits out of bound region");
+                    // Publish a new array, so readers see the tree fully built.
+                    Fenwick2D[] built = regionCounts.clone();
+                    built[region] = new Fenwick2D(numRows, numCols, cells);
+                    regionCounts = built;
                 }
+                return regionCounts[region];
             }
+        } finally {
+            if (stripes != null) unlockAll();
         }
-        return (float)Math.sqrt(currentMinSquareDist);
     }
     
-    public float distanceToNearestObstacle(Point p) {
-        return distanceToNearestObstacle(p, 0.0f);
+    /**
+     * Get the configuration space of a round robot: which cells the robot
+     * can be centred on without touching a blocked cell (see isBlocked()).
+     * The layer for each radius is built on first use and then kept up to
+     * date by set(), so checking a cell is a single bit test.
+     * The layer is replaced, and must be fetched again, when the map grows.
+     * @param radiusCells the robot radius, in cells
+     * @return            the traversability layer for the radius
+     */
+    public TraversabilityLayer traversability(int radiusCells) {
+        if (stripes != null) syncIndexes();
+        for (TraversabilityLayer layer : traversabilityLayers) {
+            if (layer.radius() == radiusCells) return layer;
+        }
+        // Build with every stripe held, so no concurrent write is missed.
+        if (stripes != null) lockAll();
+        try {
+            if (stripes != null) syncIndexesLocked();
+            synchronized (this) {
+                for (TraversabilityLayer layer : traversabilityLayers) {
+                    if (layer.radius() == radiusCells) return layer;
+                }
+                TraversabilityLayer layer = new TraversabilityLayer(numRows, numCols, radiusCells);
+                for (int index = 0; index < cellCount(); index += 1) {
+                    if (isBlocked(index)) layer.setBlocked(index, true);
+                }
+                // Publish a new array, so readers see the layer fully built.
+                TraversabilityLayer[] built = Arrays.copyOf(traversabilityLayers, traversabilityLayers.length + 1);
+                built[traversabilityLayers.length] = layer;
+                traversabilityLayers = built;
+                return layer;
+            }
+        } finally {
+            if (stripes != null) unlockAll();
+        }
+    }
+    
+    /**
+     * Get the configuration space of a round robot (see traversability(int)).
+     * @param radiusMetres the robot radius, in metres; rounded up to whole cells
+     * @return             the traversability layer for the radius
+     */
+    public TraversabilityLayer traversability(float radiusMetres) {
+        return traversability((int)Math.ceil(radiusMetres / gridSizeMetres));
+    }
+    
+    /**
+     * Update the count tree of a region kind, if it has been built, after a
+     * cell gains or loses it.
+     */
+    private void regionChanged(int region, int index, boolean present) {
+        Fenwick2D counts = regionCounts[region];
+        if (counts == null) return;
+        int row = index / numCols;
+        counts.add(row, index - row * numCols, present ? 1 : -1);
+    }
+    
+    /**
+     * Get the nearest unexplored cell to a cell.
+     * @param index the cell index to search from
+     * @return      the index of the nearest unexplored cell, or -1 if every cell is explored
+     */
+    public int nearestUnexplored(int index) {
+        ReentrantLock lock = lockIndexes();
+        try {
+        return featureIndex.nearest(unexploredFeature, index);
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+    
+    /**
+     * Check whether a cell has been explored, i.e. observed by a sensor.
+     * @param index the cell index
+     */
+    public boolean isExplored(int index) {
+        int row = index / numCols;
+        return explored.get(row, index - row * numCols);
+    }
+    
+    /**
+     * Mark a cell as explored. Cells are marked by observe(), so this is
+     * only needed for cells explored some other way.
+     * @param index the cell index
+     */
+    public void setExplored(int index) {
+        int row = index / numCols;
+        if (stripes == null) {
+        explored.set(row, index - row * numCols, true);
+        featureIndex.set(unexploredFeature, index, false);
+            return;
+        }
+        ReentrantLock lock = stripe(index);
+        lock.lock();
+        try {
+            // Explored bits are packed, so neighbouring cells share a word and
+            // writes must be serialized even on a concurrent map.
+            synchronized (explored) {
+                explored.set(row, index - row * numCols, true);
+            }
+            defer(index);
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -385,6 +1632,15 @@ public class Map {
         propColors.put(prop, color);
     }
     
+    /**
+     * Get the color of a property.
+     * @param prop  The property to get the color of.
+     * @return      The color assigned to the property.
+     */
+    public RGBColor getPropertyColor(Property prop) {
+        return propColors.get(prop);
+    }
+    
     /**
      * Get the expected map color for an arbitrary position on the map.
      * @param  pos the position to get the color of.
@@ -403,7 +1659,16 @@ public class Map {
         if (isOutOfBounds(loc)) {
             return outOfBoundsColor;
         }
-        Property prop = getProperty(loc);
+        return getColorAtPosition(index(loc));
+    }
+    
+    /**
+     * Get the expected map color for a packed cell index.
+     * @param  index the cell index to get the color of.
+     * @return       the color at the cell.
+     */
+    public RGBColor getColorAtPosition(int index) {
+        Property prop = getProperty(index);
         if (prop == null) {
             throw new RuntimeException("getProperty() returned null.");
         }
@@ -416,15 +1681,17 @@ public class Map {
     
     /**
      * A simple exception that is thrown when the map goes beyond it's bounds.
+     * Out-of-bounds accesses are routine (e.g. sensor readings past the arena
+     * edge), so the exception does not record a stack trace.
      */
     public static class OutOfMapBoundsException extends Exception {
         // This seems to be expected by Eclipse.
         private static final long serialVersionUID = 1766051511371198505L;
         public OutOfMapBoundsException() {
-            super("Map bounds exceeded");
+            this("Map bounds exceeded");
         }
         public OutOfMapBoundsException(String message) {
-            super(message);
+            super(message, null, false, false);
         }
     }
     
@@ -463,6 +1730,13 @@ public class Map {
         public int col;
     }
 
+    // Ways of storing the property layers of a map.
+    // DENSE allocates every layer up front; TILED allocates tiles on first
+    // write and can grow; MAPPED keeps the layers in a memory-mapped file;
+    // QUANTIZED stores one byte per value instead of four.
+    public enum Storage {
+        DENSE, TILED, MAPPED, QUANTIZED
+    }
     // List of possible track types
     public enum TrackType {
         VEHICLE, FOOTPRINT, LANDING
@@ -482,6 +1756,19 @@ public class Map {
         Property.BORDER,
         
     };
+    // The properties that block the robot, e.g. for the distance field.
+    public static final Property[] blockingProperties = {
+        Property.OBSTACLE, Property.CRATER, Property.NO_GO_ZONE
+    };
+    // The number of neighbours of a cell, and the row/column steps to each.
+    // Straight neighbours come first, then diagonals.
+    public static final int neighbourCount = 8;
+    public static final int[] neighbourRowOffsets = { -1, 1,  0, 0, 1, -1, -1,  1 };
+    public static final int[] neighbourColOffsets = {  0, 0, -1, 1, 1, -1,  1, -1 };
+    // Maps are divided into square tiles of tileSize * tileSize cells
+    // for change tracking.
+    public static final int tileShift = 5;
+    public static final int tileSize = 1 << tileShift;
     
     // Storage specifications.
     // The size of each grid element (in metres).
@@ -497,8 +1784,47 @@ public class Map {
     private int numCols;
     // The landing site of the robot.
     private Point roverLandingSite;
+    // How the layers are stored, and the number of times the map has grown.
+    private Storage storage;
+    private volatile long geometryVersion;
     
     // Internal storage.
-    private Matrix<Boolean> explored;
-    private HashMap<Property, Matrix<Float>> propertyMaps;
+    private BooleanMatrix explored;
+    private MapLayer[] layers;
+    // The layers of a MAPPED map, one per property other than NONE.
+    private MappedFloatMatrix[] mappedLayers;
+    // The maximum-likelihood property ordinal of each cell, kept up to date by set().
+    private byte[] dominant;
+    // The distance from each cell to the nearest blocked cell, kept up to date by set().
+    private DistanceField distanceField;
+    // The cells where each property is more likely than not, by ordinal, and
+    // the unexplored cells; kept up to date by set() and setExplored().
+    private FeatureIndex featureIndex;
+    private static final int unexploredFeature = Property.values().length;
+    // Counts of the cells where each property is more likely than not, by
+    // ordinal, and of the blocked cells; each is built on first use.
+    private volatile Fenwick2D[] regionCounts = new Fenwick2D[blockedRegion + 1];
+    private static final int blockedRegion = Property.values().length;
+    // Traversability layers that have been requested, one per robot radius.
+    private volatile TraversabilityLayer[] traversabilityLayers = new TraversabilityLayer[0];
+    private static final Property[] properties = Property.values();
+    // Change tracking.
+    private final AtomicLong version = new AtomicLong();
+    private volatile ChangeCursor[] changeCursors = new ChangeCursor[0];
+    // Snapshots, and the tiles changed since the last one was published.
+    private volatile MapSnapshot snapshot;
+    private ChangeCursor snapshotChanges;
+    private final BitSet snapshotTiles = new BitSet();
+    private final float[] tileScratch = new float[tileSize * tileSize];
+    // Locks for concurrent maps, by tile; null if the map is not concurrent.
+    private static final int stripeCount = 64;
+    private ReentrantLock[] stripes;
+    // The cells of a concurrent map changed since the derived indexes were
+    // last synced, by stripe, each guarded by its stripe lock; whether each
+    // cell is queued; and the lock held while the derived indexes are used.
+    private int[][] pendingCells;
+    private int[] pendingCounts;
+    private boolean[] pending;
+    private volatile boolean hasPending;
+    private ReentrantLock indexLock;
 }
\ No newline at end of file
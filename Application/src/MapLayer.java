@@ -0,0 +1,59 @@
+/**
+ * Storage for one property layer of a Map: a 2D grid of float values,
+ * addressed by row and column or by row-major cell index.
+ * @author jkortman
+ */
+public interface MapLayer {
+    /**
+     * Retrieve a value from the layer at a position.
+     * @param row   the row/vertical position of the element to get.
+     * @param col   the column/horizontal position of the element to get.
+     * @return      the value at the specified position.
+     */
+    float get(int row, int col);
+    
+    /**
+     * Retrieve a value from the layer by its row-major index.
+     * @param index the element index, row * width + col.
+     * @return      the value at the specified index.
+     */
+    float get(int index);
+    
+    /**
+     * Set an element in the layer.
+     * @param row   the row/vertical position of the element to set.
+     * @param col   the column/horizontal position of the element to set.
+     * @param value the value to set the element to at the specified position.
+     */
+    void set(int row, int col, float value);
+    
+    /**
+     * Set an element in the layer by its row-major index.
+     * @param index the element index, row * width + col.
+     * @param value the value to set the element to.
+     */
+    void set(int index, float value);
+    
+    /**
+     * Copy a rectangular region of the layer into an array, row by row.
+     * @param row    the first row of the region.
+     * @param col    the first column of the region.
+     * @param height the number of rows in the region.
+     * @param width  the number of columns in the region.
+     * @param dest   the array to copy into.
+     * @param offset the position in dest of the first copied element.
+     */
+    void copyRegion(int row, int col, int height, int width, float[] dest, int offset);
+    
+    /**
+     * Get the height of the layer.
+     * @return the height (number of rows) in the layer.
+     */
+    int height();
+    
+    /**
+     * Get the width of the layer.
+     * @return the width (number of columns) in the layer.
+     */
+    int width();
+}
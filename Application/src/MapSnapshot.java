@@ -0,0 +1,229 @@
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * An immutable, internally consistent copy of a Map at one moment.
+ * Snapshots are published by the thread that updates the map, through
+ * Map.publishSnapshot(), and can then be read from any thread without
+ * locking while the map keeps changing.
+ * Snapshots are stored as tiles of Map.tileSize * Map.tileSize cells (the
+ * same tiles as Map.tileOf()). A new snapshot only copies the tiles that
+ * changed since the previous one and shares the rest with it, so publishing
+ * costs O(changed tiles), and readers can find what changed between two
+ * snapshots by comparing tiles (see changedCells()).
+ * @author jkortman
+ */
+public class MapSnapshot implements MapView {
+    /**
+     * Create a snapshot. Snapshots are created by Map.publishSnapshot().
+     */
+    MapSnapshot(Map.Storage storage, float gridSizeMetres, int rows, int cols, float topLeftX, float topLeftY,
+                Map.GridLocation origin, Point roverLandingSite,
+                HashMap<Map.Property, RGBColor> propColors, RGBColor outOfBoundsColor,
+                long version, long geometryVersion,
+                float[][][] layerTiles, byte[][] dominantTiles) {
+        this.storage = storage;
+        this.gridSizeMetres = gridSizeMetres;
+        this.numRows = rows;
+        this.numCols = cols;
+        this.topLeftX = topLeftX;
+        this.topLeftY = topLeftY;
+        this.origin = origin;
+        this.roverLandingSite = roverLandingSite;
+        this.propColors = propColors;
+        this.outOfBoundsColor = outOfBoundsColor;
+        this.version = version;
+        this.geometryVersion = geometryVersion;
+        this.tileColumns = (cols + tileMask) >> tileShift;
+        this.layerTiles = layerTiles;
+        this.dominantTiles = dominantTiles;
+    }
+    
+    public int rows() {
+        return numRows;
+    }
+    
+    public int columns() {
+        return numCols;
+    }
+    
+    public int cellCount() {
+        return numRows * numCols;
+    }
+    
+    public int index(int row, int col) {
+        return row * numCols + col;
+    }
+    
+    public int rowOf(int index) {
+        return index / numCols;
+    }
+    
+    public int colOf(int index) {
+        return index % numCols;
+    }
+    
+    public boolean isOutOfBounds(int row, int col) {
+        return (col < 0 || row < 0 || row >= numRows || col >= numCols);
+    }
+    
+    public float getGridSize() {
+        return gridSizeMetres;
+    }
+    
+    public Point topLeft() {
+        return new Point(topLeftX, topLeftY);
+    }
+    
+    public Map.GridLocation origin() {
+        return new Map.GridLocation(origin.row, origin.col);
+    }
+    
+    public Map.GridLocation getGridLocation(Point p) {
+        int row = (int)Math.floor((p.yMetres - topLeftY) / gridSizeMetres);
+        int col = (int)Math.floor((p.xMetres - topLeftX) / gridSizeMetres);
+        if (isOutOfBounds(row, col)) {
+            return Map.GridLocation.makeOutOfBoundsLocation();
+        }
+        return new Map.GridLocation(row, col);
+    }
+    
+    public Point getCentrePoint(int index) {
+        return new Point(((float)colOf(index) + 0.5f) * gridSizeMetres + topLeftX,
+                         ((float)rowOf(index) + 0.5f) * gridSizeMetres + topLeftY);
+    }
+    
+    public float get(Map.Property prop, int index) {
+        int row = index / numCols;
+        return get(prop, row, index - row * numCols);
+    }
+    
+    public float tryGet(Map.Property prop, int row, int col) {
+        if (isOutOfBounds(row, col)) return Float.NaN;
+        return get(prop, row, col);
+    }
+    
+    /**
+     * Get the value of a property at an in-bounds grid position.
+     */
+    private float get(Map.Property prop, int row, int col) {
+        // Tiles where the property was never set are not stored.
+        float[] tile = layerTiles[prop.ordinal()][tileOf(row, col)];
+        if (tile == null) return 0.0f;
+        return tile[offsetInTile(row, col)];
+    }
+    
+    public Map.Property getProperty(int index) {
+        int row = index / numCols;
+        int col = index - row * numCols;
+        return properties[dominantTiles[tileOf(row, col)][offsetInTile(row, col)]];
+    }
+    
+    public void copyPropertyRaster(byte[] dest, int offset) {
+        for (int row = 0; row < numRows; row += 1) {
+            int tileRowStart = (row >> tileShift) * tileColumns;
+            int rowInTile = (row & tileMask) << tileShift;
+            for (int col = 0; col < numCols; col += tileSize) {
+                int width = Math.min(tileSize, numCols - col);
+                System.arraycopy(dominantTiles[tileRowStart + (col >> tileShift)], rowInTile,
+                                 dest, offset + row * numCols + col, width);
+            }
+        }
+    }
+    
+    public RGBColor getColorAtPosition(int index) {
+        return propColors.get(getProperty(index));
+    }
+    
+    /**
+     * Get the color used for positions outside of the map.
+     */
+    public RGBColor getOutOfBoundsColor() {
+        return outOfBoundsColor;
+    }
+    
+    public Point getRoverLandingSite() {
+        return roverLandingSite;
+    }
+    
+    public long version() {
+        return version;
+    }
+    
+    public long geometryVersion() {
+        return geometryVersion;
+    }
+    
+    /**
+     * Get how the property layers of the map were stored.
+     */
+    public Map.Storage storage() {
+        return storage;
+    }
+    
+    /**
+     * Find the cells that may differ between this snapshot and an earlier one.
+     * Every cell of every tile that was copied since the earlier snapshot is
+     * reported. If the map has grown in between, every cell is reported.
+     * @param previous an earlier snapshot of the same map, or null
+     * @param into     receives the indices of the changed cells; cleared first
+     */
+    public void changedCells(MapSnapshot previous, BitSet into) {
+        into.clear();
+        if (previous == null || previous.geometryVersion != geometryVersion) {
+            into.set(0, cellCount());
+            return;
+        }
+        for (int tile = 0; tile < dominantTiles.length; tile += 1) {
+            // Changed tiles are always copied, never shared.
+            if (dominantTiles[tile] == previous.dominantTiles[tile]) continue;
+            int rowStart = (tile / tileColumns) << tileShift;
+            int colStart = (tile % tileColumns) << tileShift;
+            int rowEnd = Math.min(rowStart + tileSize, numRows);
+            int colEnd = Math.min(colStart + tileSize, numCols);
+            for (int row = rowStart; row < rowEnd; row += 1) {
+                into.set(index(row, colStart), index(row, colEnd));
+            }
+        }
+    }
+    
+    /**
+     * Get the tile containing a grid position.
+     */
+    private int tileOf(int row, int col) {
+        return (row >> tileShift) * tileColumns + (col >> tileShift);
+    }
+    
+    /**
+     * Get the position of a grid position within its tile.
+     */
+    private static int offsetInTile(int row, int col) {
+        return ((row & tileMask) << tileShift) | (col & tileMask);
+    }
+    
+    private static final int tileShift = Map.tileShift;
+    private static final int tileSize = Map.tileSize;
+    private static final int tileMask = tileSize - 1;
+    private static final Map.Property[] properties = Map.Property.values();
+    
+    // How the map's layers were stored.
+    private final Map.Storage storage;
+    // Map geometry at the time of the snapshot.
+    private final float gridSizeMetres;
+    private final int numRows;
+    private final int numCols;
+    private final float topLeftX;
+    private final float topLeftY;
+    private final Map.GridLocation origin;
+    private final Point roverLandingSite;
+    private final HashMap<Map.Property, RGBColor> propColors;
+    private final RGBColor outOfBoundsColor;
+    private final long version;
+    private final long geometryVersion;
+    private final int tileColumns;
+    // Cell values, by property ordinal then tile; each tile holds
+    // tileSize * tileSize values row-major. Never modified once published,
+    // so unchanged tiles are shared with the next snapshot by Map.publishSnapshot().
+    final float[][][] layerTiles;
+    final byte[][] dominantTiles;
+}
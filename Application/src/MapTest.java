@@ -1,5 +1,10 @@
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class MapTest {    
@@ -131,6 +136,538 @@ public class MapTest {
         map.printProperty(Map.Property.OBSTACLE);
     }
     
+    @Test
+    public void testCellIndex() {
+        Map map = new Map(1.0f, 6, 9);
+        assertEquals(54, map.cellCount());
+        for (int row = 0; row < map.rows(); row += 1) {
+            for (int col = 0; col < map.columns(); col += 1) {
+                int index = map.index(row, col);
+                assertEquals(row, map.rowOf(index));
+                assertEquals(col, map.colOf(index));
+                // Index access sees the same cell as grid location access.
+                map.set(Map.Property.RADIATION, index, (float)index);
+                try {
+                    assertEquals((float)index, map.get(Map.Property.RADIATION, new Map.GridLocation(row, col)), 0.0001f);
+                } catch (Map.OutOfMapBoundsException e) {
+                    fail("out of bounds");
+                }
+                // Neighbours are either in the map and adjacent, or -1.
+                for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                    int neighbour = map.neighbour(index, direction);
+                    int nRow = row + Map.neighbourRowOffsets[direction];
+                    int nCol = col + Map.neighbourColOffsets[direction];
+                    if (map.isOutOfBounds(nRow, nCol)) {
+                        assertEquals(-1, neighbour);
+                    } else {
+                        assertEquals(map.index(nRow, nCol), neighbour);
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testTryAccessAndRegions() {
+        Map map = new Map(1.0f, 4, 5); // from -2.5 to 2.5 in x, -2 to 2 in y
+        // Out-of-bounds accesses report failure instead of throwing.
+        assertTrue(Float.isNaN(map.tryGet(Map.Property.CRATER, new Point(10.0f, 0.0f))));
+        assertTrue(Float.isNaN(map.tryGet(Map.Property.CRATER, -1, 0)));
+        assertFalse(map.trySet(Map.Property.CRATER, new Point(0.0f, -10.0f), 1.0f));
+        assertFalse(map.trySet(Map.Property.CRATER, 4, 0, 1.0f));
+        // In-bounds accesses behave like get/set.
+        assertTrue(map.trySet(Map.Property.CRATER, new Point(0.5f, 0.5f), 0.75f));
+        assertEquals(0.75f, map.tryGet(Map.Property.CRATER, new Point(0.5f, 0.5f)), 0.0001f);
+        
+        // Rows and regions round-trip through caller-provided arrays.
+        float[] row = { 1.0f, 2.0f, 3.0f, 4.0f, 5.0f };
+        map.setRow(Map.Property.RADIATION, 1, row, 0);
+        map.setRow(Map.Property.RADIATION, 2, row, 0);
+        float[] readRow = new float[6];
+        map.getRow(Map.Property.RADIATION, 2, readRow, 1);
+        for (int col = 0; col < 5; col += 1) {
+            assertEquals(row[col], readRow[col + 1], 0.0001f);
+            assertEquals(row[col], map.tryGet(Map.Property.RADIATION, 1, col), 0.0001f);
+        }
+        float[] region = new float[6];
+        map.copyRegion(Map.Property.RADIATION, 1, 2, 3, 2, region, 0);
+        assertArrayEquals(new float[] { 3.0f, 4.0f, 3.0f, 4.0f, 0.0f, 0.0f }, region, 0.0001f);
+        try {
+            map.copyRegion(Map.Property.RADIATION, 3, 0, 2, 1, region, 0);
+            fail("region outside of the map was copied");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+    
+    @Test
+    public void testPropertyRaster() {
+        Map map = new Map(1.0f, 8, 8);
+        Random random = new Random(4);
+        for (int i = 0; i < 2000; i += 1) {
+            Map.Property prop = Map.accessibleProperties[random.nextInt(Map.accessibleProperties.length)];
+            map.set(prop, random.nextInt(map.cellCount()), random.nextFloat());
+        }
+        map.setRow(Map.Property.OBSTACLE, 3, new float[] { 1, 1, 1, 1, 1, 1, 1, 1 }, 0);
+        byte[] raster = new byte[map.cellCount()];
+        map.copyPropertyRaster(raster, 0);
+        for (int index = 0; index < map.cellCount(); index += 1) {
+            // The raster must match a full evaluation of every layer.
+            Map.Property expected = Map.Property.NONE;
+            float maxLikelihood = 0.5f;
+            for (Map.Property prop : Map.accessibleProperties) {
+                float value = map.get(prop, index);
+                if (value > maxLikelihood) {
+                    expected = prop;
+                    maxLikelihood = value;
+                }
+            }
+            assertEquals(expected, map.getProperty(index));
+            assertEquals(expected.ordinal(), raster[index]);
+        }
+    }
+    
+    @Test
+    public void testChangeTracking() {
+        Map map = new Map(1.0f, 40, 70);
+        assertEquals(2, map.tileRows());
+        assertEquals(3, map.tileColumns());
+        ChangeCursor cursor = map.newChangeCursor();
+        BitSet cells = new BitSet();
+        BitSet tiles = new BitSet();
+        // A new cursor reports every cell.
+        cursor.drain(cells, tiles);
+        assertEquals(map.cellCount(), cells.cardinality());
+        assertEquals(map.tileCount(), tiles.cardinality());
+        assertFalse(cursor.hasChanges());
+        
+        long version = map.version();
+        map.set(Map.Property.CRATER, map.index(35, 65), 1.0f);
+        map.set(Map.Property.OBSTACLE, map.index(3, 4), 1.0f);
+        // Writing an unchanged value is not a change.
+        map.set(Map.Property.OBSTACLE, map.index(3, 4), 1.0f);
+        map.set(Map.Property.RADIATION, map.index(5, 5), 0.0f);
+        assertEquals(version + 2, map.version());
+        assertTrue(cursor.hasChanges());
+        cursor.drain(cells, tiles);
+        assertEquals(2, cells.cardinality());
+        assertTrue(cells.get(map.index(35, 65)));
+        assertTrue(cells.get(map.index(3, 4)));
+        assertEquals(2, tiles.cardinality());
+        assertTrue(tiles.get(0));
+        assertTrue(tiles.get(map.tileOf(map.index(35, 65))));
+        assertEquals(5, map.tileOf(map.index(35, 65)));
+        
+        map.releaseChangeCursor(cursor);
+        map.set(Map.Property.CRATER, map.index(0, 0), 1.0f);
+        assertFalse(cursor.hasChanges());
+    }
+
+    @Test
+    public void testTiledGrowth() {
+        // Dense maps never grow.
+        Map dense = new Map(1.0f, 40, 40);
+        assertFalse(dense.trySet(Map.Property.OBSTACLE, new Point(-30.5f, 0.5f), 1.0f));
+        assertEquals(Map.Storage.DENSE, dense.storage());
+    
+        Map map = new Map(1.0f, 40, 40, Map.Storage.TILED);
+        ChangeCursor cursor = map.newChangeCursor();
+        cursor.drain(null, null);
+        Point inside = new Point(0.5f, 0.5f);
+        assertTrue(map.trySet(Map.Property.OBSTACLE, inside, 1.0f));
+        assertEquals(0, map.geometryVersion());
+    
+        // Growing left moves the origin by a whole tile.
+        Point left = new Point(-30.5f, 0.5f);
+        assertTrue(map.trySet(Map.Property.CRATER, left, 0.8f));
+        assertEquals(1, map.geometryVersion());
+        assertEquals(40, map.rows());
+        assertEquals(40 + Map.tileSize, map.columns());
+        assertEquals(20 + Map.tileSize, map.origin().col);
+        assertEquals(20, map.origin().row);
+        assertEquals(1.0f, map.tryGet(Map.Property.OBSTACLE, inside), 0.0f);
+        assertEquals(0.8f, map.tryGet(Map.Property.CRATER, left), 0.0f);
+        assertEquals(Map.Property.OBSTACLE, map.getProperty(inside));
+        assertEquals(Map.Property.CRATER, map.getProperty(left));
+        assertEquals(0.0f, map.tryGet(Map.Property.OBSTACLE, new Point(-30.5f, -15.5f)), 0.0f);
+        // Every cell is reported as changed after growing.
+        BitSet cells = new BitSet();
+        cursor.drain(cells, null);
+        assertEquals(map.cellCount(), cells.cardinality());
+    
+        // Growing down rounds up to whole tiles.
+        Point below = new Point(0.5f, 100.5f);
+        assertTrue(map.trySet(Map.Property.RADIATION, below, 1.0f));
+        assertEquals(4 * Map.tileSize, map.rows());
+        assertEquals(20, map.origin().row);
+        assertEquals(1.0f, map.tryGet(Map.Property.RADIATION, below), 0.0f);
+        assertEquals(1.0f, map.tryGet(Map.Property.OBSTACLE, inside), 0.0f);
+    
+        // Maps do not grow beyond the configured maximum.
+        Point far = new Point(10.0f * Settings.Map.maxCols, 0.5f);
+        assertFalse(map.trySet(Map.Property.OBSTACLE, far, 1.0f));
+        assertTrue(Float.isNaN(map.tryGet(Map.Property.OBSTACLE, far)));
+        try {
+            map.set(Map.Property.OBSTACLE, far, 1.0f);
+            fail("Expected OutOfMapBoundsException");
+        } catch (Map.OutOfMapBoundsException e) {
+            // Expected.
+        }
+        map.releaseChangeCursor(cursor);
+    }
+    
+    @Test
+    public void testMappedStorage() throws IOException {
+        File file = File.createTempFile("map", ".bin");
+        file.deleteOnExit();
+        assertTrue(file.delete());
+        Map map = new Map(1.0f, 30, 50, file);
+        assertEquals(Map.Storage.MAPPED, map.storage());
+        assertEquals(0.0f, map.get(Map.Property.CRATER, map.index(29, 49)), 0.0f);
+        map.set(Map.Property.CRATER, map.index(29, 49), 0.9f);
+        map.set(Map.Property.OBSTACLE, map.index(3, 4), 1.0f);
+        map.flush();
+        
+        // Reopening the file resumes the map, including the property raster.
+        Map resumed = new Map(1.0f, 30, 50, file);
+        assertEquals(0.9f, resumed.get(Map.Property.CRATER, resumed.index(29, 49)), 0.0f);
+        assertEquals(Map.Property.CRATER, resumed.getProperty(resumed.index(29, 49)));
+        assertEquals(Map.Property.OBSTACLE, resumed.getProperty(resumed.index(3, 4)));
+        assertEquals(Map.Property.NONE, resumed.getProperty(resumed.index(3, 5)));
+        // Both maps see the same file.
+        resumed.set(Map.Property.RADIATION, resumed.index(10, 10), 1.0f);
+        assertEquals(1.0f, map.get(Map.Property.RADIATION, map.index(10, 10)), 0.0f);
+        
+        // A file holding a different map size is rejected.
+        try {
+            new Map(1.0f, 31, 50, file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+    
+    @Test
+    public void testQuantizedStorage() {
+        // The values the interpreters write are stored exactly.
+        final float[] exact = { 0.0f, 0.5f, 1.0f };
+        for (float value : exact) {
+            assertEquals(value, ByteProbabilityMatrix.probability(ByteProbabilityMatrix.quantize(value)), 0.0f);
+        }
+        // Other values round to the nearest step, and stay on the same side of 0.5.
+        for (int i = 0; i <= 1000; i += 1) {
+            float value = i / 1000.0f;
+            float stored = ByteProbabilityMatrix.probability(ByteProbabilityMatrix.quantize(value));
+            assertEquals(value, stored, 1.0f / ByteProbabilityMatrix.maxSteps);
+            assertEquals(value > 0.5f, stored > 0.5f);
+        }
+        assertEquals(0, ByteProbabilityMatrix.quantize(-1.0f));
+        assertEquals(ByteProbabilityMatrix.maxSteps, ByteProbabilityMatrix.quantize(2.0f));
+        
+        ByteProbabilityMatrix matrix = new ByteProbabilityMatrix(3, 4);
+        assertEquals(ByteProbabilityMatrix.maxSteps, matrix.addSteps(5, 1000));
+        assertEquals(1.0f, matrix.get(1, 1), 0.0f);
+        assertEquals(ByteProbabilityMatrix.maxSteps - 4, matrix.addSteps(5, -4));
+        assertEquals(0, matrix.addSteps(5, -1000));
+        
+        Map map = new Map(1.0f, 10, 10, Map.Storage.QUANTIZED);
+        int index = map.index(4, 6);
+        map.set(Map.Property.CRATER, index, 0.9f);
+        assertEquals(0.9f, map.get(Map.Property.CRATER, index), 0.5f / ByteProbabilityMatrix.maxSteps);
+        assertEquals(Map.Property.CRATER, map.getProperty(index));
+        // Writes that round to the stored value are not changes.
+        long version = map.version();
+        map.set(Map.Property.CRATER, index, 0.9f + 0.1f / ByteProbabilityMatrix.maxSteps);
+        assertEquals(version, map.version());
+        // Adjusting saturates at 0.0 and 1.0.
+        assertEquals(1.0f, map.adjust(Map.Property.CRATER, index, 0.5f), 0.0f);
+        assertEquals(0.0f, map.adjust(Map.Property.CRATER, index, -2.0f), 0.0f);
+        assertEquals(Map.Property.NONE, map.getProperty(index));
+    }
+    
+    @Test
+    public void testObserve() {
+        for (int l = LogOdds.min; l <= LogOdds.max; l += 1) {
+            assertEquals(l, LogOdds.fromProbability(LogOdds.probability(l)));
+        }
+        assertEquals(0, LogOdds.fromProbability(0.0f));
+        assertEquals(LogOdds.max, LogOdds.fromProbability(1.0f));
+        assertEquals(0.5f, LogOdds.probability(0), 0.0f);
+        
+        Map map = new Map(1.0f, 10, 10);
+        int index = map.index(2, 3);
+        // A first hit on an unobserved cell gives the hit probability.
+        assertEquals(0.7f, map.observe(Map.Property.CRATER, index, LogOdds.hit), 0.01f);
+        assertEquals(Map.Property.CRATER, map.getProperty(index));
+        // Observations saturate, but can always be reversed.
+        for (int i = 0; i < 100; i += 1) map.observe(Map.Property.CRATER, index, LogOdds.hit);
+        assertEquals(LogOdds.probability(LogOdds.max), map.get(Map.Property.CRATER, index), 0.0f);
+        for (int i = 0; i < 20; i += 1) map.observe(Map.Property.CRATER, index, LogOdds.miss);
+        assertEquals(Map.Property.NONE, map.getProperty(index));
+        // Values written with set() are picked up by the next observation.
+        map.set(Map.Property.CRATER, index, 1.0f);
+        assertTrue(map.observe(Map.Property.CRATER, index, LogOdds.miss) > 0.9f);
+        
+        // Rays clear the cells they pass through and mark the cell they end in.
+        map.observeRay(Map.Property.OBSTACLE, new Point(-4.5f, -4.5f), new Point(3.5f, -0.5f), true);
+        assertEquals(0.7f, map.tryGet(Map.Property.OBSTACLE, new Point(3.5f, -0.5f)), 0.01f);
+        assertEquals(0.4f, map.tryGet(Map.Property.OBSTACLE, new Point(-4.5f, -4.5f)), 0.01f);
+        assertEquals(0.4f, map.tryGet(Map.Property.OBSTACLE, new Point(-0.5f, -2.5f)), 0.01f);
+        assertEquals(0.0f, map.tryGet(Map.Property.OBSTACLE, new Point(-0.5f, 2.5f)), 0.0f);
+        assertFalse(map.observeRay(Map.Property.OBSTACLE, new Point(0.5f, 0.5f), new Point(20.5f, 0.5f), true));
+        assertEquals(0.4f, map.tryGet(Map.Property.OBSTACLE, new Point(4.5f, 0.5f)), 0.01f);
+    }
+    
+    @Test
+    public void testSnapshots() {
+        Map map = new Map(1.0f, 40, 70);
+        MapSnapshot first = map.snapshot();
+        assertNotNull(first);
+        assertEquals(Map.Storage.DENSE, first.storage());
+        assertEquals(Map.Storage.TILED, new Map(1.0f, 40, 70, Map.Storage.TILED).snapshot().storage());
+        map.set(Map.Property.CRATER, map.index(35, 65), 1.0f);
+        // Snapshots do not change when the map does.
+        assertSame(first, map.snapshot());
+        assertEquals(0.0f, first.get(Map.Property.CRATER, first.index(35, 65)), 0.0f);
+        
+        MapSnapshot second = map.publishSnapshot();
+        assertSame(second, map.snapshot());
+        assertEquals(1.0f, second.get(Map.Property.CRATER, second.index(35, 65)), 0.0f);
+        assertEquals(Map.Property.CRATER, second.getProperty(second.index(35, 65)));
+        assertEquals(map.version(), second.version());
+        // Only the changed tile is copied.
+        BitSet cells = new BitSet();
+        second.changedCells(first, cells);
+        assertTrue(cells.get(second.index(35, 65)));
+        assertEquals((40 - 32) * (70 - 64), cells.cardinality());
+        // Publishing with no changes shares every tile.
+        map.publishSnapshot().changedCells(second, cells);
+        assertTrue(cells.isEmpty());
+        
+        // Snapshots read the same as the map.
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i += 1) {
+            map.set(Map.accessibleProperties[random.nextInt(Map.accessibleProperties.length)],
+                    random.nextInt(map.cellCount()), random.nextFloat());
+        }
+        MapSnapshot third = map.publishSnapshot();
+        byte[] mapRaster = new byte[map.cellCount()];
+        byte[] snapshotRaster = new byte[third.cellCount()];
+        map.copyPropertyRaster(mapRaster, 0);
+        third.copyPropertyRaster(snapshotRaster, 0);
+        assertArrayEquals(mapRaster, snapshotRaster);
+        for (int index = 0; index < map.cellCount(); index += 1) {
+            for (Map.Property prop : Map.accessibleProperties) {
+                assertEquals(map.get(prop, index), third.get(prop, index), 0.0f);
+            }
+        }
+        assertEquals(map.getCentrePoint(17).xMetres, third.getCentrePoint(17).xMetres, 0.0f);
+        assertEquals(map.getCentrePoint(17).yMetres, third.getCentrePoint(17).yMetres, 0.0f);
+    }
+    
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        final Map map = new Map(1.0f, 64, 64, Map.Storage.DENSE, true);
+        assertTrue(map.isConcurrent());
+        final int threads = 4;
+        final long version = map.version();
+        // Every thread observes every cell once; no observation may be lost.
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t += 1) {
+            writers[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int index = 0; index < map.cellCount(); index += 1) {
+                        map.observe(Map.Property.CRATER, index, LogOdds.hit);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) writer.join();
+        float expected = LogOdds.probability(threads * LogOdds.hit);
+        for (int index = 0; index < map.cellCount(); index += 1) {
+            assertEquals(expected, map.get(Map.Property.CRATER, index), 0.0f);
+        }
+        assertEquals(version + threads * map.cellCount(), map.version());
+        // The derived indexes catch up with every write.
+        assertEquals(map.cellCount(), map.countBlocked(0, 0, 64, 64));
+        assertEquals(map.index(5, 5), map.nearestObstacle(map.index(5, 5)));
+        assertEquals(-1, map.nearestUnexplored(map.index(5, 5)));
+        assertFalse(map.traversability(1).isTraversable(map.index(5, 5)));
+        
+        // Snapshots contain all or none of an atomic multi-cell update.
+        final int first = map.index(0, 0);
+        final int last = map.index(63, 63);
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 1; i <= 1000; i += 1) {
+                    final float value = (i % 100) / 100.0f;
+                    map.atomically(new Runnable() {
+                        public void run() {
+                            map.set(Map.Property.RADIATION, first, value);
+                            map.set(Map.Property.RADIATION, last, value);
+                        }
+                    });
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            MapSnapshot snapshot = map.publishSnapshot();
+            assertEquals(snapshot.get(Map.Property.RADIATION, first),
+                         snapshot.get(Map.Property.RADIATION, last), 0.0f);
+        }
+        writer.join();
+        
+        // Concurrent maps do not grow.
+        Map tiled = new Map(1.0f, 40, 40, Map.Storage.TILED, true);
+        assertFalse(tiled.trySet(Map.Property.OBSTACLE, new Point(-30.5f, 0.5f), 1.0f));
+    }
+    
+    @Test
+    public void testDistanceField() {
+        final int rows = 30;
+        final int cols = 40;
+        Map map = new Map(1.0f, rows, cols);
+        assertEquals(Float.MAX_VALUE, map.distanceToNearestObstacle(map.index(3, 3)), 0.0f);
+        assertEquals(-1, map.nearestObstacle(map.index(3, 3)));
+        Random random = new Random(11);
+        for (int step = 0; step < 400; step += 1) {
+            // Block and unblock random cells with each blocking property.
+            Map.Property prop = Map.blockingProperties[random.nextInt(Map.blockingProperties.length)];
+            map.set(prop, random.nextInt(map.cellCount()), random.nextInt(3) == 0 ? 0.0f : 1.0f);
+            if (step % 40 != 39) continue;
+            // Compare against a brute force search.
+            for (int index = 0; index < map.cellCount(); index += 1) {
+                int best = Integer.MAX_VALUE;
+                for (int other = 0; other < map.cellCount(); other += 1) {
+                    if (!map.isBlocked(other)) continue;
+                    int dRow = map.rowOf(index) - map.rowOf(other);
+                    int dCol = map.colOf(index) - map.colOf(other);
+                    best = Math.min(best, dRow * dRow + dCol * dCol);
+                }
+                assertEquals((float)Math.sqrt(best), map.distanceToNearestObstacle(index), 0.0001f);
+                assertTrue(map.isBlocked(map.nearestObstacle(index)));
+            }
+        }
+    }
+    
+    @Test
+    public void testFeatureIndex() {
+        final int rows = 37;
+        final int cols = 29;
+        Map map = new Map(0.5f, rows, cols);
+        assertEquals(-1, map.nearest(Map.Property.RADIATION, 0));
+        assertEquals(0, map.nearestUnexplored(0));
+        Random random = new Random(13);
+        for (int step = 0; step < 600; step += 1) {
+            int cell = random.nextInt(map.cellCount());
+            map.set(Map.Property.RADIATION, cell, random.nextInt(3) == 0 ? 0.0f : 1.0f);
+            map.observe(Map.Property.TRACKS, random.nextInt(map.cellCount()), LogOdds.hit);
+            if (step % 60 != 59) continue;
+            // Compare against a brute force search.
+            int from = random.nextInt(map.cellCount());
+            int[] nearest = map.nearest(Map.Property.RADIATION, from, 5);
+            int[] within = map.withinRadius(Map.Property.RADIATION, from, 3.0f);
+            int count = 0;
+            int best = Integer.MAX_VALUE;
+            int bestUnexplored = Integer.MAX_VALUE;
+            for (int other = 0; other < map.cellCount(); other += 1) {
+                int d = distanceSquared(map, from, other);
+                if (!map.isExplored(other)) bestUnexplored = Math.min(bestUnexplored, d);
+                if (map.get(Map.Property.RADIATION, other) <= 0.5f) continue;
+                best = Math.min(best, d);
+                // 3 metres is 6 cells.
+                if (d <= 36) count += 1;
+            }
+            assertEquals(best, distanceSquared(map, from, map.nearest(Map.Property.RADIATION, from)));
+            assertEquals(best, distanceSquared(map, from, nearest[0]));
+            for (int i = 1; i < nearest.length; i += 1) {
+                assertTrue(distanceSquared(map, from, nearest[i - 1]) <= distanceSquared(map, from, nearest[i]));
+            }
+            assertEquals(count, within.length);
+            for (int cellWithin : within) {
+                assertTrue(map.get(Map.Property.RADIATION, cellWithin) > 0.5f);
+                assertTrue(distanceSquared(map, from, cellWithin) <= 36);
+            }
+            int unexplored = map.nearestUnexplored(from);
+            assertFalse(map.isExplored(unexplored));
+            assertEquals(bestUnexplored, distanceSquared(map, from, unexplored));
+            assertTrue(map.isExplored(map.nearest(Map.Property.TRACKS, from)));
+        }
+    }
+    
+    @Test
+    public void testRegionCounts() {
+        final int rows = 23;
+        final int cols = 31;
+        Map map = new Map(1.0f, rows, cols);
+        map.set(Map.Property.RADIATION, map.index(2, 3), 1.0f);
+        // Built on first use from the existing values.
+        assertEquals(1, map.count(Map.Property.RADIATION, 0, 0, rows, cols));
+        assertEquals(0, map.countBlocked(-5, -5, rows + 10, cols + 10));
+        Random random = new Random(17);
+        for (int step = 0; step < 500; step += 1) {
+            Map.Property prop = random.nextBoolean() ? Map.Property.RADIATION
+                    : Map.blockingProperties[random.nextInt(Map.blockingProperties.length)];
+            map.set(prop, random.nextInt(map.cellCount()), random.nextInt(3) == 0 ? 0.0f : 1.0f);
+            if (step % 50 != 49) continue;
+            // Compare random rectangles, partly outside the map, against a brute force count.
+            for (int i = 0; i < 20; i += 1) {
+                int row = random.nextInt(rows + 4) - 4;
+                int col = random.nextInt(cols + 4) - 4;
+                int height = random.nextInt(12);
+                int width = random.nextInt(12);
+                int radiation = 0;
+                int blocked = 0;
+                for (int r = Math.max(row, 0); r < Math.min(row + height, rows); r += 1) {
+                    for (int c = Math.max(col, 0); c < Math.min(col + width, cols); c += 1) {
+                        if (map.get(Map.Property.RADIATION, map.index(r, c)) > 0.5f) radiation += 1;
+                        if (map.isBlocked(map.index(r, c))) blocked += 1;
+                    }
+                }
+                assertEquals(radiation, map.count(Map.Property.RADIATION, row, col, height, width));
+                assertEquals(blocked, map.countBlocked(row, col, height, width));
+            }
+        }
+    }
+    
+    @Test
+    public void testTraversability() {
+        final int rows = 26;
+        final int cols = 19;
+        Map map = new Map(0.02f, rows, cols);
+        map.set(Map.Property.CRATER, map.index(4, 4), 1.0f);
+        // 0.05 metres is 3 cells.
+        TraversabilityLayer layer = map.traversability(0.05f);
+        assertEquals(3, layer.radius());
+        assertSame(layer, map.traversability(3));
+        Random random = new Random(19);
+        for (int step = 0; step < 300; step += 1) {
+            Map.Property prop = Map.blockingProperties[random.nextInt(Map.blockingProperties.length)];
+            map.set(prop, random.nextInt(map.cellCount()), random.nextInt(3) == 0 ? 0.0f : 1.0f);
+            if (step % 30 != 29) continue;
+            // Compare against a brute force search of each footprint.
+            for (int index = 0; index < map.cellCount(); index += 1) {
+                int blocked = 0;
+                for (int other = 0; other < map.cellCount(); other += 1) {
+                    if (map.isBlocked(other) && distanceSquared(map, index, other) <= 9) blocked += 1;
+                }
+                assertEquals(blocked, layer.blockedCount(index));
+                assertEquals(blocked == 0, layer.isTraversable(index));
+            }
+        }
+    }
+    
+    /**
+     * Get the squared distance between two cells, in cells.
+     */
+    private static int distanceSquared(Map map, int a, int b) {
+        int dRow = map.rowOf(a) - map.rowOf(b);
+        int dCol = map.colOf(a) - map.colOf(b);
+        return dRow * dRow + dCol * dCol;
+    }
+    
     @Test
     public void testClosestObstacle() {
         final int size = 10;
@@ -139,14 +676,13 @@ public class MapTest {
         try {
             map.set(Map.Property.OBSTACLE, new Point(4.0f, 0.0f), 1.0f);
             map.set(Map.Property.OBSTACLE, new Point(0.0f, 1.0f), 1.0f);
-            assertEquals(
-                    map.distanceToNearestObstacle(new Point(0.0f, 0.0f)),
-                    1.0f,
-                    0.001f);
-            assertEquals(
-                    map.distanceToNearestObstacle(new Point(3.0f, 0.0f)),
-                    (float)Math.sqrt(2.0),
-                    0.001f);
+            // Distances are to the centres of the blocked cells: (0.5, 1.5) and (4.5, 0.5).
+            assertEquals((float)Math.sqrt(0.5 * 0.5 + 1.5 * 1.5),
+                         map.distanceToNearestObstacle(new Point(0.0f, 0.0f)), 0.001f);
+            assertEquals((float)Math.sqrt(1.5 * 1.5 + 0.5 * 0.5),
+                         map.distanceToNearestObstacle(new Point(3.0f, 0.0f)), 0.001f);
+            // The centre of the cell beside a blocked cell is one cell away from it.
+            assertEquals(1.0f, map.distanceToNearestObstacle(new Point(3.5f, 0.5f)), 0.001f);
         } catch (Map.OutOfMapBoundsException e) {
             fail("out of bounds");
         }
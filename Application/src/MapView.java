@@ -0,0 +1,115 @@
+/**
+ * Read-only access to a map grid, provided both by the live Map and by the
+ * immutable MapSnapshots it publishes. Code that only reads a map (display,
+ * export) should use this interface, so it can be given a snapshot when it
+ * runs on a different thread to the one updating the map.
+ * Cell indices are row-major, as for Map.index().
+ * @author jkortman
+ */
+public interface MapView {
+    /**
+     * Get the number of rows in the map grid.
+     */
+    int rows();
+    
+    /**
+     * Get the number of columns in the map grid.
+     */
+    int columns();
+    
+    /**
+     * Get the number of cells in the map grid.
+     */
+    int cellCount();
+    
+    /**
+     * Get the packed cell index of a grid position. Not bounds checked.
+     */
+    int index(int row, int col);
+    
+    /**
+     * Get the row of a packed cell index.
+     */
+    int rowOf(int index);
+    
+    /**
+     * Get the column of a packed cell index.
+     */
+    int colOf(int index);
+    
+    /**
+     * Check if a row and column are out of bounds.
+     */
+    boolean isOutOfBounds(int row, int col);
+    
+    /**
+     * Get the grid size of the map, in metres.
+     */
+    float getGridSize();
+    
+    /**
+     * Get the location of the top-left point in the map.
+     */
+    Point topLeft();
+    
+    /**
+     * Get the grid position of the origin.
+     */
+    Map.GridLocation origin();
+    
+    /**
+     * Get the position in the grid corresponding to a point on the map.
+     * @param   p   the point to get the grid location of.
+     * @return      the grid location, which is out of bounds if p is outside the map.
+     */
+    Map.GridLocation getGridLocation(Point p);
+    
+    /**
+     * Get the centre point of a packed cell index in metre coordinates.
+     */
+    Point getCentrePoint(int index);
+    
+    /**
+     * Get the value of a property at a packed cell index. Not bounds checked.
+     */
+    float get(Map.Property prop, int index);
+    
+    /**
+     * Get the value of a property at a grid position.
+     * @return the value, or Float.NaN if the position is outside the map
+     */
+    float tryGet(Map.Property prop, int row, int col);
+    
+    /**
+     * Get the maximum-likelihood property at a packed cell index.
+     */
+    Map.Property getProperty(int index);
+    
+    /**
+     * Copy the maximum-likelihood property raster into an array.
+     * Element i of the copy is the ordinal of getProperty(i).
+     * @param dest   the array to copy into, with room for cellCount() values
+     * @param offset the position in dest of cell index 0
+     */
+    void copyPropertyRaster(byte[] dest, int offset);
+    
+    /**
+     * Get the expected map color for a packed cell index.
+     */
+    RGBColor getColorAtPosition(int index);
+    
+    /**
+     * Get the landing site position of the rover.
+     */
+    Point getRoverLandingSite();
+    
+    /**
+     * Get the map version, which increases every time a cell value changes.
+     */
+    long version();
+    
+    /**
+     * Get the geometry version, which increases every time the map grows.
+     */
+    long geometryVersion();
+}
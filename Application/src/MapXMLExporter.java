@@ -31,7 +31,7 @@ public class MapXMLExporter {
     
     public static void export(
             String fname,
-            Map map,
+            MapView map,
             Point robotPosition,
             float robotHeadingDegrees,
             List<Point> footsteps,
@@ -141,7 +141,7 @@ public class MapXMLExporter {
     /**
      * Add a <zone> tag.
      */
-    private static void addZone(Element e, Map map, String name, Map.Property prop) throws Error {
+    private static void addZone(Element e, MapView map, String name, Map.Property prop) throws Error {
         List<List<Point>> zoneRegions = getRegions(map, prop);
         for (List<Point> region : zoneRegions) {
             Element zone = e.getOwnerDocument().createElement("zone");
@@ -154,7 +154,7 @@ public class MapXMLExporter {
     /**
      * Get the regions using the current region draw method.
      */
-    private static List<List<Point>> getRegions(Map map, Map.Property prop) throws Error {
+    private static List<List<Point>> getRegions(MapView map, Map.Property prop) throws Error {
         if (regionDrawMethod == DrawMethod.OUTLINES) {
             return getRegionOutlines(map, prop);
         } else if (regionDrawMethod == DrawMethod.SQUARES) {
@@ -166,7 +166,7 @@ public class MapXMLExporter {
     /**
      * Add <obstacle> tag to the map.
      */
-    private static void addObstacles(Element e, Map map) throws Error {
+    private static void addObstacles(Element e, MapView map) throws Error {
         List<List<Point>> obstacles = getRegions(map, Map.Property.OBSTACLE);
         for (List<Point> obstacle : obstacles) {
             addPointList(e, "obstacle", obstacle);
@@ -180,7 +180,7 @@ public class MapXMLExporter {
      * @param prop  The property to get regions for.
      * @return      A list of regions. Each region is a list of points that forms an outline for that region.
      */
-    private static List<List<Point>> getRegionOutlines(Map map, Map.Property prop) {
+    private static List<List<Point>> getRegionOutlines(MapView map, Map.Property prop) {
         // TODO
         throw new RuntimeException("getRegionOutlines() unimplemented.");
     }
@@ -192,39 +192,27 @@ public class MapXMLExporter {
      * @param prop  The property to get regions for.
      * @return      A list of regions. Each region is a list of points that forms an outline for that region.
      */
-    private static List<List<Point>> getRegionSquares(Map map, Map.Property prop) {
+    private static List<List<Point>> getRegionSquares(MapView map, Map.Property prop) {
         // Iterate over the map. For each grid square that is occupied by the given property,
         // generate a square wrapping that grid element.
         final float eps = 0.00001f;
         List<List<Point>> regions = new ArrayList<List<Point>>();
-        for (int row = 0; row < map.rows(); row += 1) {
-            for (int col = 0; col < map.columns(); col += 1) {
-                Map.GridLocation loc = new Map.GridLocation(row, col);
-                if (map.getProperty(loc) != prop) continue;
-                List<Point> square = new ArrayList<>(4);
-                try {
-                    Point centre = map.getCentrePoint(loc);
-                    // top-left
-                    square.add(Point.add(centre, new Point(
-                            -0.5f * map.getGridSize(),
-                            -0.5f * map.getGridSize())));
-                    // top-right
-                    square.add(Point.add(centre, new Point(
-                             0.5f * map.getGridSize() - eps,
-                            -0.5f * map.getGridSize())));
-                    // bottom-right
-                    square.add(Point.add(centre, new Point(
-                             0.5f * map.getGridSize() - eps,
-                             0.5f * map.getGridSize() - eps)));
-                    // bottom-left
-                    square.add(Point.add(centre, new Point(
-                            -0.5f * map.getGridSize(),
-                             0.5f * map.getGridSize() - eps)));
-                    regions.add(square);
-                } catch (Map.OutOfMapBoundsException e) {
-                    throw new RuntimeException(e.getMessage());
-                }
-            }
+        final float halfGrid = 0.5f * map.getGridSize();
+        byte[] raster = new byte[map.cellCount()];
+        map.copyPropertyRaster(raster, 0);
+        for (int index = 0; index < raster.length; index += 1) {
+            if (raster[index] != prop.ordinal()) continue;
+            List<Point> square = new ArrayList<>(4);
+            Point centre = map.getCentrePoint(index);
+            // top-left
+            square.add(new Point(centre.xMetres - halfGrid,       centre.yMetres - halfGrid));
+            // top-right
+            square.add(new Point(centre.xMetres + halfGrid - eps, centre.yMetres - halfGrid));
+            // bottom-right
+            square.add(new Point(centre.xMetres + halfGrid - eps, centre.yMetres + halfGrid - eps));
+            // bottom-left
+            square.add(new Point(centre.xMetres - halfGrid,       centre.yMetres + halfGrid - eps));
+            regions.add(square);
         }
         return regions;
     }
@@ -249,7 +237,7 @@ public class MapXMLExporter {
     /**
      * Get the boundary corner points from the Map.
      */
-    private static List<Point> getBoundaryPoints(Map map) {
+    private static List<Point> getBoundaryPoints(MapView map) {
         return Arrays.asList(
                 map.topLeft(),
                 new Point( map.topLeft().xMetres,  map.topLeft().yMetres),
@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-size 2D storage container of primitive floats, stored in a
+ * memory-mapped file rather than on the Java heap. Matrices are zero-indexed.
+ * The values survive the process, so a map can be reopened after a restart,
+ * and other processes can map the same file to read it while it is written.
+ *
+ * A file holds several matrices of the same size, laid out as:
+ *     bytes 0-63:  header; little-endian int magic ("MAP1"), int height,
+ *                  int width, float grid size, int matrix count, then zeros.
+ *     bytes 64-:   each matrix in turn, height * width little-endian floats
+ *                  in row-major order.
+ * @author jkortman
+ */
+public class MappedFloatMatrix implements MapLayer {
+    /**
+     * Default constructor is disallowed; Matrices must be opened from a file.
+     */
+    @SuppressWarnings("unused")
+    private MappedFloatMatrix() {}
+    
+    /**
+     * Create a matrix over part of a mapped file.
+     * @param buffer    the mapped bytes holding the matrix.
+     * @param height    the number of rows in the matrix.
+     * @param width     the number of columns in the matrix.
+     */
+    private MappedFloatMatrix(MappedByteBuffer buffer, int height, int width) {
+        this.buffer = buffer;
+        this.height = height;
+        this.width = width;
+        this.storage = buffer.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+    
+    /**
+     * Open the matrices stored in a file, creating the file if it does not
+     * exist or is empty. New files have every element set to 0.0.
+     * @param file      the file to map.
+     * @param gridSize  the grid size recorded in the header, in metres.
+     * @param height    the number of rows in each matrix.
+     * @param width     the number of columns in each matrix.
+     * @param count     the number of matrices in the file.
+     * @return          the mapped matrices, in file order.
+     * @throws IOException if the file cannot be mapped, or holds matrices of
+     *                     a different size or grid size.
+     */
+    public static MappedFloatMatrix[] open(File file, float gridSize, int height, int width, int count)
+            throws IOException {
+        if (width < 1 || height < 1 || count < 1) {
+            throw new IllegalArgumentException();
+        }
+        long matrixBytes = (long)height * width * 4;
+        if (matrixBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Matrix too large to map");
+        }
+        MappedFloatMatrix[] matrices = new MappedFloatMatrix[count];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (raf.length() == 0) {
+                header.putInt(magic).putInt(height).putInt(width).putFloat(gridSize).putInt(count);
+                header.rewind();
+                channel.write(header, 0);
+                // Extending the file fills it with zeros.
+                raf.setLength(headerBytes + matrixBytes * count);
+            } else {
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() < headerBytes
+                        || header.getInt() != magic
+                        || header.getInt() != height
+                        || header.getInt() != width
+                        || header.getFloat() != gridSize
+                        || header.getInt() != count
+                        || raf.length() < headerBytes + matrixBytes * count) {
+                    throw new IOException(String.format(
+                            "%s does not hold %d %dx%d matrices with grid size %f",
+                            file, count, height, width, gridSize));
+                }
+            }
+            // The mappings stay valid after the channel is closed.
+            for (int i = 0; i < count; i += 1) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                      headerBytes + matrixBytes * i,
+                                                      matrixBytes);
+                matrices[i] = new MappedFloatMatrix(buffer, height, width);
+            }
+        }
+        return matrices;
+    }
+    
+    /**
+     * Set an element in the matrix.
+     * @param row   the row/vertical position of the element to set.
+     * @param col   the column/horizontal position of the element to set.
+     * @param value the value to set the element to at the specified position.
+     */
+    public void set(int row, int col, float value) {
+        storage.put(row * width + col, value);
+    }
+    
+    /**
+     * Set an element in the matrix by its row-major index.
+     * @param index the element index, row * width + col.
+     * @param value the value to set the element to.
+     */
+    public void set(int index, float value) {
+        storage.put(index, value);
+    }
+    
+    /**
+     * Retrieve a value from the matrix at a position.
+     * @param row   the row/vertical position of the element to get.
+     * @param col   the column/horizontal position of the element to get.
+     * @return      the value at the specified position.
+     */
+    public float get(int row, int col) {
+        return storage.get(row * width + col);
+    }
+    
+    /**
+     * Retrieve a value from the matrix by its row-major index.
+     * @param index the element index, row * width + col.
+     * @return      the value at the specified index.
+     */
+    public float get(int index) {
+        return storage.get(index);
+    }
+    
+    /**
+     * Copy a rectangular region of the matrix into an array, row by row.
+     * @param row    the first row of the region.
+     * @param col    the first column of the region.
+     * @param height the number of rows in the region.
+     * @param width  the number of columns in the region.
+     * @param dest   the array to copy into.
+     * @param offset the position in dest of the first copied element.
+     */
+    public void copyRegion(int row, int col, int height, int width, float[] dest, int offset) {
+        // Bulk get through a duplicate, so the shared buffer position is untouched.
+        FloatBuffer view = storage.duplicate();
+        for (int i = 0; i < height; i += 1) {
+            view.position((row + i) * this.width + col);
+            view.get(dest, offset + i * width, width);
+        }
+    }
+    
+    /**
+     * Write any changes to the matrix out to the file.
+     */
+    public void force() {
+        buffer.force();
+    }
+    
+    /**
+     * Get the height of the matrix.
+     * @return the height (number of rows) in the matrix.
+     */
+    public int height() {
+        return height;
+    }
+    
+    /**
+     * Get the width of the matrix.
+     * @return the width (number of columns) in the matrix.
+     */
+    public int width() {
+        return width;
+    }
+    
+    // File layout.
+    private static final int magic = 0x3150414D; // "MAP1" when read little-endian.
+    private static final int headerBytes = 64;
+    
+    // Internal storage details.
+    private int height;
+    private int width;
+    private MappedByteBuffer buffer;
+    private FloatBuffer storage;
+}
@@ -12,6 +12,7 @@ public class NoGoZonesMarker {
 	
 	/**
 	 * This marks the points in the map that are in the No-Go-Zones.
+	 * The zone is marked atomically (see Map.atomically).
 	 * @param start	- Upper left point of the rectangle 
 	 * @param end	- Lower right point of the rectangle
 	 */
@@ -31,15 +32,23 @@ public class NoGoZonesMarker {
 			start = end;
 			end = temp;
 		}
-		for (int row = start.row; row <= end.row; row += 1) {
-			for (int col = start.col; col <= end.col; col += 1) {
-				Map.GridLocation gridLoc = new Map.GridLocation(row, col);
-				try {
-					map.set(Map.Property.NO_GO_ZONE, gridLoc, 1.0f);
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("The grid location %s is out of bounds\n", gridLoc);
+		final Map.GridLocation first = start;
+		final Map.GridLocation last = end;
+		// Mark the whole zone as one update, so other writers and snapshots
+		// of a concurrent map never see it partly marked.
+		map.atomically(new Runnable() {
+			public void run() {
+				for (int row = first.row; row <= last.row; row += 1) {
+					for (int col = first.col; col <= last.col; col += 1) {
+						Map.GridLocation gridLoc = new Map.GridLocation(row, col);
+						try {
+							map.set(Map.Property.NO_GO_ZONE, gridLoc, 1.0f);
+						} catch (Map.OutOfMapBoundsException e) {
+							System.err.printf("The grid location %s is out of bounds\n", gridLoc);
+						}
+					}
 				}
 			}
-		}
+		});
 	}
 }
@@ -4,28 +4,26 @@ import java.util.List;
 /**
  * A class that implements the A* algorithm in finding a path from the current position of the robot to
  * a given point on the map.
+ * The open list is an indexed binary heap of cell indices (see IndexedMinHeap), and costs,
+ * parents and the closed list are kept in arrays indexed by cell in a reused PlannerWorkspace,
+ * so a search costs O(n log n) in the number of cells expanded and allocates almost nothing.
  * @author ravilim
  *
  */
 
-public class PathFinding {
+public class PathFinding implements GridPlanner {
 	/**
 	 * The map
 	 */
 	public Map map;
 	/**
-	 * A list containing nodes that are not visited but adjacent to visited nodes
+	 * The distance, in grid cells, that every node on the path must keep from impassable areas
 	 */
-	private List<PathNode> waitingList;
-	/**
-	 * A list containing nodes that were already visited
-	 */
-	private List<PathNode> accessedList;
+	private int distanceFromPoint;
 	/**
-	 * Path finding done
+	 * The search state, reused between searches
 	 */
-	private boolean done = false;
-	private int distanceFromPoint;
+	private PlannerWorkspace workspace;
 	
 	public PathFinding(Map map) {
 		this.map = map;
@@ -55,352 +53,111 @@ public class PathFinding {
 	 * @return The found path(if a path exists the found path will have a size greater than 0)
 	 */
 	public List<PathNode> searchPath(PathNode p1, PathNode p2) {
-		waitingList  = new LinkedList<PathNode>();
-		accessedList = new LinkedList<PathNode>();
-
-		waitingList.add(p1); // add starting list to waiting list
-
-		PathNode currentNode;
-		done = false;
-		while (!done) { //TODO: Robot need to go to the next position
-			if (waitingList.isEmpty()) {
-				return new LinkedList<PathNode>();
-			}
-			currentNode = lowestfCosts(); // get node with lowest fCosts from waitingList
-			accessedList.add(currentNode); // add current node to accessedList
-			waitingList.remove(currentNode); // delete current node from waitingList
+		int start = map.index((int)p1.xMetres, (int)p1.yMetres);
+		int goal = map.index((int)p2.xMetres, (int)p2.yMetres);
+		return toPathNodes(p1, searchPath(start, goal));
+	}
+	
+	/**
+	 * This method searches for a path between two cells. The search state is kept in a
+	 * reused PlannerWorkspace, so back-to-back searches allocate only the returned path.
+	 * @param start	- The cell index of the origin
+	 * @param goal	- The cell index of the destination
+	 * @return		- The cell indices of the path from start to goal inclusive, or an empty
+	 * 				  array if no path exists or the thread is interrupted
+	 */
+	public int[] searchPath(int start, int goal) {
+		PlannerWorkspace workspace = workspace();
+		IndexedMinHeap waiting = workspace.open();	// Cells adjacent to visited cells, by fCosts
+		TraversabilityLayer traversable = map.traversability(distanceFromPoint);
+		
+		workspace.reset();
+		workspace.reach(start, 0.0f, -1, hCosts(start, goal));
+		waiting.push(start, workspace.hCost(start), workspace.hCost(start));
+		while (!waiting.isEmpty()) {
+			if (Thread.currentThread().isInterrupted()) {	// cancelled, e.g. by PlanningService.cancel()
+				break;
+			}
+			int current = waiting.pop();	// get cell with lowest fCosts
+			if (current == goal) {			// found goal
+				return workspace.path(goal);
+			}
+			workspace.close(current);
 			
-			if ((currentNode.xMetres == p2.xMetres)
-					&& (currentNode.yMetres == p2.yMetres)) { // found goal
-				return returnPath(p1, currentNode);
-			}
-
-			//for all adjacent nodes
-			List<PathNode> adjacentNodes = getAdjacent(currentNode);
-			currentNode.setAdjacentNodes(adjacentNodes);
-			for (int i = 0; i < adjacentNodes.size(); i++) {
-				PathNode currentAdj = adjacentNodes.get(i);
-				if (!waitingList.contains(currentAdj)) { // node is not in waiting 
-					currentAdj.setPrevious(currentNode); // set current node as previous
-					currentAdj.sethCosts((PathNode)p2); // set hCosts of this node(estimated costs to goal)
-					currentAdj.setgCosts(currentNode); // set gCosts of current node(costs from start to current node)
-					waitingList.add(currentAdj); // add node to waiting list
-				}
-				else { // node is in waiting list
-					if (currentAdj.getgCosts() > currentAdj.calculategCosts(currentNode)) { //costs from current node is lower than previous costs
-						currentAdj.setPrevious(currentNode); // set current node as previous for this node 
-						currentAdj.setgCosts(currentNode); // set gCosts of current node(costs from start to current node)
-					}
-
+			//for all adjacent cells
+			for (int direction = 0; direction < Map.neighbourCount; direction++) {
+				int adjacent = map.neighbour(current, direction);
+				if (adjacent < 0 || workspace.isClosed(adjacent) || !traversable.isTraversable(adjacent)) {
+					continue;
 				}
-				if (waitingList.isEmpty()) { // no path exists
-					return new LinkedList<PathNode>(); //return empty list
+				float costs = workspace.gCost(current) + (Map.isDiagonal(direction)
+						? PathNode.diagonallyMovementCost : PathNode.sideWaysMovementCost);
+				if (workspace.gCost(adjacent) <= costs) {
+					continue;		// the cell was already reached at a lower cost
 				}
+				float h = workspace.isReached(adjacent) ? workspace.hCost(adjacent) : hCosts(adjacent, goal);
+				workspace.reach(adjacent, costs, current, h);
+				waiting.push(adjacent, costs + h, h);	// Among equal fCosts, prefer the cell closest to the goal
 			}
 		}
 		
-		return null;
+		return new int[0];	// no path exists
 	}
 	
 	/**
-	 * Calculates the found path between two points
-	 * @param start
-	 * @param goal
-	 * @return
+	 * The estimated costs from a cell to the goal: the straight-line distance in cells.
 	 */
-	private List<PathNode> returnPath(PathNode start, PathNode goal) {
-
-		LinkedList<PathNode> path = new LinkedList<PathNode>();
-		PathNode temp = goal;
-
-		boolean done = false;
-		while(!done) { // If there are invalid node in the list, it will result in an infinite loop
-			path.addFirst(temp);
-			temp = temp.getPrevious();
-
-			if (temp.equals(start)) {
-				done = true;
-			}
-		}
-		return path;
+	private float hCosts(int cell, int goal) {
+		int dRow = map.rowOf(cell) - map.rowOf(goal);
+		int dCol = map.colOf(cell) - map.colOf(goal);
+		return (float)Math.sqrt(dRow * dRow + dCol * dCol);
 	}
 	
 	/**
-	 * returns the node with the lowest fCosts in the waiting list.
+	 * Get the workspace for searches on the map, replacing it if the map has changed size.
 	 */
-	private PathNode lowestfCosts() {
-		PathNode lowest = waitingList.get(0);
-		for (int i = 0; i < waitingList.size(); i++) {
-			if (Float.compare(waitingList.get(i).getfCosts(), lowest.getfCosts()) <= 0) {
-				lowest = waitingList.get(i);
-			}
+	private PlannerWorkspace workspace() {
+		if (workspace == null || workspace.capacity() != map.cellCount()) {
+			workspace = new PlannerWorkspace(map.cellCount());
 		}
-		return lowest;
+		return workspace;
+	}
+	
+	/**
+	 * Converts a path of cell indices to the nodes of the path, as returned by searchPath.
+	 * The start node is not included in the path, unless it is also the goal. The nodes
+	 * are linked to the node before them with setPrevious, starting from the start node.
+	 * @param start	- The start node
+	 * @param path	- The cell indices of the path from start to goal inclusive
+	 * @return		- The path nodes, or an empty list if the path is empty
+	 */
+	public List<PathNode> toPathNodes(PathNode start, int[] path) {
+		LinkedList<PathNode> nodes = new LinkedList<PathNode>();
+		PathNode before = start;
+		for (int i = path.length > 1 ? 1 : 0; i < path.length; i++) {
+			PathNode node = new PathNode(map.rowOf(path[i]), map.colOf(path[i]));
+			node.setIsDiagonally(node.xMetres != before.xMetres && node.yMetres != before.yMetres);
+			node.setPrevious(before);
+			node.setgCosts(before);
+			nodes.add(node);
+			before = node;
+		}
+		return nodes;
 	}
 	
 	/**
 	 * Checks surroundings of a particular point if they are blocked or inside
-	 * an impassable area. It checks for points above, below, left and right
-	 * to the point.
+	 * an impassable area: every cell within distanceFromPoint cells of the
+	 * point must be walkable. This is one bit test in the map's traversability
+	 * layer for that radius (see Map.traversability), which the map keeps up
+	 * to date as cells change.
 	 * @param node				- A particular point to where it's 
 	 * 							  surrounding is checked
-	 * @param distanceFromPoint	- The distance from the point to the
-	 * 							  edge of the surrounding that is examined
 	 * @return					- True if it's surrounding is clear
 	 */
 	public boolean checkSurroundings(PathNode node) {
-		if (!checkXYDirection(node) || !checkDiagonalDirection(node)) {
-			return false;
-		}
-		return true;
-	}
-	
-	/**
-	 * Check the surroundings along the diagonal directions
-	 * (i.e. upper right and left; bottom right and left) of 
-	 * the point.
-	 * @param node	- A particular node on where it's 
-	 * 				  surrounding is checked
-	 * @return		- True if it's upper right and left; 
-	 * 				  bottom right and left surroundings
-	 * 				  are clear
-	 */
-	private boolean checkDiagonalDirection(PathNode node) {
-		boolean clearFlag = true;
-		if (node.xMetres <= map.columns() - distanceFromPoint - 1 && 
-				node.yMetres <= map.rows() - distanceFromPoint - 1) {	// Check upper right diagonal
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(node.xMetres + distance, node.yMetres + distance);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		if (node.xMetres >= distanceFromPoint &&
-				node.yMetres <= map.rows() - distanceFromPoint - 1) {	// Check upper left diagonal
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(node.xMetres - distance, node.yMetres + distance);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		if (node.xMetres >= distanceFromPoint && 
-				node.yMetres >= distanceFromPoint) {						// Check bottom left diagonal
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(node.xMetres - distance, node.yMetres - distance);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		if (node.xMetres <= map.columns() - distanceFromPoint - 1 && 
-				node.yMetres >= distanceFromPoint) {						// Check bottom right diagonal
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-				PathNode loc = new PathNode(node.xMetres + distance, node.yMetres - distance);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		return clearFlag;
-	}
-	
-	/**
-	 * Check the surroundings along the X(left and right) and Y(up and below) direction.
-	 * @param node	- A particular node on where it's 
-	 * 				  surrounding is checked
-	 * @return		- True if it's X and Y surroundings
-	 * 				  are clear
-	 */
-	private boolean checkXYDirection(PathNode node) {
-		boolean clearFlag = true;
-		if (node.xMetres >= distanceFromPoint) {		// Check grid to the left of the node
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-//				PathNode loc = new PathNode(node.xMetres - distanceFromPoint, node.yMetres);
-				PathNode loc = new PathNode(node.xMetres - distance, node.yMetres);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		if (node.xMetres <= map.columns() - distanceFromPoint - 1) {		// Check grid to the right of the node
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-//				PathNode loc = new PathNode(node.xMetres + distanceFromPoint, node.yMetres);
-				PathNode loc = new PathNode(node.xMetres + distance, node.yMetres);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		if (node.yMetres >= distanceFromPoint) {		// Check grid below the node
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-//				PathNode loc = new PathNode(node.xMetres, node.yMetres - distanceFromPoint);
-				PathNode loc = new PathNode(node.xMetres, node.yMetres - distance);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		if (node.yMetres <= map.rows() - distanceFromPoint - 1) {		// Check grid above the node
-			for (int distance = 1; distance <= distanceFromPoint; distance++) {
-//				PathNode loc = new PathNode(node.xMetres, node.yMetres + distanceFromPoint);
-				PathNode loc = new PathNode(node.xMetres, node.yMetres + distance);
-				try {
-					if (!isWalkable(loc)) {
-						clearFlag = false;
-					}
-				} catch (Map.OutOfMapBoundsException e) {
-					System.err.printf("Point %s is out of bounds%n", loc);
-				}
-			}
-		}
-		return clearFlag;
-	}
-	
-	/**
-	 * Return a linked list with nodes adjacent to the given node
-	 */
-	private List<PathNode> getAdjacent(PathNode node) {
-		float x = node.xMetres;
-		float y = node.yMetres;
-		List<PathNode> adj = new LinkedList<PathNode>();
-
-		PathNode temp;
-		try {
-			if (x > 0) {
-				temp = new PathNode((x - 1.0f), y);
-				temp.setWalkable(checkSurroundings(temp));
-				if (temp.isWalkable() && !accessedList.contains(temp)) {
-					temp.setIsDiagonally(false);
-					adj.add(temp);
-				}
-			}
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-		
-		try {
-			if (x < map.columns()-1) {
-				temp = new PathNode((x + 1.0f), y);
-				temp.setWalkable(checkSurroundings(temp));
-				if (temp.isWalkable() && !accessedList.contains(temp)) {
-					temp.setIsDiagonally(false);
-					adj.add(temp);
-				}
-			}
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-		
-		try {
-			if (y > 0) {
-				temp = new PathNode(x, (y - 1.0f));
-				temp.setWalkable(checkSurroundings(temp));
-				if (temp.isWalkable() && !accessedList.contains(temp)) {
-					temp.setIsDiagonally(false);
-					adj.add(temp);
-				}
-			}
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-
-		try {
-			if (y < map.rows()-1) {
-				temp = new PathNode(x, (y + 1.0f));
-				temp.setWalkable(checkSurroundings(temp));
-				if (temp.isWalkable() && !accessedList.contains(temp)) {
-					temp.setIsDiagonally(false);
-					adj.add(temp);
-				}
-			}
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-		
-		// DIAGONAL CASE
-		try {
-			if (x < map.columns()-1 && y < map.rows()-1) {
-				temp = new PathNode((x + 1), (y + 1));
-				temp.setWalkable(checkSurroundings(temp));
-	            if (temp.isWalkable() && !accessedList.contains(temp)) {
-	                temp.setIsDiagonally(true);
-	                adj.add(temp);
-	            }
-	        }
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-        		
-		try {
-			if (x > 0 && y > 0) {
-				temp = new PathNode((x - 1), (y - 1));
-				temp.setWalkable(checkSurroundings(temp));
-				if (temp.isWalkable() && !accessedList.contains(temp)) {
-	                temp.setIsDiagonally(true);
-	                adj.add(temp);
-	            }
-			}
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-		
-		try {
-			if (x > 0 && y < map.rows()-1) {
-				temp = new PathNode((x - 1), (y + 1));
-				temp.setWalkable(checkSurroundings(temp));
-				if (temp.isWalkable() && !accessedList.contains(temp)) {
-	                temp.setIsDiagonally(true);
-	                adj.add(temp);
-	            }
-			}
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-		 
-		try {
-			if (x < map.columns()-1 && y > 0) {
-				temp = new PathNode((x + 1), (y - 1));
-				temp.setWalkable(checkSurroundings(temp));
-				if (temp.isWalkable() && !accessedList.contains(temp)) {
-	                temp.setIsDiagonally(true);
-	                adj.add(temp);
-	            }
-			}
-		} catch (Exception e) {
-			System.err.println("Out of bounds");
-		}
-		
-        return adj;
+		int index = map.index((int)node.xMetres, (int)node.yMetres);
+		return map.traversability(distanceFromPoint).isTraversable(index);
 	}
 	
 	/**
@@ -419,23 +176,20 @@ public class PathFinding {
 	 * @return - True if node is walkable, otherwise false
 	 */
 	public boolean isWalkable(PathNode node) throws Map.OutOfMapBoundsException {
-		Map.GridLocation loc = new Map.GridLocation((int)node.xMetres, (int)node.yMetres);
-		boolean walkable = true;
-		float obstacleProb;
-		float craterProb;
-		float noGoZoneProb;
-		obstacleProb = map.get(Map.Property.OBSTACLE, loc);
-		craterProb = map.get(Map.Property.CRATER, loc);
-		noGoZoneProb = map.get(Map.Property.NO_GO_ZONE, loc);
-		if (Float.compare(obstacleProb, 0.5f) > 0 || 
-			Float.compare(craterProb, 0.5f) > 0 ||
-			Float.compare(noGoZoneProb, 0.5f) > 0) {
-			walkable = false;
+		int row = (int)node.xMetres;
+		int col = (int)node.yMetres;
+		if (map.isOutOfBounds(row, col)) {
+			throw new Map.OutOfMapBoundsException();
 		}
-//		if (map.distanceToNearestObstacle(node, Robot.maximumRadiusFromCentre)
-//		        < Robot.maximumRadiusFromCentre) {
-//		    return false;
-//		}
-		return walkable;
+		return isWalkable(map.index(row, col));
+	}
+	
+	/**
+	 * Returns true if the cell at a packed map index is walkable.
+	 * @param index - The cell index, which must be inside the map
+	 * @return - True if the cell is walkable, otherwise false
+	 */
+	private boolean isWalkable(int index) {
+		return !map.isBlocked(index);
 	}
 }
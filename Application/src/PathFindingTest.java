@@ -363,6 +363,36 @@ public class PathFindingTest {
 		}
 	}
 	
+	/**
+	 * Back-to-back searches reuse the search state, so a search must not
+	 * see anything left over from the previous one.
+	 */
+	@Test
+	public void testRepeatedSearches() {
+		pathFinding.setDistanceFromPoint(distanceFromPoint);
+		int start = map.index(10, 10);
+		int goal = map.index(100, 80);
+		int[] first = pathFinding.searchPath(start, goal);
+		assertArrayEquals(first, pathFinding.searchPath(start, goal));
+		assertEquals(start, first[0]);
+		assertEquals(goal, first[first.length - 1]);
+		// Wall off the goal, then open it again.
+		for (int row = 90; row < map.rows(); row++) {
+			map.set(Map.Property.OBSTACLE, map.index(row, 70), 1.0f);
+		}
+		for (int col = 70; col < map.columns(); col++) {
+			map.set(Map.Property.OBSTACLE, map.index(90, col), 1.0f);
+		}
+		assertEquals(0, pathFinding.searchPath(start, goal).length);
+		assertEquals(0, pathFinding.searchPath(new PathNode(10, 10), new PathNode(100, 80)).size());
+		map.set(Map.Property.OBSTACLE, map.index(90, 100), 0.0f);
+		pathFinding.setDistanceFromPoint(0);
+		int[] around = pathFinding.searchPath(start, goal);
+		assertTrue(around.length > 0);
+		assertArrayEquals(around, new PathFinding(map).searchPath(start, goal));
+		assertEquals(start, pathFinding.searchPath(start, start)[0]);
+	}
+	
 	/**
 	 * Assert if the found path doesn't include any grid that has 
 	 * obstacle or part of a crater
@@ -0,0 +1,179 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+/**
+ * Fixtures and assertions shared by the GridPlanner tests: maps with random
+ * straight walls, random trials on them, and checks of paths against the
+ * rules of GridPlanner and against PathFinding's lowest-cost paths.
+ * @author jkortman
+ */
+public class PlannerTestSupport {
+    /**
+     * Default constructor is disallowed; this class is not instantiated.
+     */
+    @SuppressWarnings("unused")
+    private PlannerTestSupport() {}
+    
+    /**
+     * Random trials of a planner, each on a map with random walls, with a
+     * random clearance and some random queries. Each query is checked against
+     * the lowest-cost path PathFinding finds for it.
+     * @param <P> the type of planner
+     */
+    abstract static class Trials<P extends GridPlanner> {
+        /**
+         * Create trials on maps with random walls.
+         * @param random    the source of the maps and queries
+         * @param rows      the number of rows in the maps
+         * @param cols      the number of columns in the maps
+         * @param walls     the number of walls in each map
+         * @param maxLength the longest a wall may be, in cells
+         */
+        Trials(Random random, int rows, int cols, int walls, int maxLength) {
+            this.random = random;
+            this.rows = rows;
+            this.cols = cols;
+            this.walls = walls;
+            this.maxLength = maxLength;
+        }
+        
+        /**
+         * Create the planner for a trial's map.
+         */
+        abstract P create(Map map);
+        
+        /**
+         * Search with the planner for a query, and check its path.
+         * @param lowest the lowest-cost path, or an empty array if no path exists
+         */
+        abstract void check(P planner, Map map, int clearance, int start, int goal, int[] lowest);
+        
+        /**
+         * Run the trials.
+         * @param trials  the number of maps
+         * @param queries the number of queries on each map
+         */
+        void run(int trials, int queries) {
+            for (int trial = 0; trial < trials; trial += 1) {
+                Map map = mapWithWalls(random, rows, cols, walls, maxLength);
+                int clearance = randomClearance(random);
+                P planner = create(map);
+                planner.setDistanceFromPoint(clearance);
+                for (int query = 0; query < queries; query += 1) {
+                    int start = random.nextInt(map.cellCount());
+                    int goal = random.nextInt(map.cellCount());
+                    check(planner, map, clearance, start, goal, lowestCostPath(map, clearance, start, goal));
+                }
+            }
+        }
+        
+        // The source of the maps and queries, and the size of the maps and their walls.
+        protected final Random random;
+        private final int rows;
+        private final int cols;
+        private final int walls;
+        private final int maxLength;
+    }
+    
+    /**
+     * Create a map with some random straight walls.
+     * @param random    the source of the walls
+     * @param rows      the number of rows in the map
+     * @param cols      the number of columns in the map
+     * @param count     the number of walls
+     * @param maxLength the longest a wall may be, in cells
+     */
+    static Map mapWithWalls(Random random, int rows, int cols, int count, int maxLength) {
+        Map map = new Map(0.02f, rows, cols);
+        addWalls(map, random, count, maxLength, 1.0f);
+        return map;
+    }
+    
+    /**
+     * Set the obstacle value of the cells of some random straight walls, to
+     * add walls (1.0) or clear cells (0.0).
+     * @param map       the map to change
+     * @param random    the source of the walls
+     * @param count     the number of walls
+     * @param maxLength the longest a wall may be, in cells
+     * @param value     the obstacle value to set
+     */
+    static void addWalls(Map map, Random random, int count, int maxLength, float value) {
+        for (int i = 0; i < count; i += 1) {
+            int row = random.nextInt(map.rows());
+            int col = random.nextInt(map.columns());
+            int length = 1 + random.nextInt(maxLength);
+            boolean vertical = random.nextBoolean();
+            for (int j = 0; j < length; j += 1) {
+                int r = vertical ? row + j : row;
+                int c = vertical ? col : col + j;
+                if (!map.isOutOfBounds(r, c)) map.set(Map.Property.OBSTACLE, map.index(r, c), value);
+            }
+        }
+    }
+    
+    /**
+     * Pick one of the clearances planners are tested with, from 0 to 2 cells.
+     */
+    static int randomClearance(Random random) {
+        return random.nextInt(3);
+    }
+    
+    /**
+     * Find a path of the lowest cost with PathFinding, for comparison.
+     * @return the path, or an empty array if no path exists
+     */
+    static int[] lowestCostPath(Map map, int clearance, int start, int goal) {
+        PathFinding aStar = new PathFinding(map);
+        aStar.setDistanceFromPoint(clearance);
+        return aStar.searchPath(start, goal);
+    }
+    
+    /**
+     * Assert that a planner's path is valid and of the lowest cost, or that it
+     * is empty if and only if no path exists.
+     */
+    static void assertLowestCost(Map map, int clearance, int start, int goal, int[] path) {
+        assertLowestCost(map, clearance, start, goal, lowestCostPath(map, clearance, start, goal), path);
+    }
+    
+    /**
+     * Assert that a planner's path is valid and costs the same as the
+     * lowest-cost path, or that both are empty.
+     */
+    static void assertLowestCost(Map map, int clearance, int start, int goal, int[] expected, int[] path) {
+        assertEquals(expected.length == 0, path.length == 0);
+        if (path.length == 0) return;
+        assertValidPath(map, clearance, start, goal, path);
+        assertEquals(cost(map, expected), cost(map, path), 0.0f);
+    }
+    
+    /**
+     * Assert that a path runs from start to goal through neighbouring traversable cells.
+     */
+    static void assertValidPath(Map map, int clearance, int start, int goal, int[] path) {
+        assertEquals(start, path[0]);
+        assertEquals(goal, path[path.length - 1]);
+        TraversabilityLayer traversable = map.traversability(clearance);
+        for (int i = 1; i < path.length; i += 1) {
+            assertTrue(traversable.isTraversable(path[i]));
+            assertTrue(Math.abs(map.rowOf(path[i]) - map.rowOf(path[i - 1])) <= 1);
+            assertTrue(Math.abs(map.colOf(path[i]) - map.colOf(path[i - 1])) <= 1);
+            assertNotEquals(path[i - 1], path[i]);
+        }
+    }
+    
+    /**
+     * Get the cost of a path, with PathNode's step costs.
+     */
+    static float cost(Map map, int[] path) {
+        float cost = 0.0f;
+        for (int i = 1; i < path.length; i += 1) {
+            boolean diagonal = map.rowOf(path[i]) != map.rowOf(path[i - 1])
+                            && map.colOf(path[i]) != map.colOf(path[i - 1]);
+            cost += diagonal ? PathNode.diagonallyMovementCost : PathNode.sideWaysMovementCost;
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.Arrays;
+
+/**
+ * Reusable per-cell storage for grid searches: costs, heuristics, parents,
+ * a closed set and an open heap, preallocated for every cell of a map.
+ * Instead of clearing the arrays between searches, every cell carries the
+ * generation of the search that last wrote it, and reset() starts a new
+ * generation, so a reset costs O(cells still in the open heap) and
+ * back-to-back searches allocate nothing but their result path.
+ * Cells are addressed by row-major index, as for Map.index().
+ * A workspace is used by one search at a time.
+ * @author jkortman
+ */
+public class PlannerWorkspace {
+    /**
+     * Default constructor is disallowed; workspaces must have an associated size.
+     */
+    @SuppressWarnings("unused")
+    private PlannerWorkspace() {}
+    
+    /**
+     * Create a workspace for searches over a number of cells.
+     * @param cellCount the number of cells, e.g. Map.cellCount()
+     */
+    public PlannerWorkspace(int cellCount) {
+        if (cellCount < 1) {
+            throw new IllegalArgumentException();
+        }
+        gCosts = new float[cellCount];
+        hCosts = new float[cellCount];
+        parents = new int[cellCount];
+        reachedStamps = new int[cellCount];
+        closedStamps = new int[cellCount];
+        open = new IndexedMinHeap(cellCount);
+        generation = 1;
+    }
+    
+    /**
+     * Get the number of cells the workspace can hold.
+     */
+    public int capacity() {
+        return gCosts.length;
+    }
+    
+    /**
+     * Forget every cell, to start a new search.
+     */
+    public void reset() {
+        open.clear();
+        generation += 1;
+        if (generation == 0) {
+            // The stamps have wrapped around; clear them once.
+            Arrays.fill(reachedStamps, 0);
+            Arrays.fill(closedStamps, 0);
+            generation = 1;
+        }
+    }
+    
+    /**
+     * Get the open heap of the current search. It is cleared by reset().
+     */
+    public IndexedMinHeap open() {
+        return open;
+    }
+    
+    /**
+     * Check whether a cell has been reached in the current search.
+     */
+    public boolean isReached(int cell) {
+        return reachedStamps[cell] == generation;
+    }
+    
+    /**
+     * Record the cost of reaching a cell and the cell it was reached from.
+     * The heuristic is kept from when the cell was first reached.
+     * @param cell   the cell
+     * @param gCost  the cost from the start to the cell
+     * @param parent the cell it was reached from, or -1 for the start
+     * @param hCost  the estimated cost from the cell to the goal, used if the
+     *               cell has not been reached before
+     */
+    public void reach(int cell, float gCost, int parent, float hCost) {
+        if (reachedStamps[cell] != generation) {
+            reachedStamps[cell] = generation;
+            hCosts[cell] = hCost;
+        }
+        gCosts[cell] = gCost;
+        parents[cell] = parent;
+    }
+    
+    /**
+     * Get the cost from the start to a cell.
+     * @return the cost, or Float.MAX_VALUE if the cell has not been reached
+     */
+    public float gCost(int cell) {
+        return isReached(cell) ? gCosts[cell] : Float.MAX_VALUE;
+    }
+    
+    /**
+     * Get the estimated cost from a reached cell to the goal.
+     */
+    public float hCost(int cell) {
+        return hCosts[cell];
+    }
+    
+    /**
+     * Get the cell a reached cell was reached from, or -1 for the start.
+     */
+    public int parent(int cell) {
+        return parents[cell];
+    }
+    
+    /**
+     * Check whether a cell has been closed (expanded) in the current search.
+     */
+    public boolean isClosed(int cell) {
+        return closedStamps[cell] == generation;
+    }
+    
+    /**
+     * Close a cell, so it is not expanded again in the current search.
+     */
+    public void close(int cell) {
+        closedStamps[cell] = generation;
+    }
+    
+    /**
+     * Get the path to a reached cell, by following its parents back to the start.
+     * @param goal the cell the path ends at
+     * @return     the cells of the path, from the start to goal inclusive
+     */
+    public int[] path(int goal) {
+        int length = 0;
+        for (int cell = goal; cell >= 0; cell = parents[cell]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        for (int cell = goal; cell >= 0; cell = parents[cell]) {
+            length -= 1;
+            path[length] = cell;
+        }
+        return path;
+    }
+    
+    // Per-cell search state; only valid where the cell's stamp is the
+    // current generation.
+    private float[] gCosts;
+    private float[] hCosts;
+    private int[] parents;
+    private int[] reachedStamps;
+    private int[] closedStamps;
+    private int generation;
+    // The open cells of the current search.
+    private IndexedMinHeap open;
+}
@@ -0,0 +1,334 @@
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Finds paths on a thread of its own, so the Handler keeps processing robot
+ * messages and UI events, including an emergency stop, while a path is being
+ * found.
+ * Paths are found against MapSnapshots, never the live map. The service keeps
+ * a copy of the blocking properties of the map, brings it up to date with the
+ * tiles that changed since the last snapshot it planned on, and runs its own
+ * DecisionMaker on the copy, so the planners' state stays on the planning
+ * thread. plan() returns a Future of the path, to be polled by the caller, and
+ * cancels the request before it: only the newest destination is planned for.
+ * With the anytime planner (see AnytimePlanner) the Future is done as soon as
+ * a first path is found, which may cost more than the lowest; the search then
+ * carries on, and each better path it finds is handed over through
+ * takeImprovedPlan(). With the FLOW_FIELD planner the flow field is built on
+ * the planning thread too, and a copy is handed over with the path; repair()
+ * brings it up to date with a newer snapshot there, and hands over the
+ * repaired copy through takeRepairedPlan(), so the field is neither built nor
+ * repaired on the caller's thread. Requests run one at a time. A cancelled
+ * request, improvement or repair is interrupted, and stops within one
+ * expansion of its search (between slices of an anytime search), so the
+ * planning thread is soon free for the next request; its result is dropped.
+ * @author jkortman
+ */
+public class PlanningService {
+    /**
+     * A path found by the service, and the snapshot it was found on.
+     */
+    public static class Plan {
+        /**
+         * Create a plan. Plans are created by the planning thread.
+         */
+        Plan(PathNode origin, List<PathNode> path, long mapVersion, long geometryVersion, FlowField flowField) {
+            this.origin = origin;
+            this.path = path;
+            this.flowField = flowField;
+            this.mapVersion = mapVersion;
+            this.geometryVersion = geometryVersion;
+        }
+        
+        /**
+         * Check whether a path was found.
+         */
+        public boolean isFound() {
+            return !path.isEmpty();
+        }
+        
+        /**
+         * Get the grid location the path starts from.
+         */
+        public PathNode origin() {
+            return origin;
+        }
+        
+        /**
+         * Get the path, as given by DecisionMaker.getFoundPath(); empty if no
+         * path was found.
+         */
+        public List<PathNode> path() {
+            return path;
+        }
+        
+        /**
+         * Get a copy of the flow field towards the end of the path, for the
+         * caller's thread to follow, or null if there is none.
+         */
+        public FlowField flowField() {
+            return flowField;
+        }
+        
+        /**
+         * Get the version of the map snapshot the path was found on.
+         */
+        public long mapVersion() {
+            return mapVersion;
+        }
+        
+        /**
+         * Get the geometry version of the map snapshot the path was found on.
+         * The path's grid locations only hold on a map of the same geometry.
+         */
+        public long geometryVersion() {
+            return geometryVersion;
+        }
+        
+        private final PathNode origin;
+        private final List<PathNode> path;
+        private final FlowField flowField;
+        private final long mapVersion;
+        private final long geometryVersion;
+    }
+    
+    /**
+     * Create a service, with its planning thread, that finds paths with the
+     * planner in Settings.
+     */
+    public PlanningService() {
+        this(Settings.Planning.planner);
+    }
+    
+    /**
+     * Create a service, with its planning thread.
+     * @param planner the planner to find paths with
+     */
+    public PlanningService(Settings.Planning.Planner planner) {
+        this.planner = planner;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "planner");
+                // Planning must not keep the application running.
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Request a path on a snapshot of the map, cancelling any earlier request.
+     * @param snapshot   the map to plan on, e.g. Map.publishSnapshot()
+     * @param robotPos   the robot's position in metres
+     * @param robotAngle the robot's orientation in degrees, relative to the
+     *                   positive y-axis, or NaN if it is not known
+     * @param destPos    the destination
+     * @return           the path, once it has been found; the Future is
+     *                   cancelled if a newer request or cancel() comes first
+     */
+    public synchronized Future<Plan> plan(final MapSnapshot snapshot, final Point robotPos,
+                                          final float robotAngle, final Map.GridLocation destPos) {
+        cancel();
+        pending = executor.submit(new Callable<Plan>() {
+            public Plan call() {
+                return search(snapshot, robotPos, robotAngle, destPos);
+            }
+        });
+        // Runs after the search, and is cancelled along with it.
+        improving = executor.submit(new Runnable() {
+            public void run() {
+                improve();
+            }
+        });
+        return pending;
+    }
+    
+    /**
+     * Take the latest better path found for the latest request since the last
+     * call, if there is one. Only the anytime planner finds better paths.
+     * @return the better plan, or null if there is none
+     */
+    public Plan takeImprovedPlan() {
+        return improved.getAndSet(null);
+    }
+    
+    /**
+     * Request a repair of the latest request's flow field on a newer snapshot
+     * of the map, unless a repair is still running or the field has already
+     * been repaired on the snapshot. It runs after the request, and is
+     * cancelled along with it.
+     * @param snapshot the map to repair the field on, e.g. Map.snapshot()
+     */
+    public synchronized void repair(final MapSnapshot snapshot) {
+        if (snapshot == repairSnapshot || (repairing != null && !repairing.isDone())) {
+            return;
+        }
+        repairSnapshot = snapshot;
+        repairing = executor.submit(new Runnable() {
+            public void run() {
+                repairFlowField(snapshot);
+            }
+        });
+    }
+    
+    /**
+     * Take the latest repaired flow field for the latest request since the
+     * last call, if there is one.
+     * @return the plan the field was repaired for, with the snapshot it was
+     *         repaired on, or null if there is none
+     */
+    public Plan takeRepairedPlan() {
+        return repaired.getAndSet(null);
+    }
+    
+    /**
+     * Cancel the latest request, its search for better paths and the repair
+     * of its flow field, if they are not done yet.
+     */
+    public synchronized void cancel() {
+        if (pending != null) {
+            pending.cancel(true);
+            improving.cancel(true);
+            pending = null;
+            improving = null;
+        }
+        if (repairing != null) {
+            repairing.cancel(true);
+            repairing = null;
+        }
+        repairSnapshot = null;
+        improved.set(null);
+        repaired.set(null);
+    }
+    
+    /**
+     * Cancel the latest request, and stop the planning thread.
+     */
+    public synchronized void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Find a path on the planning thread. An anytime search is only carried
+     * on until it finds a first path; see improve().
+     * @return the plan, or null if the request was cancelled
+     */
+    private Plan search(MapSnapshot snapshot, Point robotPos, float robotAngle, Map.GridLocation destPos) {
+        planned = null;
+        if (!copy(snapshot)) return null;
+        Map.GridLocation loc = snapshot.getGridLocation(robotPos);
+        PathNode origin = new PathNode(loc.row, loc.col);
+        // The copy may be placed differently from the map; locations are the same.
+        Point start = map.isOutOfBounds(loc) ? robotPos : map.getCentrePoint(map.index(loc));
+        if (decisionMaker.findPath(start, robotAngle, destPos)) {
+            while (decisionMaker.isPlanning() && decisionMaker.getFoundPath().isEmpty()) {
+                if (Thread.currentThread().isInterrupted()) return null;
+                decisionMaker.improvePath();
+            }
+        }
+        if (Thread.currentThread().isInterrupted()) return null;
+        FlowField field = decisionMaker.getFlowField();
+        planned = new Plan(origin, decisionMaker.getFoundPath(), snapshot.version(), snapshot.geometryVersion(),
+                           field == null ? null : field.copy());
+        return planned;
+    }
+    
+    /**
+     * Carry on with an anytime search on the planning thread, after search()
+     * has found a first path, and hand over each better path it finds.
+     */
+    private void improve() {
+        if (planned == null) return;
+        while (decisionMaker.isPlanning()) {
+            if (Thread.currentThread().isInterrupted()) return;
+            if (decisionMaker.improvePath()) {
+                Plan plan = new Plan(planned.origin(), decisionMaker.getFoundPath(),
+                                     planned.mapVersion(), planned.geometryVersion(), planned.flowField());
+                synchronized (this) {
+                    // cancel() interrupts under the lock, so no cancelled path is handed over.
+                    if (Thread.currentThread().isInterrupted()) return;
+                    improved.set(plan);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Repair the flow field search() built on the planning thread, and hand
+     * over a copy of it. Fields are not repaired across a change of the map's
+     * geometry: the path is found again for the grown map.
+     */
+    private void repairFlowField(MapSnapshot snapshot) {
+        if (planned == null || planned.flowField() == null
+            || snapshot.geometryVersion() != planned.geometryVersion()) {
+            return;
+        }
+        if (!copy(snapshot)) return;
+        FlowField field = decisionMaker.getFlowField();
+        field.update();
+        Plan plan = new Plan(planned.origin(), planned.path(), snapshot.version(), snapshot.geometryVersion(),
+                             field.copy());
+        synchronized (this) {
+            // cancel() interrupts under the lock, so no cancelled field is handed over.
+            if (Thread.currentThread().isInterrupted()) return;
+            repaired.set(plan);
+        }
+    }
+    
+    /**
+     * Bring the copy of the map up to date with a snapshot. A new copy is
+     * made if the map's geometry has changed, or the snapshot is of another
+     * map of a different size. The copy is stored like the
+     * map, so e.g. a TILED map's copy only allocates the tiles with blocking
+     * properties; the copy of a MAPPED map is TILED, as it needs no file.
+     * An interrupted copy is left part way, and finished by the next one.
+     * @return false if the thread was interrupted first
+     */
+    private boolean copy(MapSnapshot snapshot) {
+        if (copied == null || copied.geometryVersion() != snapshot.geometryVersion()
+            || copied.rows() != snapshot.rows() || copied.columns() != snapshot.columns()) {
+            Map.Storage storage = snapshot.storage() == Map.Storage.MAPPED ? Map.Storage.TILED : snapshot.storage();
+            map = new Map(snapshot.getGridSize(), snapshot.rows(), snapshot.columns(), storage);
+            decisionMaker = new DecisionMaker(map, planner);
+            copied = null;
+        }
+        snapshot.changedCells(copied, changedCells);
+        for (int cell = changedCells.nextSetBit(0); cell >= 0; cell = changedCells.nextSetBit(cell + 1)) {
+            if (Thread.currentThread().isInterrupted()) return false;
+            for (Map.Property prop : Map.blockingProperties) {
+                map.set(prop, cell, snapshot.get(prop, cell));
+            }
+        }
+        copied = snapshot;
+        return true;
+    }
+    
+    // The planner paths are found with.
+    private final Settings.Planning.Planner planner;
+    // The planning thread, the latest request and the search for better paths
+    // after it, and the latest better path not yet taken.
+    private final ExecutorService executor;
+    private Future<Plan> pending;
+    private Future<?> improving;
+    private final AtomicReference<Plan> improved = new AtomicReference<Plan>();
+    // The repair of the latest request's flow field, the snapshot it was
+    // requested on, and the latest repaired field not yet taken.
+    private Future<?> repairing;
+    private MapSnapshot repairSnapshot;
+    private final AtomicReference<Plan> repaired = new AtomicReference<Plan>();
+    // The planning thread's copy of the map, the snapshot it was last brought
+    // up to date with, and the DecisionMaker that plans on it.
+    private Map map;
+    private MapSnapshot copied;
+    private DecisionMaker decisionMaker;
+    // The plan search() found last, which improve() finds better paths for.
+    private Plan planned;
+    private final BitSet changedCells = new BitSet();
+}
@@ -0,0 +1,226 @@
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PlanningServiceTest {
+    @Test
+    public void testPlansOnSnapshot() throws Exception {
+        Map map = new Map(0.05f, 100, 100);
+        for (int col = 20; col < 80; col += 1) {
+            map.set(Map.Property.OBSTACLE, map.index(50, col), 1.0f);
+        }
+        PlanningService service = new PlanningService();
+        Point robotPos = map.getCentrePoint(map.index(20, 50));
+        MapSnapshot snapshot = map.publishSnapshot();
+        // Close the wall off after the snapshot: the request does not see it.
+        for (int col = 0; col < 100; col += 1) {
+            map.set(Map.Property.OBSTACLE, map.index(50, col), 1.0f);
+        }
+        Future<PlanningService.Plan> future = service.plan(snapshot, robotPos, Float.NaN, new Map.GridLocation(80, 50));
+        PlanningService.Plan plan = future.get(10, TimeUnit.SECONDS);
+        assertTrue(plan.isFound());
+        assertEquals(snapshot.version(), plan.mapVersion());
+        assertEquals(20.0f, plan.origin().xMetres, 0.0f);
+        assertEquals(50.0f, plan.origin().yMetres, 0.0f);
+        
+        // The path goes around the end of the wall in the snapshot.
+        List<PathNode> path = plan.path();
+        PathNode last = path.get(path.size() - 1);
+        assertEquals(80.0f, last.xMetres, 3.0f);
+        assertEquals(50.0f, last.yMetres, 3.0f);
+        boolean crossesClosedWall = false;
+        for (PathNode node : path) {
+            assertEquals(0.0f, snapshot.get(Map.Property.OBSTACLE, snapshot.index((int)node.xMetres, (int)node.yMetres)), 0.0f);
+            crossesClosedWall |= map.isBlocked(map.index((int)node.xMetres, (int)node.yMetres));
+        }
+        assertTrue(crossesClosedWall);
+        DecisionMaker dm = new DecisionMaker(map);
+        dm.followPath(plan.origin(), path, plan.flowField());
+        assertFalse(dm.hasReached());
+        
+        // A snapshot with the wall closed off has no path.
+        plan = service.plan(map.publishSnapshot(), robotPos, Float.NaN, new Map.GridLocation(80, 50))
+                      .get(10, TimeUnit.SECONDS);
+        assertFalse(plan.isFound());
+        service.shutdown();
+    }
+    
+    @Test
+    public void testRepairsFlowFieldOnSnapshot() throws Exception {
+        Map map = new Map(0.05f, 100, 100);
+        PlanningService service = new PlanningService(Settings.Planning.Planner.FLOW_FIELD);
+        Point robotPos = map.getCentrePoint(map.index(20, 50));
+        PlanningService.Plan plan = service.plan(map.publishSnapshot(), robotPos, Float.NaN,
+                                                 new Map.GridLocation(80, 50)).get(10, TimeUnit.SECONDS);
+        // The field is found on the planning thread, and handed over with the path.
+        FlowField field = plan.flowField();
+        assertNotNull(field);
+        assertEquals(map.index(80, 50), field.goal());
+        int start = map.index(20, 50);
+        float straight = field.cost(start);
+        assertEquals(60 * PathNode.sideWaysMovementCost, straight, 0.0f);
+        DecisionMaker dm = new DecisionMaker(map, Settings.Planning.Planner.FLOW_FIELD);
+        dm.followPath(plan.origin(), plan.path(), field);
+        assertSame(field, dm.getFlowField());
+        
+        // A wall across the way: the robot stops short of it until the field is repaired.
+        for (int col = 30; col < 70; col += 1) {
+            map.set(Map.Property.OBSTACLE, map.index(50, col), 1.0f);
+        }
+        MapSnapshot snapshot = map.publishSnapshot();
+        Point robotPosNext = robotPos;
+        for (int leg = 0; robotPosNext != null && leg < 10; leg += 1) {
+            robotPos = robotPosNext;
+            robotPosNext = dm.getNextPosition(robotPos);
+        }
+        assertNull(robotPosNext);
+        assertTrue(map.getGridLocation(robotPos).row < 50);
+        service.repair(snapshot);
+        PlanningService.Plan repaired = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (repaired == null && System.nanoTime() < deadline) {
+            repaired = service.takeRepairedPlan();
+            Thread.sleep(1);
+        }
+        assertNotNull(repaired);
+        assertEquals(snapshot.version(), repaired.mapVersion());
+        assertTrue(repaired.flowField().cost(start) > straight);
+        assertEquals(straight, field.cost(start), 0.0f);	// The copy followed so far is left as it was
+        
+        // The repaired field leads around the wall.
+        dm.followFlowField(repaired.flowField());
+        int legs = 0;
+        while (!dm.hasReached(robotPos)) {
+            robotPos = dm.getNextPosition(robotPos);
+            assertNotNull(robotPos);
+            assertFalse(map.isBlocked(map.index(map.getGridLocation(robotPos))));
+            legs += 1;
+            assertTrue(legs < 100);
+        }
+        service.shutdown();
+    }
+    
+    @Test
+    public void testNewerRequestCancelsOlder() throws Exception {
+        Map map = comb(300);
+        PlanningService service = new PlanningService();
+        MapSnapshot snapshot = map.publishSnapshot();
+        Point robotPos = map.getCentrePoint(map.index(8, 150));
+        // Copying the map alone keeps the first request running when the second comes.
+        Future<PlanningService.Plan> first = service.plan(snapshot, robotPos, Float.NaN, new Map.GridLocation(292, 150));
+        Future<PlanningService.Plan> second = service.plan(snapshot, robotPos, Float.NaN, new Map.GridLocation(8, 250));
+        PlanningService.Plan plan = second.get(10, TimeUnit.SECONDS);
+        assertTrue(first.isCancelled());
+        try {
+            first.get();
+            fail();
+        } catch (CancellationException e) {
+            // The first request's path is dropped.
+        }
+        assertTrue(plan.isFound());
+        PathNode last = plan.path().get(plan.path().size() - 1);
+        assertEquals(8.0f, last.xMetres, 3.0f);
+        assertEquals(250.0f, last.yMetres, 3.0f);
+        
+        service.shutdown();
+    }
+    
+    @Test
+    public void testFirstPathThenImprovements() throws Exception {
+        Map map = comb(300);
+        PlanningService service = new PlanningService(Settings.Planning.Planner.ANYTIME);
+        Map.GridLocation destPos = new Map.GridLocation(292, 150);
+        PlanningService.Plan plan = service.plan(map.publishSnapshot(), map.getCentrePoint(map.index(8, 150)),
+                                                 Float.NaN, destPos).get(10, TimeUnit.SECONDS);
+        assertTrue(plan.isFound());
+        
+        // The search carries on after the first path, and hands over better ones.
+        PlanningService.Plan improved = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (improved == null && System.nanoTime() < deadline) {
+            improved = service.takeImprovedPlan();
+            Thread.sleep(1);
+        }
+        assertNotNull(improved);
+        assertTrue(improved.isFound());
+        assertEquals(plan.origin().xMetres, improved.origin().xMetres, 0.0f);
+        assertEquals(plan.origin().yMetres, improved.origin().yMetres, 0.0f);
+        assertEquals(plan.mapVersion(), improved.mapVersion());
+        PathNode last = improved.path().get(improved.path().size() - 1);
+        assertEquals(destPos.row, last.xMetres, 3.0f);
+        assertEquals(destPos.col, last.yMetres, 3.0f);
+        
+        service.shutdown();
+    }
+    
+    @Test
+    public void testCancelStopsRunningSearch() throws Exception {
+        // After its first path, the search on this map runs for over a second.
+        Map map = comb(1500);
+        PlanningService service = new PlanningService(Settings.Planning.Planner.ANYTIME);
+        PlanningService.Plan plan = service.plan(map.publishSnapshot(), map.getCentrePoint(map.index(8, 750)),
+                                                 Float.NaN, new Map.GridLocation(1492, 750))
+                                           .get(60, TimeUnit.SECONDS);
+        assertTrue(plan.isFound());
+        // Cancel once the search for better paths is under way.
+        while (service.takeImprovedPlan() == null) {
+            Thread.sleep(1);
+        }
+        service.cancel();
+        assertNull(service.takeImprovedPlan());
+        
+        // The search stops within a slice, and the planning thread takes the next request.
+        Map small = new Map(0.05f, 40, 40);
+        plan = service.plan(small.publishSnapshot(), small.getCentrePoint(small.index(8, 8)), Float.NaN,
+                            new Map.GridLocation(30, 30)).get(250, TimeUnit.MILLISECONDS);
+        assertTrue(plan.isFound());
+        
+        service.shutdown();
+    }
+    
+    @Test
+    public void testCancelStopsGridSearch() throws Exception {
+        Map map = comb(1500);
+        MapSnapshot snapshot = map.publishSnapshot();
+        Point robotPos = map.getCentrePoint(map.index(8, 750));
+        Map small = new Map(0.05f, 40, 40);
+        Settings.Planning.Planner[] planners = {
+            Settings.Planning.Planner.JUMP_POINT_SEARCH, Settings.Planning.Planner.ANY_ANGLE
+        };
+        for (Settings.Planning.Planner planner : planners) {
+            PlanningService service = new PlanningService(planner);
+            // A nearby destination first, so the map is copied before the search that is cancelled.
+            service.plan(snapshot, robotPos, Float.NaN, new Map.GridLocation(12, 760)).get(60, TimeUnit.SECONDS);
+            service.plan(snapshot, robotPos, Float.NaN, new Map.GridLocation(1492, 750));
+            Thread.sleep(20);
+            service.cancel();
+            
+            // The search stops within an expansion, and the planning thread takes the next request.
+            PlanningService.Plan plan = service.plan(small.publishSnapshot(), small.getCentrePoint(small.index(8, 8)),
+                                                     Float.NaN, new Map.GridLocation(30, 30))
+                                               .get(250, TimeUnit.MILLISECONDS);
+            assertTrue(plan.isFound());
+            service.shutdown();
+        }
+    }
+    
+    /**
+     * Create a map with a comb of walls, so paths from the top to the bottom
+     * wind across the whole map.
+     */
+    private static Map comb(int size) {
+        Map map = new Map(0.05f, size, size);
+        for (int row = 20; row < size - 10; row += 20) {
+            int gap = (row / 20) % 2 == 0 ? 10 : size - 11;
+            for (int col = 0; col < size; col += 1) {
+                if (Math.abs(col - gap) > 8) map.set(Map.Property.OBSTACLE, map.index(row, col), 1.0f);
+            }
+        }
+        return map;
+    }
+}
@@ -27,6 +27,59 @@ public class Settings {
         public static final int   rows      = 120;
         public static final int   cols      = 120;
         public static final float gridSize  = 0.02f; // metres
+        // Tiled maps only allocate storage for areas that have been written to,
+        // and grow (up to maxRows * maxCols) when written past their edges.
+        public static final boolean tiled   = false;
+        public static final int   maxRows   = 1024;
+        public static final int   maxCols   = 1024;
+        // Quantized maps store each property value in one byte instead of four.
+        public static final boolean quantized = false;
+        // If set, the map layers are kept in this memory-mapped file, and an
+        // existing map in the file is resumed on startup.
+        public static final String mappedFile = null;
+    }
+    
+    /**
+     * Path planning settings.
+     */
+    public static class Planning {
+        // The planners that find paths (see GridPlanner):
+        //   A_STAR            - plain A* (PathFinding), for paths of the lowest cost.
+        //   JUMP_POINT_SEARCH - paths of the same cost as A*, expanding far fewer cells on open floor.
+        //   ANY_ANGLE         - Theta*, sending the robot along straight segments at any angle
+        //                       instead of along every few cells of an eight-direction path.
+        //   MINIMUM_TIME      - the state lattice, for the path the robot carries out in the
+        //                       least time by the execution model below, rather than the shortest one.
+        //   ANYTIME           - ARA*, in slices of planningBudget per control loop step, so a hard
+        //                       map never stalls the loop. The first path found may cost up to
+        //                       initialEpsilon times the lowest cost; each later search lowers the
+        //                       bound by epsilonStep.
+        //   FLOW_FIELD        - a flow field towards the destination (FlowField), built by one search
+        //                       over the whole map, for paths of the same cost as A*. The next
+        //                       position is looked up from wherever the robot is, instead of from
+        //                       the found path, and sensed obstacles repair the field.
+        public enum Planner { A_STAR, JUMP_POINT_SEARCH, ANY_ANGLE, MINIMUM_TIME, ANYTIME, FLOW_FIELD }
+        public static final Planner planner = Planner.JUMP_POINT_SEARCH;
+        // Repair the path with D* Lite when an obstacle is sensed on it, instead of
+        // searching from scratch. The first repair for a destination builds the search tree.
+        public static final boolean incrementalReplanning = true;
+        // The execution model: speeds, the turning acceleration Robot.turn sets,
+        // and the time each command takes to stop, send and acknowledge.
+        public static final float driveSpeed       = 0.1f;   // metres per second; TODO: NEEDS TO BE MEASURED
+        public static final float turnRate         = 90.0f;  // degrees per second; TODO: NEEDS TO BE MEASURED
+        public static final float turnAcceleration = 500.0f; // degrees per second squared
+        public static final float commandOverhead  = 0.5f;   // seconds; TODO: NEEDS TO BE MEASURED
+        // The ANYTIME planner's schedule.
+        public static final long planningBudget = 20;        // milliseconds
+        public static final float initialEpsilon = 3.0f;
+        public static final float epsilonStep = 0.5f;
+        // Find paths on a thread of their own, against snapshots of the map (see
+        // PlanningService), so the Handler never waits for the planner.
+        public static final boolean asynchronous = true;
+        // Plan with HPA* over map tiles instead of A_STAR or JUMP_POINT_SEARCH once the map
+        // has at least this many cells. Its smoothed paths may cost slightly more (at most
+        // 10% in its tests), but it searches large maps much faster.
+        public static final int hierarchicalCellThreshold = 512 * 512;
     }
     
     /**
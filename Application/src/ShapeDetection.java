@@ -273,11 +273,12 @@ public class ShapeDetection {
 	 */
 	private float trackProbCheck(float x, float y) throws Map.OutOfMapBoundsException {
 		
-		Map.GridLocation loc = new Map.GridLocation((int)x, (int)y);
-		float trackProb;
-		trackProb = map.get(Map.Property.TRACKS, loc);
-		
-		return trackProb;
+		int row = (int)x;
+		int col = (int)y;
+		if (map.isOutOfBounds(row, col)) {
+			throw new Map.OutOfMapBoundsException();
+		}
+		return map.get(Map.Property.TRACKS, map.index(row, col));
 	}
 
 }
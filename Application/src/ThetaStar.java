@@ -0,0 +1,223 @@
+import java.util.Arrays;
+
+/**
+ * An any-angle planner using Lazy Theta* (Nash, Koenig and Tovey, "Lazy
+ * Theta*: Any-Angle Path Planning and Path Length Analysis in 3D", AAAI 2010).
+ * Theta* is A* in which a cell may take its parent's parent as its own parent
+ * when there is a line of sight between them, so paths run in straight
+ * segments at any angle instead of in eight directions. Lazy Theta* assumes
+ * the line of sight when a cell is reached, and only checks it once, when the
+ * cell is expanded.
+ * Paths are returned as cells, each a neighbour of the one before, along the
+ * straight segments, so they can be used like any GridPlanner's path. They
+ * are the shortest paths by length, not by PathNode's step costs.
+ * waypoints() reduces a path from any planner to the cells where it turns.
+ * A line of sight between two cells holds when every cell the straight line
+ * between their centres passes through is traversable; a line through the
+ * corner of four cells only passes through the two on the line.
+ * @author jkortman
+ */
+public class ThetaStar implements GridPlanner {
+    /**
+     * Create a planner for a map.
+     * @param map the map to plan on
+     */
+    public ThetaStar(Map map) {
+        this.map = map;
+        this.distanceFromPoint = 0;
+    }
+    
+    public void setDistanceFromPoint(int val) {
+        distanceFromPoint = val;
+    }
+    
+    public int getDistanceFromPoint() {
+        return distanceFromPoint;
+    }
+    
+    public int[] searchPath(int start, int goal) {
+        if (workspace == null || workspace.capacity() != map.cellCount()) {
+            workspace = new PlannerWorkspace(map.cellCount());
+        }
+        traversable = map.traversability(distanceFromPoint);
+        rows = map.rows();
+        cols = map.columns();
+        IndexedMinHeap open = workspace.open();
+        
+        workspace.reset();
+        workspace.reach(start, 0.0f, -1, distance(start, goal));
+        open.push(start, workspace.hCost(start), workspace.hCost(start));
+        while (!open.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) break;
+            int current = open.pop();
+            checkParent(current);
+            if (current == goal) {
+                return fillIn(workspace.path(goal));
+            }
+            workspace.close(current);
+            int parent = workspace.parent(current) >= 0 ? workspace.parent(current) : current;
+            int row = current / cols;
+            int col = current - row * cols;
+            for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+                int nRow = row + Map.neighbourRowOffsets[direction];
+                int nCol = col + Map.neighbourColOffsets[direction];
+                if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+                int next = nRow * cols + nCol;
+                if (workspace.isClosed(next) || !traversable.isTraversable(next)) continue;
+                // Assume the line of sight from the parent; checkParent() repairs it.
+                float cost = workspace.gCost(parent) + distance(parent, next);
+                if (workspace.gCost(next) <= cost) continue;
+                float h = workspace.isReached(next) ? workspace.hCost(next) : distance(next, goal);
+                workspace.reach(next, cost, parent, h);
+                open.push(next, cost + h, h);
+            }
+        }
+        return new int[0];
+    }
+    
+    /**
+     * Reduce a path to the cells where it turns: the start, the goal, and the
+     * fewest cells between such that there is a line of sight between each
+     * cell and the next.
+     * @param path the cells of a path, each a neighbour of the one before
+     * @return     the cells of the path where a straight segment ends
+     */
+    public int[] waypoints(int[] path) {
+        if (path.length <= 2) return path;
+        traversable = map.traversability(distanceFromPoint);
+        rows = map.rows();
+        cols = map.columns();
+        int[] waypoints = new int[path.length];
+        waypoints[0] = path[0];
+        int count = 1;
+        int anchor = 0;
+        while (anchor < path.length - 1) {
+            int end = anchor + 1;
+            while (end + 1 < path.length && walk(path[anchor], path[end + 1], null, 0) >= 0) {
+                end += 1;
+            }
+            waypoints[count] = path[end];
+            count += 1;
+            anchor = end;
+        }
+        return Arrays.copyOf(waypoints, count);
+    }
+    
+    /**
+     * Check whether there is a line of sight between two cells: whether the
+     * robot can drive straight from one to the other.
+     */
+    public boolean hasLineOfSight(int from, int to) {
+        traversable = map.traversability(distanceFromPoint);
+        rows = map.rows();
+        cols = map.columns();
+        return walk(from, to, null, 0) >= 0;
+    }
+    
+    /**
+     * Check the line of sight from an expanded cell's assumed parent, and if
+     * it is blocked, take the best expanded neighbour as the parent instead.
+     */
+    private void checkParent(int cell) {
+        int parent = workspace.parent(cell);
+        if (parent < 0 || walk(parent, cell, null, 0) >= 0) return;
+        int row = cell / cols;
+        int col = cell - row * cols;
+        float best = Float.MAX_VALUE;
+        int bestParent = -1;
+        for (int direction = 0; direction < Map.neighbourCount; direction += 1) {
+            int nRow = row + Map.neighbourRowOffsets[direction];
+            int nCol = col + Map.neighbourColOffsets[direction];
+            if (nRow < 0 || nCol < 0 || nRow >= rows || nCol >= cols) continue;
+            int next = nRow * cols + nCol;
+            if (!workspace.isClosed(next)) continue;
+            float cost = workspace.gCost(next) + distance(next, cell);
+            if (cost < best) {
+                best = cost;
+                bestParent = next;
+            }
+        }
+        // The cell was reached from an expanded neighbour, so one exists.
+        workspace.reach(cell, best, bestParent, workspace.hCost(cell));
+    }
+    
+    /**
+     * Walk the cells that the straight line between two cell centres passes
+     * through, from the cell after from up to to.
+     * @param from   the cell the line starts at, which is not checked
+     * @param to     the cell the line ends at
+     * @param into   receives the cells walked, or null
+     * @param offset the position in into of the first cell walked
+     * @return       the number of cells walked, or -1 if one is not traversable
+     */
+    private int walk(int from, int to, int[] into, int offset) {
+        int row = from / cols;
+        int col = from - row * cols;
+        int endRow = to / cols;
+        int endCol = to - endRow * cols;
+        int dRow = Math.abs(endRow - row);
+        int dCol = Math.abs(endCol - col);
+        int stepRow = endRow > row ? 1 : -1;
+        int stepCol = endCol > col ? 1 : -1;
+        // The sign of error tells which cell border the line crosses next.
+        int error = dRow - dCol;
+        int count = 0;
+        while (row != endRow || col != endCol) {
+            if (error > 0) {
+                row += stepRow;
+                error -= 2 * dCol;
+            } else if (error < 0) {
+                col += stepCol;
+                error += 2 * dRow;
+            } else {
+                // Through a corner.
+                row += stepRow;
+                col += stepCol;
+                error += 2 * dRow - 2 * dCol;
+            }
+            int cell = row * cols + col;
+            if (!traversable.isTraversable(cell)) return -1;
+            if (into != null) into[offset + count] = cell;
+            count += 1;
+        }
+        return count;
+    }
+    
+    /**
+     * Fill in the cells along the straight segments between the cells of a
+     * path.
+     */
+    private int[] fillIn(int[] corners) {
+        int length = 1;
+        for (int i = 1; i < corners.length; i += 1) {
+            length += Math.abs(corners[i] / cols - corners[i - 1] / cols)
+                    + Math.abs(corners[i] % cols - corners[i - 1] % cols);
+        }
+        int[] path = new int[length];
+        path[0] = corners[0];
+        int n = 1;
+        for (int i = 1; i < corners.length; i += 1) {
+            n += walk(corners[i - 1], corners[i], path, n);
+        }
+        return Arrays.copyOf(path, n);
+    }
+    
+    /**
+     * Get the straight-line distance between two cell centres, in cells.
+     */
+    private float distance(int from, int to) {
+        int dRow = to / cols - from / cols;
+        int dCol = to % cols - from % cols;
+        return (float)Math.sqrt(dRow * dRow + dCol * dCol);
+    }
+    
+    // The map, and the clearance paths keep from impassable areas, in cells.
+    private Map map;
+    private int distanceFromPoint;
+    // The search state, reused between searches.
+    private PlannerWorkspace workspace;
+    // The state of the current search.
+    private TraversabilityLayer traversable;
+    private int rows;
+    private int cols;
+}
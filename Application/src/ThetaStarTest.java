@@ -0,0 +1,81 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ThetaStarTest {
+    @Test
+    public void testOpenFloor() {
+        Map map = new Map(0.02f, 120, 120);
+        ThetaStar thetaStar = new ThetaStar(map);
+        int start = map.index(3, 5);
+        int goal = map.index(110, 90);
+        int[] path = thetaStar.searchPath(start, goal);
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, path);
+        // One straight segment, where an eight-direction path needs two.
+        assertArrayEquals(new int[] { start, goal }, thetaStar.waypoints(path));
+        assertArrayEquals(new int[] { start, goal }, thetaStar.waypoints(new PathFinding(map).searchPath(start, goal)));
+        assertArrayEquals(new int[] { start }, thetaStar.searchPath(start, start));
+    }
+    
+    @Test
+    public void testAroundObstacle() {
+        Map map = new Map(0.02f, 120, 120);
+        for (int col = 20; col < 100; col += 1) {
+            map.set(Map.Property.OBSTACLE, map.index(60, col), 1.0f);
+        }
+        ThetaStar thetaStar = new ThetaStar(map);
+        int start = map.index(10, 60);
+        int goal = map.index(110, 60);
+        int[] path = thetaStar.searchPath(start, goal);
+        PlannerTestSupport.assertValidPath(map, 0, start, goal, path);
+        // Straight to the end of the wall, and straight on from there.
+        int[] waypoints = thetaStar.waypoints(path);
+        assertEquals(3, waypoints.length);
+        assertEquals(60, map.rowOf(waypoints[1]));
+        assertFalse(thetaStar.hasLineOfSight(start, goal));
+    }
+    
+    @Test
+    public void testShorterThanGridPaths() {
+        new PlannerTestSupport.Trials<ThetaStar>(new Random(31), 80, 90, 30, 20) {
+            ThetaStar create(Map map) {
+                return new ThetaStar(map);
+            }
+        
+            void check(ThetaStar thetaStar, Map map, int clearance, int start, int goal, int[] lowest) {
+                int[] path = thetaStar.searchPath(start, goal);
+                assertEquals(lowest.length == 0, path.length == 0);
+                if (path.length == 0) return;
+                PlannerTestSupport.assertValidPath(map, clearance, start, goal, path);
+                int[] waypoints = thetaStar.waypoints(path);
+                for (int i = 1; i < waypoints.length; i += 1) {
+                    assertTrue(thetaStar.hasLineOfSight(waypoints[i - 1], waypoints[i]));
+                }
+                assertTrue(length(map, waypoints) <= length(map, lowest) + 0.001f);
+                segments += waypoints.length - 1;
+                // DecisionMaker used to send every fifth cell of a grid path.
+                gridSegments += (lowest.length + 3) / 5;
+            }
+        }.run(20, 10);
+        assertTrue(segments < gridSegments / 2);
+    }
+    
+    /**
+     * Get the length of the straight segments between the cells of a path.
+     */
+    private static float length(Map map, int[] waypoints) {
+        float length = 0.0f;
+        for (int i = 1; i < waypoints.length; i += 1) {
+            int dRow = map.rowOf(waypoints[i]) - map.rowOf(waypoints[i - 1]);
+            int dCol = map.colOf(waypoints[i]) - map.colOf(waypoints[i - 1]);
+            length += (float)Math.sqrt(dRow * dRow + dCol * dCol);
+        }
+        return length;
+    }
+    
+    // The number of straight segments of the paths, and of grid path segments.
+    private int segments;
+    private int gridSegments;
+}
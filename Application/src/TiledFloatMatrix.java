@@ -0,0 +1,173 @@
+import java.util.Arrays;
+
+/**
+ * A sparse 2D storage container of primitive floats. Matrices are zero-indexed.
+ * The matrix is divided into square tiles of Map.tileSize * Map.tileSize
+ * elements. A tile is only allocated the first time one of its elements is
+ * set to something other than the default value; elements of unallocated
+ * tiles read as the default value. Memory use therefore scales with the
+ * area that has actually been written, not with the size of the matrix.
+ * @author jkortman
+ */
+public class TiledFloatMatrix implements MapLayer {
+    /**
+     * Default constructor is disallowed; Matrices must have an associated size/height.
+     */
+    @SuppressWarnings("unused")
+    private TiledFloatMatrix() {}
+    
+    /**
+     * Create a matrix. No tiles are allocated, and all elements read as
+     * the default value.
+     * @param height        the number of rows in the matrix.
+     * @param width         the number of columns in the matrix.
+     * @param defaultValue  the value of elements that have never been set.
+     */
+    public TiledFloatMatrix(int height, int width, float defaultValue) throws IllegalArgumentException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.height = height;
+        this.width = width;
+        this.defaultValue = defaultValue;
+        this.tileColumns = (width + tileMask) >> tileShift;
+        this.tiles = new float[((height + tileMask) >> tileShift) * tileColumns][];
+    }
+    
+    /**
+     * Create a larger matrix that shares the tiles of this one.
+     * Growth is in whole tiles at the top and left, so no element is copied:
+     * element (row, col) of this matrix becomes element
+     * (row + rowTiles * Map.tileSize, col + colTiles * Map.tileSize) of the
+     * new matrix. This matrix must not be used after growing it.
+     * @param rowTiles  the number of tile rows to add above the current rows.
+     * @param colTiles  the number of tile columns to add left of the current columns.
+     * @param height    the number of rows in the new matrix.
+     * @param width     the number of columns in the new matrix.
+     * @return          the new matrix.
+     */
+    public TiledFloatMatrix grow(int rowTiles, int colTiles, int height, int width) {
+        int rowShift = rowTiles << tileShift;
+        int colShift = colTiles << tileShift;
+        if (rowTiles < 0 || colTiles < 0
+                || height < this.height + rowShift || width < this.width + colShift) {
+            throw new IllegalArgumentException();
+        }
+        TiledFloatMatrix grown = new TiledFloatMatrix(height, width, defaultValue);
+        int oldTileRows = tiles.length / tileColumns;
+        for (int i = 0; i < oldTileRows; i += 1) {
+            System.arraycopy(tiles, i * tileColumns,
+                             grown.tiles, (i + rowTiles) * grown.tileColumns + colTiles,
+                             tileColumns);
+        }
+        return grown;
+    }
+    
+    /**
+     * Set an element in the matrix.
+     * @param row   the row/vertical position of the element to set.
+     * @param col   the column/horizontal position of the element to set.
+     * @param value the value to set the element to at the specified position.
+     */
+    public void set(int row, int col, float value) {
+        int t = (row >> tileShift) * tileColumns + (col >> tileShift);
+        float[] tile = tiles[t];
+        if (tile == null) {
+            // Writing the default value to an unallocated tile changes nothing.
+            if (value == defaultValue) return;
+            tile = new float[tileSize * tileSize];
+            if (defaultValue != 0.0f) Arrays.fill(tile, defaultValue);
+            tiles[t] = tile;
+        }
+        tile[((row & tileMask) << tileShift) | (col & tileMask)] = value;
+    }
+    
+    /**
+     * Set an element in the matrix by its row-major index.
+     * @param index the element index, row * width + col.
+     * @param value the value to set the element to.
+     */
+    public void set(int index, float value) {
+        int row = index / width;
+        set(row, index - row * width, value);
+    }
+    
+    /**
+     * Retrieve a value from the matrix at a position.
+     * @param row   the row/vertical position of the element to get.
+     * @param col   the column/horizontal position of the element to get.
+     * @return      the value at the specified position.
+     */
+    public float get(int row, int col) {
+        float[] tile = tiles[(row >> tileShift) * tileColumns + (col >> tileShift)];
+        if (tile == null) return defaultValue;
+        return tile[((row & tileMask) << tileShift) | (col & tileMask)];
+    }
+    
+    /**
+     * Retrieve a value from the matrix by its row-major index.
+     * @param index the element index, row * width + col.
+     * @return      the value at the specified index.
+     */
+    public float get(int index) {
+        int row = index / width;
+        return get(row, index - row * width);
+    }
+    
+    /**
+     * Copy a rectangular region of the matrix into an array, row by row.
+     * @param row    the first row of the region.
+     * @param col    the first column of the region.
+     * @param height the number of rows in the region.
+     * @param width  the number of columns in the region.
+     * @param dest   the array to copy into.
+     * @param offset the position in dest of the first copied element.
+     */
+    public void copyRegion(int row, int col, int height, int width, float[] dest, int offset) {
+        for (int i = 0; i < height; i += 1) {
+            for (int j = 0; j < width; j += 1) {
+                dest[offset + i * width + j] = get(row + i, col + j);
+            }
+        }
+    }
+    
+    /**
+     * Get the number of tiles that have been allocated.
+     */
+    public int allocatedTiles() {
+        int count = 0;
+        for (float[] tile : tiles) {
+            if (tile != null) count += 1;
+        }
+        return count;
+    }
+    
+    /**
+     * Get the height of the matrix.
+     * @return the height (number of rows) in the matrix.
+     */
+    public int height() {
+        return height;
+    }
+    
+    /**
+     * Get the width of the matrix.
+     * @return the width (number of columns) in the matrix.
+     */
+    public int width() {
+        return width;
+    }
+    
+    // Tiles line up with the Map's change-tracking tiles.
+    private static final int tileShift = Map.tileShift;
+    private static final int tileSize = Map.tileSize;
+    private static final int tileMask = tileSize - 1;
+    
+    // Internal storage details.
+    private int height;
+    private int width;
+    private float defaultValue;
+    private int tileColumns;
+    // Row-major tiles of tileSize * tileSize elements; null until first written.
+    private float[][] tiles;
+}
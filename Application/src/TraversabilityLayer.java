@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The configuration space of a round robot on a grid: which cells the centre
+ * of the robot can occupy without its footprint touching a blocked cell.
+ * Blocked cells are inflated by the robot radius. For every cell the layer
+ * counts the blocked cells within the radius, and keeps a packed bitset of
+ * the cells where the count is zero. Blocking or unblocking a cell adjusts
+ * the counts of the cells within the radius of it, so the layer stays up to
+ * date in O(radius^2) per change, and a traversability check is one bit test.
+ * Cells outside of the grid are not blocked. Change cursors report the cells
+ * whose traversability flips, so planners can repair their searches.
+ * Cells are addressed by row-major index, as for Map.index().
+ * Only changes and cursor registration lock the layer. Reads do not, so
+ * planners check cells at the cost of a bit test: a read that races with
+ * setBlocked() sees the cell before or after the change, and a cursor
+ * registered before it reports the cell, so the planner catches up.
+ * @author jkortman
+ */
+public class TraversabilityLayer {
+    /**
+     * Default constructor is disallowed; layers must have an associated size.
+     */
+    @SuppressWarnings("unused")
+    private TraversabilityLayer() {}
+    
+    /**
+     * Create a layer with no blocked cells, in which every cell is traversable.
+     * @param rows   the number of rows in the grid
+     * @param cols   the number of columns in the grid
+     * @param radius the robot radius in cells; cells whose centres are at most
+     *               this far from a blocked cell's centre are not traversable
+     */
+    public TraversabilityLayer(int rows, int cols, int radius) {
+        if (rows < 1 || cols < 1 || radius < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.radius = radius;
+        this.tileRows = (rows + Map.tileSize - 1) >> Map.tileShift;
+        this.tileColumns = (cols + Map.tileSize - 1) >> Map.tileShift;
+        counts = new int[rows * cols];
+        traversable = new long[(rows * cols + 63) >>> 6];
+        Arrays.fill(traversable, -1L);
+        // The footprint is a disc, stored as the column half-width of each row offset.
+        halfWidths = new int[2 * radius + 1];
+        for (int dRow = -radius; dRow <= radius; dRow += 1) {
+            halfWidths[dRow + radius] = (int)Math.floor(Math.sqrt(radius * radius - dRow * dRow));
+        }
+    }
+    
+    /**
+     * Get the robot radius of the layer, in cells.
+     */
+    public int radius() {
+        return radius;
+    }
+    
+    /**
+     * Mark a cell as blocked or unblocked. Callers must only report changes:
+     * a cell is blocked at most once before it is unblocked.
+     * @param index   the cell index
+     * @param blocked whether the cell is now blocked
+     */
+    public synchronized void setBlocked(int index, boolean blocked) {
+        int delta = blocked ? 1 : -1;
+        int row = index / cols;
+        int col = index - row * cols;
+        for (int dRow = -radius; dRow <= radius; dRow += 1) {
+            int r = row + dRow;
+            if (r < 0 || r >= rows) continue;
+            int halfWidth = halfWidths[dRow + radius];
+            int last = Math.min(cols - 1, col + halfWidth);
+            for (int c = Math.max(0, col - halfWidth); c <= last; c += 1) {
+                int n = r * cols + c;
+                counts[n] += delta;
+                // Only the transitions between zero and one change traversability.
+                if (counts[n] == (blocked ? 1 : 0)) {
+                    traversable[n >>> 6] ^= 1L << n;
+                    for (ChangeCursor cursor : changeCursors) {
+                        cursor.mark(n, (r >> Map.tileShift) * tileColumns + (c >> Map.tileShift));
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Check whether the robot can be centred on a cell.
+     * @param index the cell index
+     */
+    public boolean isTraversable(int index) {
+        return (traversable[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    /**
+     * Create a cursor that records the cells whose traversability changes,
+     * e.g. for a planner to repair its search. Like a map's change cursors,
+     * it tracks tiles of Map.tileSize cells and starts with every cell marked.
+     * Cursors should be released with releaseChangeCursor() when no longer needed.
+     */
+    public synchronized ChangeCursor newChangeCursor() {
+        ChangeCursor cursor = new ChangeCursor(rows * cols, tileRows * tileColumns, true);
+        ChangeCursor[] cursors = Arrays.copyOf(changeCursors, changeCursors.length + 1);
+        cursors[cursors.length - 1] = cursor;
+        changeCursors = cursors;
+        return cursor;
+    }
+    
+    /**
+     * Stop recording changes into a change cursor.
+     */
+    public synchronized void releaseChangeCursor(ChangeCursor cursor) {
+        ArrayList<ChangeCursor> cursors = new ArrayList<>(Arrays.asList(changeCursors));
+        cursors.remove(cursor);
+        changeCursors = cursors.toArray(new ChangeCursor[cursors.size()]);
+    }
+    
+    /**
+     * Get the number of blocked cells within the robot radius of a cell.
+     * @param index the cell index
+     */
+    public int blockedCount(int index) {
+        return counts[index];
+    }
+    
+    // Grid size and robot radius, in cells.
+    private int rows;
+    private int cols;
+    private int radius;
+    // The column half-width of the footprint for each row offset, -radius to radius.
+    private int[] halfWidths;
+    // The number of blocked cells within the radius of each cell, and one
+    // bit per cell that is set when that number is zero.
+    private int[] counts;
+    private long[] traversable;
+    // Cursors recording the cells whose traversability changed, by tile.
+    private int tileRows;
+    private int tileColumns;
+    private ChangeCursor[] changeCursors = new ChangeCursor[0];
+}